@@ -0,0 +1,92 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * AddressBatch.java
+ *
+ * Program Description: Columnar batch of rows read from the SQL Table, the unit in which rows
+ * wait between the read and verify stages of Pipeline.java. Each address field is one column.
+ * Address lines are kept as string columns, with every empty value stored as null. The
+ * fields with few distinct values (Locality, AdministrativeArea, PostalCode, CountryCode and
+ * the other areas) are stored as integer codes into the shared dictionaries of
+ * AddressRecord.java. A queued row therefore costs a few references and codes instead of an
+ * array and a string per field.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+public class AddressBatch {
+	private static final int CODED_COLUMNS = AddressRecord.INPUT_FIELD_COUNT - AddressRecord.FIRST_DICTIONARY_FIELD;
+
+	private final String[] recordIDs;
+	private final String[][] addressLines = new String[AddressRecord.ADDRESS_LINES][];
+	private final int[][] codes = new int[CODED_COLUMNS][];
+	// Values that did not fit in a full dictionary, created only when needed
+	private final String[][] unencoded = new String[CODED_COLUMNS][];
+	private int size = 0;
+
+	/**
+	 * @param capacity most rows held
+	 */
+	public AddressBatch(int capacity) {
+		recordIDs = new String[capacity];
+		for (int column = 0; column < AddressRecord.ADDRESS_LINES; column++) {
+			addressLines[column] = new String[capacity];
+		}
+		for (int column = 0; column < CODED_COLUMNS; column++) {
+			codes[column] = new int[capacity];
+		}
+	}
+
+	/**
+	 * Adds the input fields of a record that has not been verified yet
+	 * @param record
+	 */
+	public void add(AddressRecord record) {
+		int row = size++;
+
+		recordIDs[row] = record.getRecordID();
+		for (int column = 0; column < AddressRecord.ADDRESS_LINES; column++) {
+			String value = record.getField(AddressRecord.ADDRESS_LINE_1 + column);
+			addressLines[column][row] = value.isEmpty() ? null : value;
+		}
+		for (int column = 0; column < CODED_COLUMNS; column++) {
+			String value = record.getField(AddressRecord.FIRST_DICTIONARY_FIELD + column);
+			int code = AddressRecord.DICTIONARIES[column].encode(value);
+
+			if (code == StringDictionary.NOT_ENCODED) {
+				if (unencoded[column] == null) {
+					unencoded[column] = new String[recordIDs.length];
+				}
+				unencoded[column][row] = value;
+			}
+			codes[column][row] = code;
+		}
+	}
+
+	/**
+	 * @param row
+	 * @return a new record holding the row's fields
+	 */
+	public AddressRecord get(int row) {
+		String[] inputFields = new String[AddressRecord.INPUT_FIELD_COUNT];
+
+		for (int column = 0; column < AddressRecord.ADDRESS_LINES; column++) {
+			inputFields[AddressRecord.ADDRESS_LINE_1 + column] = addressLines[column][row];
+		}
+		for (int column = 0; column < CODED_COLUMNS; column++) {
+			int code = codes[column][row];
+			inputFields[AddressRecord.FIRST_DICTIONARY_FIELD + column] = code == StringDictionary.NOT_ENCODED
+					? unencoded[column][row] : AddressRecord.DICTIONARIES[column].decode(code);
+		}
+		return new AddressRecord(recordIDs[row], inputFields);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isFull() {
+		return size == recordIDs.length;
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * AddressKey.java
+ *
+ * Program Description: Builds the normalized key of an address used to recognise identical
+ * addresses across rows. Each field is Unicode normalized (NFKC, so composed and decomposed
+ * forms of accented and Icelandic letters compare equal), case-folded with Icelandic rules,
+ * trimmed and has its inner whitespace collapsed.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+public class AddressKey {
+	private static final Locale ICELANDIC = new Locale("is", "IS");
+	private static final char SEPARATOR = '\u001F';
+
+	private AddressKey() {
+	}
+
+	/**
+	 * Returns the normalized key of the given record's fields first to last, inclusive
+	 * @param record
+	 * @param first
+	 * @param last
+	 * @return normalized key
+	 */
+	public static String of(AddressRecord record, int first, int last) {
+		StringBuilder key = new StringBuilder(128);
+
+		for (int i = first; i <= last; i++) {
+			if (i > first) {
+				key.append(SEPARATOR);
+			}
+			appendNormalized(key, record.getField(i));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Returns the key of the address a row was read with, covering every field sent to Global
+	 * Address: Address1 - 8, Locality, AdministrativeArea, PostalCode, CountryCode,
+	 * DependentLocality, DoubleDependentLocality, SubAdministrativeArea and SubNationalArea
+	 * @param record
+	 * @return normalized key
+	 */
+	public static String ofInput(AddressRecord record) {
+		return of(record, AddressRecord.ADDRESS_LINE_1, AddressRecord.SUB_NATIONAL_AREA);
+	}
+
+	/**
+	 * Returns the key of a verified address, covering every field sent to Global MAK
+	 * @param record
+	 * @return normalized key
+	 */
+	public static String ofVerified(AddressRecord record) {
+		return of(record, AddressRecord.ADDRESS_LINE_1, AddressRecord.SUB_PREMISES_NUMBER);
+	}
+
+	/**
+	 * Appends the normalized form of a single field
+	 * @param key
+	 * @param value
+	 */
+	static void appendNormalized(StringBuilder key, String value) {
+		if (value == null) {
+			return;
+		}
+
+		String normalized = Normalizer.normalize(value, Normalizer.Form.NFKC).toLowerCase(ICELANDIC);
+		boolean pendingSpace = false;
+
+		for (int i = 0; i < normalized.length(); i++) {
+			char c = normalized.charAt(i);
+
+			if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+				pendingSpace = true;
+				continue;
+			}
+			if (pendingSpace && key.length() > 0 && key.charAt(key.length() - 1) != SEPARATOR) {
+				key.append(' ');
+			}
+			pendingSpace = false;
+			key.append(c);
+		}
+	}
+}
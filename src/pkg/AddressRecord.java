@@ -0,0 +1,202 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * AddressRecord.java
+ *
+ * Program Description: One row of the SQL Table on its way through the program: its record
+ * ID, its address fields, and once verified, the corrected address fields and the MAK id.
+ * The address fields are kept in the order of Global Address's corrected fields
+ * (GlobalAddressResult.CORRECTED_FIELD_NAMES) and are reached through the named getters or
+ * the field constants below. Values of the columns with few distinct values are shared
+ * through dictionaries, and every empty value is the same empty string.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.util.Locale;
+
+public class AddressRecord {
+	public static final int ADDRESS_LINE_1 = 0; // AddressLine1 - 8 are fields 0 - 7
+	public static final int LOCALITY = 8;
+	public static final int ADMINISTRATIVE_AREA = 9;
+	public static final int POSTAL_CODE = 10;
+	public static final int COUNTRY = 11;
+	public static final int DEPENDENT_LOCALITY = 12;
+	public static final int DOUBLE_DEPENDENT_LOCALITY = 13;
+	public static final int SUB_ADMINISTRATIVE_AREA = 14;
+	public static final int SUB_NATIONAL_AREA = 15;
+	public static final int THOROUGHFARE = 16;
+	public static final int PREMISES_NUMBER = 17;
+	public static final int SUB_PREMISES_NUMBER = 18;
+
+	// Fields read from the SQL Table, and all fields once verified
+	public static final int INPUT_FIELD_COUNT = 16;
+	public static final int FIELD_COUNT = 19;
+	public static final int ADDRESS_LINES = 8;
+	// Rows with an empty CountryCode are taken to be Icelandic, as the SQL Table always was
+	public static final String DEFAULT_COUNTRY_CODE = "IS";
+
+	// Fields LOCALITY to SUB_NATIONAL_AREA repeat across many rows and share one dictionary each
+	static final int FIRST_DICTIONARY_FIELD = LOCALITY;
+	static final StringDictionary[] DICTIONARIES = new StringDictionary[INPUT_FIELD_COUNT - FIRST_DICTIONARY_FIELD];
+
+	static {
+		for (int i = 0; i < DICTIONARIES.length; i++) {
+			DICTIONARIES[i] = new StringDictionary(65536);
+		}
+	}
+
+	private final String recordID;
+	private final String[] fields = new String[FIELD_COUNT];
+	private String countryCode;
+	private String organization = "";
+	private String mak = "";
+	private boolean verified = false;
+
+	/**
+	 * @param recordID
+	 * @param inputFields the INPUT_FIELD_COUNT address fields read from the SQL Table, in field
+	 * order; null values are read as empty
+	 */
+	public AddressRecord(String recordID, String... inputFields) {
+		this.recordID = recordID;
+
+		for (int i = 0; i < FIELD_COUNT; i++) {
+			setField(i, i < inputFields.length ? inputFields[i] : null);
+		}
+		countryCode = fields[COUNTRY].isEmpty() ? DEFAULT_COUNTRY_CODE : fields[COUNTRY].toUpperCase(Locale.ROOT);
+	}
+
+	/**
+	 * @return a copy of this record, for sources that hand out the same rows more than once
+	 */
+	public AddressRecord copy() {
+		AddressRecord copy = new AddressRecord(recordID);
+
+		System.arraycopy(fields, 0, copy.fields, 0, FIELD_COUNT);
+		copy.countryCode = countryCode;
+		copy.organization = organization;
+		copy.mak = mak;
+		copy.verified = verified;
+		return copy;
+	}
+
+	/**
+	 * Replaces the address fields with the corrected fields returned by Global Address and
+	 * marks the record as verified
+	 * @param result
+	 */
+	public void applyVerification(GlobalAddressResult result) {
+		for (int i = 0; i < result.getCorrectedFieldCount() && i < FIELD_COUNT; i++) {
+			setField(i, result.getCorrectedField(i));
+		}
+		verified = true;
+	}
+
+	/**
+	 * @param field one of the field constants
+	 * @return value of the field, never null
+	 */
+	public String getField(int field) {
+		return fields[field];
+	}
+
+	private void setField(int field, String value) {
+		String trimmed = value == null ? "" : value.trim();
+
+		if (trimmed.isEmpty()) {
+			fields[field] = "";
+		} else if (field >= FIRST_DICTIONARY_FIELD && field < INPUT_FIELD_COUNT) {
+			fields[field] = DICTIONARIES[field - FIRST_DICTIONARY_FIELD].canonical(trimmed);
+		} else {
+			fields[field] = trimmed;
+		}
+	}
+
+	public String getRecordID() {
+		return recordID;
+	}
+
+	/**
+	 * @param line 1 to 8
+	 * @return value of AddressLine1 - 8
+	 */
+	public String getAddressLine(int line) {
+		return fields[ADDRESS_LINE_1 + line - 1];
+	}
+
+	public String getLocality() {
+		return fields[LOCALITY];
+	}
+
+	public String getAdministrativeArea() {
+		return fields[ADMINISTRATIVE_AREA];
+	}
+
+	public String getPostalCode() {
+		return fields[POSTAL_CODE];
+	}
+
+	/**
+	 * @return country code as read, or the country name returned by Global Address once verified
+	 */
+	public String getCountry() {
+		return fields[COUNTRY];
+	}
+
+	/**
+	 * @return ISO 3166-1 alpha-2 code of the CountryCode column as read, kept once verified, or
+	 * DEFAULT_COUNTRY_CODE if the column is empty
+	 */
+	public String getCountryCode() {
+		return countryCode;
+	}
+
+	public String getDependentLocality() {
+		return fields[DEPENDENT_LOCALITY];
+	}
+
+	public String getDoubleDependentLocality() {
+		return fields[DOUBLE_DEPENDENT_LOCALITY];
+	}
+
+	public String getSubAdministrativeArea() {
+		return fields[SUB_ADMINISTRATIVE_AREA];
+	}
+
+	public String getSubNationalArea() {
+		return fields[SUB_NATIONAL_AREA];
+	}
+
+	public String getThoroughfare() {
+		return fields[THOROUGHFARE];
+	}
+
+	public String getPremisesNumber() {
+		return fields[PREMISES_NUMBER];
+	}
+
+	public String getSubPremisesNumber() {
+		return fields[SUB_PREMISES_NUMBER];
+	}
+
+	public String getOrganization() {
+		return organization;
+	}
+
+	public boolean isVerified() {
+		return verified;
+	}
+
+	/**
+	 * @return MAK id, or an empty string if none has been found
+	 */
+	public String getMak() {
+		return mak;
+	}
+
+	public void setMak(String mak) {
+		this.mak = mak == null ? "" : mak;
+	}
+}
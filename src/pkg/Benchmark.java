@@ -0,0 +1,493 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * Benchmark.java
+ *
+ * Program Description: End-to-end throughput benchmark. Starts the stub web services of
+ * StubServices.java, then runs generated Icelandic rows through the full read -> verify ->
+ * MAK -> write-back path of Pipeline.java with an in-memory record source and MAK id sink in
+ * place of the SQL Table. Each scenario reports rows per second, the latency of a verified
+ * row from read to write-back (p50 / p99 / p99.9) and the latency of the web service calls,
+ * so that runs before and after a change can be compared. The read and write speed of the file
+ * connectors, FileRecordReader.java and FileMakWriter.java, is measured on the same rows, and
+ * one run is recorded to a ResponseCassette.java and replayed without the stub services. One
+ * run mixes in rows of a second country, throttled in its own CountryPartition.java, and one
+ * fails every third write-back batch to show that the ProgressJournal.java still finishes.
+ *
+ * Usage: java pkg.Benchmark [rows] [medianLatencyMillis] [errorRate]
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Benchmark {
+	private static final String[] STREETS = { "Laugavegur", "Hverfisgata", "Sk\u00f3lav\u00f6r\u00f0ust\u00edgur",
+			"Bankastr\u00e6ti", "Hringbraut", "Su\u00f0urgata", "Bors\u00fastabraut", "\u00c1lfheimar",
+			"Gar\u00f0astr\u00e6ti", "Tryggvagata", "\u00deingholtsstr\u00e6ti", "Eir\u00edksgata" };
+	private static final String[][] LOCALITIES = { { "101", "Reykjav\u00edk" }, { "105", "Reykjav\u00edk" },
+			{ "200", "K\u00f3pavogur" }, { "210", "Gar\u00f0ab\u00e6r" }, { "220", "Hafnarfj\u00f6r\u00f0ur" },
+			{ "600", "Akureyri" }, { "800", "Selfoss" } };
+	// Share of rows that repeat an address seen earlier, as in real customer tables
+	private static final double DUPLICATE_SHARE = 0.2;
+
+	// Keeps the rows being measured reachable until their heap has been counted
+	private static volatile Object retained;
+	// Every how many write-back batches one fails, 0 for none
+	private static int failEveryWriteBatch = 0;
+
+	public static void main(String[] args) throws IOException {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		double medianLatencyMillis = args.length > 1 ? Double.parseDouble(args[1]) : 20;
+		double errorRate = args.length > 2 ? Double.parseDouble(args[2]) : 0.01;
+
+		StubServices stubs = new StubServices(medianLatencyMillis, 0.5, errorRate, 0.8);
+		Main.globalAddressUrl = stubs.getGlobalAddressUrl();
+		Main.makUrl = stubs.getMakUrl();
+
+		System.out.println(String.format("%d rows, median service latency %.0f ms, error rate %.3f",
+				rows, medianLatencyMillis, errorRate));
+		List<AddressRecord> input = generateRows(rows, 42);
+		printHeapPerRow(input);
+		printFileThroughput(input);
+
+		System.out.println(String.format("%-28s %10s %10s %10s %10s %12s %12s", "scenario", "rows/sec",
+				"p50 ms", "p99 ms", "p99.9 ms", "GA p99 ms", "MAK p99 ms"));
+
+		// Warm-up so the JIT and the connection pools are ready before anything is measured
+		run("warm-up", input.subList(0, Math.min(rows, 2000)), 16, 16, 1, false, false);
+
+		run("serial (1 + 1 workers)", input.subList(0, Math.min(rows, 500)), 1, 1, 1, false, true);
+		run("8 + 8 workers, GET", input, 8, 8, 1, false, true);
+		run("8 + 8 workers, GET, hedged", input, 8, 8, 1, true, true);
+		runRecordedAndReplayed(input);
+		runWithThrottledCountry(input);
+		runWithFailingWrites(input);
+		run("32 + 32 workers, GET", input, 32, 32, 1, false, true);
+		run("8 + 32 workers, POST x 50", input, 8, 32, 50, false, true);
+
+		stubs.close();
+	}
+
+	/**
+	 * Runs the given rows through the pipeline against the stub services with empty caches
+	 * @param name
+	 * @param input
+	 * @param verifyThreads
+	 * @param makThreads
+	 * @param globalAddressBatchSize
+	 * @param hedge true to hedge the requests of both web services at their p95 latency
+	 * @param print false to run without printing the results
+	 */
+	private static void run(String name, List<AddressRecord> input, int verifyThreads, int makThreads,
+			int globalAddressBatchSize, boolean hedge, boolean print) {
+		Main.httpClient = new ServiceHttpClient(Math.max(verifyThreads, makThreads), 5000, 30000, 60000);
+		Main.globalAddressHedger = hedge ? new RequestHedger("Global Address", 95, 10) : null;
+		Main.makHedger = hedge ? new RequestHedger("Global MAK", 95, 10) : null;
+		Main.globalAddressGovernor = new CallGovernor("Global Address", 0, verifyThreads, 2000, 5, 10, 1000);
+		Main.makGovernor = new CallGovernor("Global MAK", 0, makThreads, 2000, 5, 10, 1000);
+		Main.defaultPartition = new CountryPartition();
+		Main.verificationCache = new CoalescingCache<GlobalAddressResult>("Global Address", 100000, null);
+		Main.makCache = new CoalescingCache<String>("Global MAK", 100000, null);
+		Metrics.reset();
+
+		InMemorySource source = new InMemorySource(input);
+		InMemorySink sink = failEveryWriteBatch > 0 ? new FailingSink(source, failEveryWriteBatch)
+				: new InMemorySink(source);
+		long start = System.nanoTime();
+		new Pipeline(1000, 64, verifyThreads, makThreads, globalAddressBatchSize, source, sink).run();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		Main.httpClient.close();
+
+		if (!print) {
+			return;
+		}
+		LatencyHistogram globalAddressLatency = Metrics.stage(Metrics.GLOBAL_ADDRESS);
+		LatencyHistogram makLatency = Metrics.stage(Metrics.GLOBAL_MAK);
+		System.out.println(String.format("%-28s %10.1f %10.1f %10.1f %10.1f %12.1f %12.1f", name,
+				input.size() / seconds, sink.rowLatency.getQuantileNanos(0.5) / 1e6,
+				sink.rowLatency.getQuantileNanos(0.99) / 1e6, sink.rowLatency.getQuantileNanos(0.999) / 1e6,
+				globalAddressLatency.getQuantileNanos(0.99) / 1e6, makLatency.getQuantileNanos(0.99) / 1e6));
+		System.out.println(String.format("%-28s %d Global Address calls, %d Global MAK calls, %d MAK ids written",
+				"", globalAddressLatency.getCount(), makLatency.getCount(),
+				sink.written.get()));
+		for (CountryPartition partition : Main.countryPartitions.values()) {
+			System.out.println(String.format("%-28s %s", "", partition.report()));
+		}
+		if (!Main.countryPartitions.isEmpty()) {
+			System.out.println(String.format("%-28s %s", "", Main.defaultPartition.report()));
+		}
+		if (hedge) {
+			System.out.println(String.format("%-28s %s", "", Main.globalAddressHedger.report()));
+			System.out.println(String.format("%-28s %s", "", Main.makHedger.report()));
+		}
+	}
+
+	/**
+	 * Runs the rows with 8 + 8 workers while recording the responses to a cassette, then again
+	 * with the responses replayed from it, showing the recording overhead and the throughput of
+	 * the pipeline itself once the web services take no time
+	 * @param input
+	 * @throws IOException if the cassette cannot be written
+	 */
+	private static void runRecordedAndReplayed(List<AddressRecord> input) throws IOException {
+		File cassette = File.createTempFile("benchmark", ".cassette");
+		cassette.delete();
+		cassette.deleteOnExit();
+
+		Main.responseCassette = new ResponseCassette(cassette, ResponseCassette.RECORD, false);
+		run("8 + 8 workers, GET, recorded", input, 8, 8, 1, false, true);
+		System.out.println(String.format("%-28s %s", "", Main.responseCassette.report()));
+		Main.responseCassette.close();
+
+		Main.responseCassette = new ResponseCassette(cassette, ResponseCassette.REPLAY, false);
+		run("8 + 8 workers, GET, replayed", input, 8, 8, 1, false, true);
+		System.out.println(String.format("%-28s %s", "", Main.responseCassette.report()));
+		Main.responseCassette.close();
+		Main.responseCassette = null;
+		cassette.delete();
+	}
+
+	/**
+	 * Runs the rows with every twentieth one moved to Norway, whose rows have their own lane of
+	 * 2 + 2 workers and a quota of 20 calls per second to each web service, to show that the
+	 * Icelandic rows keep their throughput while the Norwegian ones wait for their quota
+	 * @param input
+	 */
+	private static void runWithThrottledCountry(List<AddressRecord> input) {
+		List<AddressRecord> mixed = new ArrayList<AddressRecord>(input.size());
+		for (int i = 0; i < input.size(); i++) {
+			String[] inputFields = readFields(input.get(i));
+			if (i % 20 == 0) {
+				inputFields[AddressRecord.COUNTRY] = "NO";
+			}
+			mixed.add(new AddressRecord(input.get(i).getRecordID(), inputFields));
+		}
+
+		Main.countryPartitions.put("NO", new CountryPartition("NO", 2, 2,
+				new CallGovernor("Global Address NO", 20, 2, 2000, 5, 10, 1000),
+				new CallGovernor("Global MAK NO", 20, 2, 2000, 5, 10, 1000), Main.acceptanceCodes));
+		run("8 + 8 IS, 2 + 2 NO at 20/s", mixed, 8, 8, 1, false, true);
+		Main.countryPartitions.clear();
+	}
+
+	/**
+	 * Runs the rows with a progress journal and a dead-letter file while every third write-back
+	 * batch fails, then prints whether the journal's watermark reached the last row and whether
+	 * the journal was deleted as finished
+	 * @param input
+	 * @throws IOException if the journal or the dead-letter file cannot be written
+	 */
+	private static void runWithFailingWrites(List<AddressRecord> input) throws IOException {
+		File journal = File.createTempFile("benchmark", ".journal");
+		File deadLetters = File.createTempFile("benchmark", ".dead");
+		journal.deleteOnExit();
+		deadLetters.delete();
+		deadLetters.deleteOnExit();
+
+		Main.progressJournal = new ProgressJournal(journal, false, 1000);
+		Main.deadLetterStore = new DeadLetterStore(deadLetters);
+		failEveryWriteBatch = 3;
+		run("8 + 8 GET, 1/3 writes fail", input, 8, 8, 1, false, true);
+		failEveryWriteBatch = 0;
+
+		Main.progressJournal.sync();
+		String watermark = null;
+		for (String line : Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8)) {
+			if (line.startsWith("W ")) {
+				watermark = line.substring(2);
+			}
+		}
+		Main.progressJournal.close(true);
+		Main.progressJournal = null;
+		Main.deadLetterStore.close();
+		Main.deadLetterStore = null;
+
+		System.out.println(String.format("%-28s %d writes failed, %d rows dead-lettered, watermark %s of last "
+				+ "recID %s, journal deleted: %b", "", Metrics.getCount("rows_write_failed"),
+				Metrics.getCount("rows_dead_lettered"), watermark, input.get(input.size() - 1).getRecordID(),
+				!journal.exists()));
+		deadLetters.delete();
+	}
+
+	/**
+	 * Prints the heap taken by each queued row as the String[21] parameter arrays rows used to
+	 * travel in, as AddressRecords and as AddressBatches. Like the JDBC driver, every field
+	 * value is read as a new string
+	 * @param input
+	 */
+	private static void printHeapPerRow(List<AddressRecord> input) {
+		long before = usedHeap();
+		String[][] arrays = new String[input.size()][];
+		for (int i = 0; i < arrays.length; i++) {
+			arrays[i] = new String[21];
+			arrays[i][0] = new String(input.get(i).getRecordID());
+			for (int field = 0; field < 20; field++) {
+				arrays[i][field + 1] = new String(field < AddressRecord.INPUT_FIELD_COUNT
+						? input.get(i).getField(field) : "");
+			}
+		}
+		long arrayBytes = usedHeap() - before;
+		retained = arrays;
+
+		before = usedHeap();
+		AddressRecord[] records = new AddressRecord[input.size()];
+		for (int i = 0; i < records.length; i++) {
+			records[i] = new AddressRecord(new String(input.get(i).getRecordID()), readFields(input.get(i)));
+		}
+		long recordBytes = usedHeap() - before;
+		retained = new Object[] { arrays, records };
+
+		before = usedHeap();
+		List<AddressBatch> batches = new ArrayList<AddressBatch>();
+		for (int i = 0; i < input.size(); i++) {
+			if (i % 64 == 0) {
+				batches.add(new AddressBatch(64));
+			}
+			batches.get(batches.size() - 1).add(new AddressRecord(new String(input.get(i).getRecordID()),
+					readFields(input.get(i))));
+		}
+		long batchBytes = usedHeap() - before;
+		// Every structure is kept until the last measurement, so none is collected while another is measured
+		retained = new Object[] { arrays, records, batches };
+		retained = null;
+
+		System.out.println(String.format("Heap per queued row: String[21] %d bytes, AddressRecord %d bytes, "
+				+ "AddressBatch %d bytes", arrayBytes / input.size(), recordBytes / input.size(),
+				batchBytes / input.size()));
+	}
+
+	/**
+	 * Writes the rows to a tab-delimited extract file, ten times over, then prints how fast
+	 * FileRecordReader reads it back and FileMakWriter writes a MAK id line for each row
+	 * @param input
+	 * @throws IOException if the temporary files cannot be written
+	 */
+	private static void printFileThroughput(List<AddressRecord> input) throws IOException {
+		File extract = File.createTempFile("benchmark", ".tsv");
+		File results = File.createTempFile("benchmark", ".mak");
+		extract.deleteOnExit();
+		results.deleteOnExit();
+
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(extract),
+				StandardCharsets.UTF_8))) {
+			for (int copy = 0; copy < 10; copy++) {
+				for (AddressRecord record : input) {
+					writer.write(copy + record.getRecordID());
+					for (int field = 0; field < FileRecordReader.COLUMNS.length - 1; field++) {
+						writer.write('\t');
+						writer.write(record.getField(field));
+					}
+					writer.write('\n');
+				}
+			}
+		}
+
+		long start = System.nanoTime();
+		FileRecordReader reader = new FileRecordReader(extract, FileRecordReader.DELIMITED, '\t', 1 << 20);
+		FileMakWriter makWriter = new FileMakWriter(results, false, '\t', 500, 1000);
+		long rows = 0;
+		for (AddressRecord record = reader.next(); record != null; record = reader.next()) {
+			makWriter.add(record.getRecordID(), "MAK" + record.getRecordID());
+			rows++;
+		}
+		makWriter.close();
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.println(String.format("File connectors: %d rows, %.1f MB read and %.1f MB written in %.2f s, "
+				+ "%.0f rows/sec", rows, extract.length() / 1e6, results.length() / 1e6, seconds, rows / seconds));
+		extract.delete();
+		results.delete();
+	}
+
+	private static String[] readFields(AddressRecord record) {
+		String[] fields = new String[AddressRecord.INPUT_FIELD_COUNT];
+		for (int field = 0; field < fields.length; field++) {
+			fields[field] = new String(record.getField(field));
+		}
+		return fields;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Generates rows shaped like the SQL Table, in recID order, with DUPLICATE_SHARE of them
+	 * repeating an earlier address
+	 * @param rows
+	 * @param seed
+	 * @return record of every row
+	 */
+	static List<AddressRecord> generateRows(int rows, long seed) {
+		Random random = new Random(seed);
+		List<AddressRecord> input = new ArrayList<AddressRecord>(rows);
+
+		for (int i = 0; i < rows; i++) {
+			String[] inputFields = new String[AddressRecord.INPUT_FIELD_COUNT];
+
+			if (i > 0 && random.nextDouble() < DUPLICATE_SHARE) {
+				AddressRecord earlier = input.get(random.nextInt(i));
+				for (int field = 0; field < inputFields.length; field++) {
+					inputFields[field] = earlier.getField(field);
+				}
+			} else {
+				String[] locality = LOCALITIES[random.nextInt(LOCALITIES.length)];
+				inputFields[AddressRecord.ADDRESS_LINE_1] = STREETS[random.nextInt(STREETS.length)] + " "
+						+ (1 + random.nextInt(120));
+				inputFields[AddressRecord.LOCALITY] = locality[1];
+				inputFields[AddressRecord.POSTAL_CODE] = locality[0];
+				inputFields[AddressRecord.COUNTRY] = "IS";
+			}
+			input.add(new AddressRecord(String.format("%09d", i + 1), inputFields));
+		}
+		return input;
+	}
+
+	/**
+	 * Record source over rows held in memory, remembering when each row was read
+	 */
+	private static class InMemorySource implements RecordSource {
+		private final List<AddressRecord> rows;
+		private final Map<String, Long> readNanos = new ConcurrentHashMap<String, Long>();
+		private int position = 0;
+
+		InMemorySource(List<AddressRecord> rows) {
+			this.rows = rows;
+		}
+
+		@Override
+		public void startAfter(String recordID) {
+			while (position < rows.size() && rows.get(position).getRecordID().compareTo(recordID) <= 0) {
+				position++;
+			}
+		}
+
+		@Override
+		public AddressRecord next() {
+			if (position >= rows.size()) {
+				return null;
+			}
+			AddressRecord record = rows.get(position++).copy();
+			readNanos.put(record.getRecordID(), System.nanoTime());
+			return record;
+		}
+
+		@Override
+		public boolean hasFailed() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+			position = rows.size();
+		}
+	}
+
+	/**
+	 * MAK id sink that records the latency of each row from read to write-back
+	 */
+	private static class InMemorySink implements RecordSink {
+		private final InMemorySource source;
+		private final LatencyHistogram rowLatency = new LatencyHistogram();
+		private final AtomicLong written = new AtomicLong();
+
+		InMemorySink(InMemorySource source) {
+			this.source = source;
+		}
+
+		@Override
+		public void add(String recordID, String mak) {
+			Long readNanos = source.readNanos.get(recordID);
+			if (readNanos != null) {
+				rowLatency.recordSince(readNanos);
+			}
+			if (!mak.isEmpty()) {
+				written.incrementAndGet();
+			}
+		}
+
+		@Override
+		public void flushIfDue() {
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public long getRowsFailed() {
+			return 0;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * MAK id sink that commits its rows in batches like MakWriter.java, failing every given
+	 * number of batches
+	 */
+	private static class FailingSink extends InMemorySink {
+		private static final int BATCH_SIZE = 100;
+
+		private final int failEvery;
+		private final List<String[]> pending = new ArrayList<String[]>();
+		private int batches = 0;
+
+		FailingSink(InMemorySource source, int failEvery) {
+			super(source);
+			this.failEvery = failEvery;
+		}
+
+		@Override
+		public synchronized void add(String recordID, String mak) {
+			super.add(recordID, mak);
+			pending.add(new String[] { recordID, mak });
+
+			if (pending.size() >= BATCH_SIZE) {
+				flush();
+			}
+		}
+
+		@Override
+		public synchronized void flush() {
+			if (pending.isEmpty()) {
+				return;
+			}
+			if (++batches % failEvery == 0) {
+				Metrics.count("rows_write_failed", pending.size());
+				IOException error = new IOException("Batch " + batches + " failed");
+				for (String[] update : pending) {
+					Main.writeFailed(update[0], update[1], error);
+				}
+			} else {
+				List<String> recordIDs = new ArrayList<String>(pending.size());
+				for (String[] update : pending) {
+					recordIDs.add(update[0]);
+				}
+				Main.rowsWritten(recordIDs);
+			}
+			pending.clear();
+		}
+	}
+}
@@ -0,0 +1,295 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * CallGovernor.java
+ *
+ * Program Description: Governs the calls made to one web service. Every call goes through:
+ * 	a token bucket that keeps the request rate within the licensed quota,
+ * 	an AIMD concurrency limit that grows by one call per round of fast successes and is
+ * 	halved on a throttling (429) or server (5xx) response or on a slow call,
+ * 	retries with exponential backoff and full jitter for failures that may pass, and
+ * 	a circuit breaker that, after repeated failures, pauses every caller until a trial
+ * 	call succeeds instead of letting the run fail row after row.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CallGovernor {
+	private static final long BASE_BACKOFF_MILLIS = 200;
+	private static final long MAX_BACKOFF_MILLIS = 30000;
+
+	private final String name;
+	private final int maxAttempts;
+
+	// Token bucket
+	private final double ratePerSecond;
+	private final double burst;
+	private double tokens;
+	private long lastRefillNanos = System.nanoTime();
+
+	// AIMD concurrency limit
+	private final int maxConcurrency;
+	private final long latencyTargetNanos;
+	private double concurrencyLimit;
+	private int inFlight = 0;
+	private long lastDecreaseNanos = 0;
+
+	// Circuit breaker
+	private final int failureThreshold;
+	private final long openMillis;
+	private int consecutiveFailures = 0;
+	private long openUntilMillis = 0;
+	private boolean trialInFlight = false;
+
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong throttled = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong circuitOpens = new AtomicLong();
+
+	/**
+	 * @param name web service name used in messages
+	 * @param ratePerSecond licensed requests per second, 0 for no limit
+	 * @param maxConcurrency highest number of calls allowed in flight
+	 * @param latencyTargetMillis calls slower than this shrink the concurrency limit
+	 * @param maxAttempts tries per call before giving up
+	 * @param failureThreshold consecutive failed calls that open the circuit
+	 * @param openMillis how long the circuit stays open before a trial call
+	 */
+	public CallGovernor(String name, double ratePerSecond, int maxConcurrency, long latencyTargetMillis,
+			int maxAttempts, int failureThreshold, long openMillis) {
+		this.name = name;
+		this.ratePerSecond = ratePerSecond;
+		this.burst = Math.max(1, ratePerSecond);
+		this.tokens = burst;
+		this.maxConcurrency = Math.max(1, maxConcurrency);
+		this.concurrencyLimit = this.maxConcurrency;
+		this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(latencyTargetMillis);
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.openMillis = openMillis;
+	}
+
+	/**
+	 * Runs a call under the rate limit, concurrency limit and circuit breaker, retrying it
+	 * with backoff while it fails with a connection error, a 429 or a 5xx response
+	 * @param call
+	 * @return result of the first successful try
+	 * @throws IOException of the last try if every try failed, or at once if the failure
+	 * cannot pass on a retry
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public <T> T call(Call<T> call) throws IOException, InterruptedException {
+		calls.incrementAndGet();
+
+		for (int attempt = 1;; attempt++) {
+			boolean trial = awaitClosedCircuit();
+			try {
+				awaitToken();
+				acquireSlot();
+
+				long start = System.nanoTime();
+				try {
+					T result = call.execute();
+					onSuccess(System.nanoTime() - start, trial);
+					trial = false;
+					return result;
+				} catch (IOException e) {
+					boolean retryable = isRetryable(e);
+					onFailure(retryable, trial);
+					trial = false;
+
+					if (!retryable || attempt >= maxAttempts) {
+						failures.incrementAndGet();
+						throw e;
+					}
+				} finally {
+					releaseSlot();
+				}
+			} finally {
+				if (trial) {
+					// Interrupted or failed without an answer from the service, so another caller tries
+					abandonTrial();
+				}
+			}
+
+			retries.incrementAndGet();
+			Thread.sleep(backoffMillis(attempt));
+		}
+	}
+
+	private static boolean isRetryable(IOException e) {
+		if (e instanceof ResponseCassette.MissingResponseException) {
+			// A replayed run has no other response to try
+			return false;
+		}
+		if (e instanceof ServiceHttpClient.HttpStatusException) {
+			int statusCode = ((ServiceHttpClient.HttpStatusException) e).getStatusCode();
+			return statusCode == 429 || statusCode >= 500;
+		}
+		return true;
+	}
+
+	/**
+	 * Full jitter: a random wait between zero and the exponential backoff of the attempt
+	 * @param attempt
+	 * @return milliseconds to wait before the next try
+	 */
+	private static long backoffMillis(int attempt) {
+		long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt - 1, 20));
+		return ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	/**
+	 * Waits while the circuit is open. Once it has been open for openMillis a single caller
+	 * is let through as a trial while the others keep waiting for its outcome
+	 * @return true if the caller is the trial call
+	 */
+	private synchronized boolean awaitClosedCircuit() throws InterruptedException {
+		while (true) {
+			if (openUntilMillis == 0) {
+				return false;
+			}
+
+			long now = System.currentTimeMillis();
+			if (now >= openUntilMillis && !trialInFlight) {
+				trialInFlight = true;
+				return true;
+			}
+			// While a trial is in flight wait for its outcome, otherwise for the end of the pause
+			wait(trialInFlight ? 0 : Math.max(1, openUntilMillis - now));
+		}
+	}
+
+	/**
+	 * Ends a trial call that got no answer from the service. The circuit stays open and the
+	 * next caller waiting for it is let through as the trial instead
+	 */
+	private synchronized void abandonTrial() {
+		trialInFlight = false;
+		notifyAll();
+	}
+
+	private void awaitToken() throws InterruptedException {
+		if (ratePerSecond <= 0) {
+			return;
+		}
+
+		while (true) {
+			long waitNanos;
+			synchronized (this) {
+				long now = System.nanoTime();
+				tokens = Math.min(burst, tokens + (now - lastRefillNanos) * ratePerSecond / 1e9);
+				lastRefillNanos = now;
+
+				if (tokens >= 1) {
+					tokens -= 1;
+					return;
+				}
+				waitNanos = (long) ((1 - tokens) * 1e9 / ratePerSecond);
+			}
+			TimeUnit.NANOSECONDS.sleep(Math.max(1000, waitNanos));
+		}
+	}
+
+	private synchronized void acquireSlot() throws InterruptedException {
+		while (inFlight >= (int) concurrencyLimit) {
+			wait();
+		}
+		inFlight++;
+	}
+
+	private synchronized void releaseSlot() {
+		inFlight--;
+		notifyAll();
+	}
+
+	private synchronized void onSuccess(long latencyNanos, boolean trial) {
+		consecutiveFailures = 0;
+		if (trial) {
+			trialInFlight = false;
+			openUntilMillis = 0;
+			System.out.println(name + " circuit closed, resuming calls.");
+			notifyAll();
+		}
+
+		if (latencyNanos > latencyTargetNanos) {
+			decreaseConcurrency();
+		} else {
+			concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1 / concurrencyLimit);
+		}
+	}
+
+	private synchronized void onFailure(boolean retryable, boolean trial) {
+		if (!retryable) {
+			if (trial) {
+				// The service answered, so it is reachable again
+				onSuccess(0, true);
+			}
+			return;
+		}
+
+		throttled.incrementAndGet();
+		decreaseConcurrency();
+		consecutiveFailures++;
+
+		if (trial || consecutiveFailures >= failureThreshold) {
+			if (openUntilMillis == 0 || trial) {
+				circuitOpens.incrementAndGet();
+				System.out.println("ERROR in " + name + " : " + consecutiveFailures
+						+ " calls failed in a row, pausing calls for " + openMillis + " ms.");
+			}
+			trialInFlight = false;
+			openUntilMillis = System.currentTimeMillis() + openMillis;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Halves the concurrency limit, at most once per latency target so one burst of failures
+	 * does not collapse it to a single call
+	 */
+	private void decreaseConcurrency() {
+		long now = System.nanoTime();
+
+		if (now - lastDecreaseNanos >= latencyTargetNanos) {
+			concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+			lastDecreaseNanos = now;
+		}
+	}
+
+	public long getRetries() {
+		return retries.get();
+	}
+
+	public long getFailures() {
+		return failures.get();
+	}
+
+	public long getCircuitOpens() {
+		return circuitOpens.get();
+	}
+
+	/**
+	 * @return one line summary of this governor's calls, retries and circuit state
+	 */
+	public synchronized String report() {
+		return String.format("%s calls: %d, retries: %d, throttled or failed tries: %d, failed calls: %d, "
+				+ "circuit opened: %d, concurrency limit: %.1f",
+				name, calls.get(), retries.get(), throttled.get(), failures.get(), circuitOpens.get(),
+				concurrencyLimit);
+	}
+
+	/**
+	 * A single try of a web service call
+	 */
+	public interface Call<T> {
+		T execute() throws IOException;
+	}
+}
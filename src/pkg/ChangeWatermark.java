@@ -0,0 +1,194 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * ChangeWatermark.java
+ *
+ * Program Description: High-water mark of an incremental run. SQL Server gives a table's
+ * rowversion column a new, database-wide increasing value whenever a row is inserted or
+ * updated, so the rows changed since a run are exactly those whose rowversion is at least
+ * the value the run stopped at.
+ *
+ * Before reading, a run takes MIN_ACTIVE_ROWVERSION() as its upper bound: every row below it
+ * has been committed, and rows changed while the run is going are left to the next run. The
+ * run reads only the rows from the stored watermark up to that bound, or every row the first
+ * time. The bound is stored as the new watermark only after the run has finished with every
+ * row read and every mak_id update committed, so rows of a failed run are read again. Until
+ * then the bound is kept in the watermark table, so workers sharing the run through leases,
+ * and a run repeating a failed one, all use the same bound.
+ *
+ * Writing a mak_id changes the row's rowversion too, which would bring every row a run wrote
+ * back into the next run. With a hash column, each mak_id update also stores a SHA-256 hash
+ * of the row's address columns, and a changed row is only read if its address no longer
+ * matches the stored hash. The hash is only stored for rows not changed since the run began,
+ * so an address changed between a row's read and its write-back is still read next time.
+ *
+ * Watermark table columns:
+ * 	source_table	SQL Table the watermark belongs to
+ * 	watermark	rowversion the next run starts at, NULL before the first successful run
+ * 	run_bound	upper bound of the run in progress, NULL between runs
+ * 	updated_at	when the watermark last moved
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class ChangeWatermark {
+	// Hash of the address columns sent to Global Address, separated so that moved text changes it
+	private static final String ADDRESS_HASH = "HASHBYTES('SHA2_256', CONCAT([Address1], NCHAR(31), [Address2], "
+			+ "NCHAR(31), [Address3], NCHAR(31), [Address4], NCHAR(31), [Address5], NCHAR(31), [Address6], "
+			+ "NCHAR(31), [Address7], NCHAR(31), [Address8], NCHAR(31), [Locality], NCHAR(31), "
+			+ "[AdministrativeArea], NCHAR(31), [PostalCode], NCHAR(31), [CountryCode], NCHAR(31), "
+			+ "[DependentLocality], NCHAR(31), [DoubleDependentLocality], NCHAR(31), [SubAdministrativeArea], "
+			+ "NCHAR(31), [SubNationalArea]))";
+
+	private final ConnectionPool connectionPool;
+	private final String watermarkTable;
+	private final String databaseTable;
+	private final String column;
+	private final String hashColumn;
+
+	private byte[] lowerBound;
+	private byte[] upperBound;
+
+	/**
+	 * @param connectionPool
+	 * @param watermarkTable table holding the watermark of each SQL Table, created if missing
+	 * @param databaseTable SQL Table read incrementally
+	 * @param column rowversion column of the SQL Table
+	 * @param hashColumn BINARY(32) column of the SQL Table holding the hash of the addresses
+	 * written back, or null to go without
+	 */
+	public ChangeWatermark(ConnectionPool connectionPool, String watermarkTable, String databaseTable,
+			String column, String hashColumn) {
+		this.connectionPool = connectionPool;
+		this.watermarkTable = watermarkTable;
+		this.databaseTable = databaseTable;
+		this.column = bracket(column);
+		this.hashColumn = hashColumn == null ? null : bracket(hashColumn);
+	}
+
+	private static String bracket(String column) {
+		return column.startsWith("[") ? column : "[" + column + "]";
+	}
+
+	/**
+	 * Reads the stored watermark and the upper bound of the run in progress, taking a new upper
+	 * bound if no run is in progress
+	 * @throws SQLException if the watermark table cannot be created or read
+	 */
+	public void begin() throws SQLException {
+		Connection connection = connectionPool.borrow();
+
+		try {
+			connection.setAutoCommit(false);
+			try {
+				try (Statement statement = connection.createStatement()) {
+					statement.execute("IF OBJECT_ID(N'" + watermarkTable.replace("'", "''") + "', N'U') IS NULL "
+							+ "CREATE TABLE " + watermarkTable + " ([source_table] NVARCHAR(450) NOT NULL PRIMARY KEY, "
+							+ "[watermark] BINARY(8) NULL, [run_bound] BINARY(8) NULL, [updated_at] DATETIME2 NULL)");
+				}
+
+				try (PreparedStatement insert = connection.prepareStatement("IF NOT EXISTS (SELECT 1 FROM "
+						+ watermarkTable + " WITH (UPDLOCK, HOLDLOCK) WHERE [source_table] = ?) INSERT INTO "
+						+ watermarkTable + " ([source_table]) VALUES (?)")) {
+					insert.setString(1, databaseTable);
+					insert.setString(2, databaseTable);
+					insert.execute();
+				}
+
+				try (PreparedStatement update = connection.prepareStatement("UPDATE " + watermarkTable
+						+ " SET [run_bound] = MIN_ACTIVE_ROWVERSION()"
+						+ " WHERE [source_table] = ? AND [run_bound] IS NULL")) {
+					update.setString(1, databaseTable);
+					update.executeUpdate();
+				}
+
+				try (PreparedStatement select = connection.prepareStatement("SELECT [watermark], [run_bound] FROM "
+						+ watermarkTable + " WHERE [source_table] = ?")) {
+					select.setString(1, databaseTable);
+					try (ResultSet resultSet = select.executeQuery()) {
+						resultSet.next();
+						lowerBound = resultSet.getBytes(1);
+						upperBound = resultSet.getBytes(2);
+					}
+				}
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+		} finally {
+			connectionPool.release(connection);
+		}
+	}
+
+	/**
+	 * Limits the given reader to the rows changed since the stored watermark
+	 * @param recordReader
+	 */
+	public void filter(SqlRecordReader recordReader) {
+		if (lowerBound == null) {
+			recordReader.addCondition(column + " < ?", upperBound);
+		} else {
+			recordReader.addCondition(column + " >= ? AND " + column + " < ?", lowerBound, upperBound);
+		}
+		if (hashColumn != null) {
+			recordReader.addCondition(hashColumn + " IS NULL OR " + hashColumn + " <> " + ADDRESS_HASH);
+		}
+	}
+
+	/**
+	 * Makes the given writer store the address hash with each mak_id
+	 * @param makWriter
+	 */
+	public void stampWrites(MakWriter makWriter) {
+		if (hashColumn != null) {
+			makWriter.addAssignment(hashColumn + " = CASE WHEN " + column + " < ? THEN " + ADDRESS_HASH
+					+ " ELSE " + hashColumn + " END", upperBound);
+		}
+	}
+
+	/**
+	 * @return true if no watermark was stored, so every row is read
+	 */
+	public boolean isFirstRun() {
+		return lowerBound == null;
+	}
+
+	/**
+	 * Stores the upper bound of this run as the watermark the next run starts at. Call only
+	 * once every row read has been finished and its write-back committed
+	 * @return true if the watermark was stored
+	 */
+	public boolean advance() {
+		Connection connection = null;
+
+		try {
+			connection = connectionPool.borrow();
+			try (PreparedStatement update = connection.prepareStatement("UPDATE " + watermarkTable
+					+ " SET [watermark] = [run_bound], [run_bound] = NULL, [updated_at] = SYSUTCDATETIME()"
+					+ " WHERE [source_table] = ? AND [run_bound] = ?")) {
+				update.setString(1, databaseTable);
+				update.setBytes(2, upperBound);
+				// No row is updated if another worker sharing the run has already moved the watermark
+				update.executeUpdate();
+			}
+			return true;
+		} catch (SQLException e) {
+			System.out.println("ERROR SQLException in ChangeWatermark.advance() : "
+					+ "Unable to store the watermark in " + watermarkTable + ".");
+			e.printStackTrace();
+			return false;
+		} finally {
+			connectionPool.release(connection);
+		}
+	}
+}
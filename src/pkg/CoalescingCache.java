@@ -0,0 +1,196 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * CoalescingCache.java
+ *
+ * Program Description: In-run cache of web service results keyed on a normalized address.
+ * Completed results are kept in a bounded least-recently-used map. A lookup for a key that
+ * is already in flight waits for that call instead of sending its own, so identical
+ * addresses cost one call no matter how many rows share them. An optional backing store
+ * (see PersistentCache.java) is checked before a call is made and given every new result.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CoalescingCache<V> {
+	private final String name;
+	private final Map<String, V> completed;
+	private final ConcurrentHashMap<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<String, CompletableFuture<V>>();
+	private final BackingStore<V> backingStore;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong storeHits = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param name name printed in the cache report
+	 * @param maxEntries maximum number of completed results kept
+	 * @param backingStore store checked on a miss and given every new result, or null for none
+	 */
+	public CoalescingCache(String name, final int maxEntries, BackingStore<V> backingStore) {
+		this.name = name;
+		this.backingStore = backingStore;
+		this.completed = new LinkedHashMap<String, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Starts a lookup of the given key. If the result is neither cached nor in flight the caller
+	 * becomes the owner of the lookup and must finish it with complete()
+	 * @param key
+	 * @return lookup holding the future result
+	 */
+	public Lookup<V> begin(String key) {
+		synchronized (completed) {
+			V value = completed.get(key);
+			if (value != null) {
+				hits.incrementAndGet();
+				return new Lookup<V>(key, CompletableFuture.completedFuture(value), false);
+			}
+		}
+
+		if (backingStore != null) {
+			V value = backingStore.load(key);
+			if (value != null) {
+				storeHits.incrementAndGet();
+				synchronized (completed) {
+					completed.put(key, value);
+				}
+				return new Lookup<V>(key, CompletableFuture.completedFuture(value), false);
+			}
+		}
+
+		CompletableFuture<V> future = new CompletableFuture<V>();
+		CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+
+		if (existing != null) {
+			coalesced.incrementAndGet();
+			return new Lookup<V>(key, existing, false);
+		}
+		misses.incrementAndGet();
+		return new Lookup<V>(key, future, true);
+	}
+
+	/**
+	 * Finishes an owned lookup, caching the value unless it is null and releasing every caller
+	 * waiting on the same key
+	 * @param lookup
+	 * @param value
+	 */
+	public void complete(Lookup<V> lookup, V value) {
+		if (value != null) {
+			synchronized (completed) {
+				completed.put(lookup.key, value);
+			}
+			if (backingStore != null) {
+				backingStore.store(lookup.key, value);
+			}
+		}
+		inFlight.remove(lookup.key);
+		lookup.future.complete(value);
+	}
+
+	/**
+	 * Returns the value of the given key, calling the loader only if no other caller has the
+	 * key cached or in flight. A null value from the loader is returned but not cached
+	 * @param key
+	 * @param loader
+	 * @return value of the key
+	 * @throws InterruptedException if interrupted while waiting for another caller's result
+	 */
+	public V get(String key, Callable<V> loader) throws InterruptedException {
+		Lookup<V> lookup = begin(key);
+
+		if (lookup.isOwner()) {
+			V value = null;
+			try {
+				value = loader.call();
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			} finally {
+				complete(lookup, value);
+			}
+		}
+		return lookup.get();
+	}
+
+	/**
+	 * @return share of lookups answered from the cache, the backing store or by another
+	 * caller's in-flight call
+	 */
+	public double getHitRatio() {
+		long answered = hits.get() + storeHits.get() + coalesced.get();
+		long total = answered + misses.get();
+		return total == 0 ? 0 : answered / (double) total;
+	}
+
+	/**
+	 * @return one line summary of this cache's hits, coalesced lookups and misses
+	 */
+	public String report() {
+		return String.format("%s cache: %d hits, %d stored hits, %d coalesced, %d misses, hit ratio %.1f%%",
+				name, hits.get(), storeHits.get(), coalesced.get(), misses.get(), getHitRatio() * 100);
+	}
+
+	/**
+	 * Second-level store that outlives the in-memory cache
+	 */
+	public interface BackingStore<V> {
+		/**
+		 * @param key
+		 * @return stored value of the key, or null if there is none
+		 */
+		V load(String key);
+
+		void store(String key, V value);
+	}
+
+	/**
+	 * A started lookup of one key
+	 */
+	public static class Lookup<V> {
+		private final String key;
+		private final CompletableFuture<V> future;
+		private final boolean owner;
+
+		private Lookup(String key, CompletableFuture<V> future, boolean owner) {
+			this.key = key;
+			this.future = future;
+			this.owner = owner;
+		}
+
+		public boolean isOwner() {
+			return owner;
+		}
+
+		/**
+		 * Waits for the result of the lookup
+		 * @return value of the key, or null if its call failed
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		public V get() throws InterruptedException {
+			try {
+				return future.get();
+			} catch (ExecutionException e) {
+				return null;
+			}
+		}
+	}
+}
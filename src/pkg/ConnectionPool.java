@@ -0,0 +1,115 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * ConnectionPool.java
+ *
+ * Program Description: Small fixed-size pool of SQL Server connections. Connections are
+ * opened lazily, handed out with borrow(), returned with release() and closed together
+ * with close(), so a run pays for each SQL Server login once instead of once per record.
+ * A borrower waits at most BORROW_TIMEOUT_SECONDS for a connection to be released, so a pool
+ * too small for its borrowers fails with an error instead of hanging the run.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class ConnectionPool {
+	static final int BORROW_TIMEOUT_SECONDS = 60;
+
+	private final String connectionString;
+	private final int maxSize;
+	private final LinkedBlockingQueue<Connection> idle = new LinkedBlockingQueue<Connection>();
+	private final List<Connection> opened = new ArrayList<Connection>();
+
+	/**
+	 * @param connectionString JDBC connection string of the SQL Server database
+	 * @param maxSize maximum number of connections open at once
+	 */
+	public ConnectionPool(String connectionString, int maxSize) {
+		this.connectionString = connectionString;
+		this.maxSize = Math.max(1, maxSize);
+	}
+
+	/**
+	 * Returns an idle connection, opening a new one while the pool is below its maximum size
+	 * and waiting for a released connection otherwise
+	 * @return open connection
+	 * @throws SQLException if a new connection cannot be opened, or none is released in time
+	 */
+	public Connection borrow() throws SQLException {
+		Connection connection = idle.poll();
+
+		if (connection == null) {
+			synchronized (opened) {
+				if (opened.size() < maxSize) {
+					connection = DriverManager.getConnection(connectionString);
+					opened.add(connection);
+					return connection;
+				}
+			}
+
+			try {
+				connection = idle.poll(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a pooled connection.", e);
+			}
+			if (connection == null) {
+				throw new SQLException("No pooled connection was released within " + BORROW_TIMEOUT_SECONDS
+						+ " s, all " + maxSize + " are in use.");
+			}
+		}
+
+		// Replace connections the server has dropped since they were last used
+		if (!connection.isValid(5)) {
+			synchronized (opened) {
+				opened.remove(connection);
+				closeQuietly(connection);
+				connection = DriverManager.getConnection(connectionString);
+				opened.add(connection);
+			}
+		}
+
+		return connection;
+	}
+
+	/**
+	 * Returns a borrowed connection to the pool
+	 * @param connection
+	 */
+	public void release(Connection connection) {
+		if (connection != null) {
+			idle.offer(connection);
+		}
+	}
+
+	/**
+	 * Closes every connection opened by this pool
+	 */
+	public void close() {
+		synchronized (opened) {
+			for (Connection connection : opened) {
+				closeQuietly(connection);
+			}
+			opened.clear();
+			idle.clear();
+		}
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			System.out.println("ERROR SQLException in ConnectionPool : Unable to close connection.");
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * CountryPartition.java
+ *
+ * Program Description: Settings and counters of the rows of one CountryCode. For each country
+ * listed in the countries property, Pipeline.java gives the rows their own verify and MAK
+ * queues and workers, and Main.java gives them their own Global Address and Global MAK call
+ * governors, and so their own concurrency and rate quota, and their own acceptance codes. A
+ * slow or throttled country then only holds up its own rows. The rows of every other country
+ * share the default partition, which uses the settings of the whole run.
+ *
+ * Each worker thread is bound to the partition of the rows it processes, so the governors and
+ * acceptance codes of a row are found without passing them through every call.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class CountryPartition {
+	private static final ThreadLocal<CountryPartition> CURRENT = new ThreadLocal<CountryPartition>();
+
+	private final String countryCode;
+	private final int verifyThreads;
+	private final int makThreads;
+	private final CallGovernor globalAddressGovernor;
+	private final CallGovernor makGovernor;
+	private final ResultCodes acceptanceCodes;
+	private final LongAdder rowsRead = new LongAdder();
+	private final LongAdder rowsAccepted = new LongAdder();
+	private final LongAdder rowsRejected = new LongAdder();
+	private final LongAdder rowsSkipped = new LongAdder();
+	private final LongAdder rowsFailed = new LongAdder();
+	private final LongAdder makIds = new LongAdder();
+
+	private volatile long firstRowNanos = 0;
+	private volatile long lastRowNanos = 0;
+
+	/**
+	 * Creates the default partition, which uses the thread counts of the pipeline and the call
+	 * governors and acceptance codes of the run
+	 */
+	public CountryPartition() {
+		this("", 0, 0, null, null, null);
+	}
+
+	/**
+	 * @param countryCode CountryCode of the rows of the partition
+	 * @param verifyThreads number of Global Address worker threads
+	 * @param makThreads number of Global MAK worker threads
+	 * @param globalAddressGovernor call governor of the partition's Global Address calls
+	 * @param makGovernor call governor of the partition's Global MAK calls
+	 * @param acceptanceCodes result codes of which any one accepts an address for a MAK id
+	 */
+	public CountryPartition(String countryCode, int verifyThreads, int makThreads, CallGovernor globalAddressGovernor,
+			CallGovernor makGovernor, ResultCodes acceptanceCodes) {
+		this.countryCode = countryCode;
+		this.verifyThreads = verifyThreads;
+		this.makThreads = makThreads;
+		this.globalAddressGovernor = globalAddressGovernor;
+		this.makGovernor = makGovernor;
+		this.acceptanceCodes = acceptanceCodes;
+	}
+
+	/**
+	 * Binds the calling thread to the given partition
+	 * @param partition
+	 */
+	public static void bind(CountryPartition partition) {
+		CURRENT.set(partition);
+	}
+
+	/**
+	 * @return partition the calling thread is bound to, or null if it is not bound to one
+	 */
+	public static CountryPartition current() {
+		return CURRENT.get();
+	}
+
+	public boolean isDefault() {
+		return countryCode.isEmpty();
+	}
+
+	/**
+	 * @return CountryCode of the partition, or "other" for the default partition
+	 */
+	public String getName() {
+		return isDefault() ? "other" : countryCode;
+	}
+
+	/**
+	 * @param defaultThreads thread count of the pipeline
+	 * @return number of Global Address worker threads of the partition
+	 */
+	public int getVerifyThreads(int defaultThreads) {
+		return verifyThreads > 0 ? verifyThreads : defaultThreads;
+	}
+
+	/**
+	 * @param defaultThreads thread count of the pipeline
+	 * @return number of Global MAK worker threads of the partition
+	 */
+	public int getMakThreads(int defaultThreads) {
+		return makThreads > 0 ? makThreads : defaultThreads;
+	}
+
+	public CallGovernor getGlobalAddressGovernor() {
+		return globalAddressGovernor != null ? globalAddressGovernor : Main.globalAddressGovernor;
+	}
+
+	public CallGovernor getMakGovernor() {
+		return makGovernor != null ? makGovernor : Main.makGovernor;
+	}
+
+	/**
+	 * @return true if the partition has call governors of its own
+	 */
+	public boolean hasOwnGovernors() {
+		return globalAddressGovernor != null;
+	}
+
+	/**
+	 * @param resultCodes result codes of a verified address
+	 * @return true if any of them accepts the address for a MAK id
+	 */
+	public boolean accepts(ResultCodes resultCodes) {
+		return resultCodes.intersects(acceptanceCodes != null ? acceptanceCodes : Main.acceptanceCodes);
+	}
+
+	public void countRead() {
+		rowsRead.increment();
+		if (firstRowNanos == 0) {
+			firstRowNanos = System.nanoTime();
+		}
+	}
+
+	public void countAccepted() {
+		rowsAccepted.increment();
+	}
+
+	public void countRejected() {
+		rowsRejected.increment();
+		lastRowNanos = System.nanoTime();
+	}
+
+	public void countSkipped() {
+		rowsSkipped.increment();
+		lastRowNanos = System.nanoTime();
+	}
+
+	public void countFailed() {
+		rowsFailed.increment();
+		lastRowNanos = System.nanoTime();
+	}
+
+	public void countMakId() {
+		makIds.increment();
+		lastRowNanos = System.nanoTime();
+	}
+
+	public long getRowsRead() {
+		return rowsRead.sum();
+	}
+
+	public long getMakIds() {
+		return makIds.sum();
+	}
+
+	/**
+	 * @return one line summary of the partition's rows and their throughput
+	 */
+	public String report() {
+		long finished = rowsRejected.sum() + rowsSkipped.sum() + rowsFailed.sum() + makIds.sum();
+		double seconds = Math.max(1, lastRowNanos - firstRowNanos) / 1e9;
+
+		return String.format("Country %s: %d rows read, %d accepted, %d rejected, %d skipped, %d failed, "
+				+ "%d MAK ids, %.1f rows/sec", getName(), rowsRead.sum(), rowsAccepted.sum(), rowsRejected.sum(),
+				rowsSkipped.sum(), rowsFailed.sum(), makIds.sum(), lastRowNanos == 0 ? 0.0 : finished / seconds);
+	}
+}
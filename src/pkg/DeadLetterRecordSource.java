@@ -0,0 +1,105 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * DeadLetterRecordSource.java
+ *
+ * Program Description: Streams the rows of the SQL Table recorded by DeadLetterStore.java, in
+ * recID order, for --replay-dead-letters in Main.java. The record IDs are looked up a chunk at
+ * a time through SqlRecordReader, keeping each query well under the SQL Server limit of 2100
+ * parameters. Rows deleted since they were recorded are not returned.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.util.List;
+
+public class DeadLetterRecordSource implements RecordSource {
+	private static final int IDS_PER_QUERY = 500;
+
+	private final ConnectionPool connectionPool;
+	private final String databaseTable;
+	private final int fetchSize;
+	private final List<String> recordIDs;
+
+	private SqlRecordReader chunkReader;
+	private int nextChunk = 0;
+	private boolean failed = false;
+
+	/**
+	 * @param connectionPool pool the queries are sent through
+	 * @param databaseTable SQL Table to read
+	 * @param fetchSize number of rows the driver fetches per round trip
+	 * @param recordIDs record IDs of the rows to read, in recID order
+	 */
+	public DeadLetterRecordSource(ConnectionPool connectionPool, String databaseTable, int fetchSize,
+			List<String> recordIDs) {
+		this.connectionPool = connectionPool;
+		this.databaseTable = databaseTable;
+		this.fetchSize = fetchSize;
+		this.recordIDs = recordIDs;
+	}
+
+	/**
+	 * Skips the record IDs up to and including the given one
+	 * @param recordID
+	 */
+	@Override
+	public void startAfter(String recordID) {
+		while (nextChunk < recordIDs.size() && recordIDs.get(nextChunk).compareTo(recordID) <= 0) {
+			nextChunk++;
+		}
+	}
+
+	/**
+	 * Returns the next recorded row, querying the next chunk of record IDs when the current one
+	 * is used up
+	 * @return record of the row, or null when every recorded row has been read
+	 */
+	@Override
+	public AddressRecord next() {
+		while (!failed) {
+			if (chunkReader != null) {
+				AddressRecord record = chunkReader.next();
+
+				if (record != null) {
+					return record;
+				}
+				failed = chunkReader.hasFailed();
+				chunkReader = null;
+				continue;
+			}
+			if (nextChunk >= recordIDs.size()) {
+				break;
+			}
+
+			List<String> chunk = recordIDs.subList(nextChunk, Math.min(recordIDs.size(), nextChunk + IDS_PER_QUERY));
+			StringBuilder condition = new StringBuilder("[recID] IN (");
+			for (int i = 0; i < chunk.size(); i++) {
+				condition.append(i == 0 ? "?" : ", ?");
+			}
+			chunkReader = new SqlRecordReader(connectionPool, databaseTable, IDS_PER_QUERY, fetchSize, false);
+			chunkReader.addCondition(condition.append(")").toString(), chunk.toArray());
+			nextChunk += chunk.size();
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return true if reading stopped because a chunk could not be read
+	 */
+	@Override
+	public boolean hasFailed() {
+		return failed;
+	}
+
+	@Override
+	public void close() {
+		if (chunkReader != null) {
+			chunkReader.close();
+			chunkReader = null;
+		}
+		nextChunk = recordIDs.size();
+	}
+}
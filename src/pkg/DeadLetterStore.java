@@ -0,0 +1,178 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * DeadLetterStore.java
+ *
+ * Program Description: Append-only record of the rows that could not be finished, so that a
+ * failed Global Address call, an unreadable Global MAK response or a failed write-back costs
+ * one row instead of the run. Each failure is appended as one JSON object per line and the
+ * row is finished without a MAK id. The rows recorded can be processed again with
+ * --replay-dead-letters in Main.java.
+ *
+ * A web service call made through a cache may fail on another worker than the row's own, so
+ * the calls note the error and raw payload of their failure for the calling thread with
+ * noteFailure(), and the row's worker picks up the note, if it made the call, when it records
+ * the row.
+ *
+ * Line format:
+ * 	recID	record ID of the row in the SQL Table
+ * 	stage	verify, mak, write or row for an unexpected error
+ * 	error	what went wrong
+ * 	payload	raw response, request or MAK id involved, if any
+ * 	at	when the failure was recorded, in milliseconds since the epoch
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class DeadLetterStore {
+	public static final String VERIFY = "verify";
+	public static final String MAK = "mak";
+	public static final String WRITE = "write";
+	public static final String ROW = "row";
+
+	// Error and payload of the last failed web service call of each thread, until picked up
+	private static final ThreadLocal<String[]> NOTED_FAILURE = new ThreadLocal<String[]>();
+
+	private final File file;
+	private final Writer writer;
+	private long rowsRecorded = 0;
+	private long rowsFailed = 0;
+
+	/**
+	 * Opens the given file for appending
+	 * @param file
+	 * @throws IOException if the file cannot be opened
+	 */
+	public DeadLetterStore(File file) throws IOException {
+		this.file = file;
+		this.writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Notes the error and raw payload of a failed web service call for the calling thread
+	 * @param error
+	 * @param payload raw response or request, or null if none
+	 */
+	public static void noteFailure(String error, String payload) {
+		NOTED_FAILURE.set(new String[] { error, payload });
+	}
+
+	/**
+	 * Drops the failure noted for the calling thread, before it makes a new call
+	 */
+	public static void clearFailure() {
+		NOTED_FAILURE.remove();
+	}
+
+	/**
+	 * Records a row that could not be finished, with the failure noted by the calling thread if
+	 * there is one
+	 * @param recordID
+	 * @param stage stage the row failed in
+	 * @param error what went wrong, used if no failure was noted
+	 */
+	public void add(String recordID, String stage, String error) {
+		String[] noted = NOTED_FAILURE.get();
+
+		if (noted == null) {
+			add(recordID, stage, error, null);
+		} else {
+			add(recordID, stage, noted[0], noted[1]);
+		}
+	}
+
+	/**
+	 * Records a row that could not be finished
+	 * @param recordID
+	 * @param stage stage the row failed in
+	 * @param error what went wrong
+	 * @param payload raw response, request or MAK id involved, or null if none
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void add(String recordID, String stage, String error, String payload) {
+		JSONObject line = new JSONObject();
+		line.put("recID", recordID);
+		line.put("stage", stage);
+		line.put("error", error);
+		line.put("payload", payload);
+		line.put("at", System.currentTimeMillis());
+
+		try {
+			writer.write(line.toJSONString());
+			writer.write('\n');
+			// Failures are rare, so each one is pushed to the file at once
+			writer.flush();
+			rowsRecorded++;
+			Metrics.count("rows_dead_lettered");
+		} catch (IOException e) {
+			System.out.println("ERROR IOException in DeadLetterStore.add() : "
+					+ "Unable to record recID " + recordID + " in " + file + ".");
+			e.printStackTrace();
+			rowsFailed++;
+		}
+	}
+
+	/**
+	 * Reads the record IDs of every row recorded in the given file, skipping unreadable lines
+	 * @param file
+	 * @return record IDs in recID order, without duplicates
+	 * @throws IOException if the file cannot be read
+	 */
+	public static List<String> readRecordIDs(File file) throws IOException {
+		TreeSet<String> recordIDs = new TreeSet<String>();
+
+		if (!file.exists()) {
+			return Collections.emptyList();
+		}
+
+		JSONParser parser = new JSONParser();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+				StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				try {
+					Object recordID = ((JSONObject) parser.parse(line)).get("recID");
+					if (recordID != null) {
+						recordIDs.add(recordID.toString());
+					}
+				} catch (ParseException | ClassCastException e) {
+					// A line cut short by a crash is skipped
+				}
+			}
+		}
+		return new ArrayList<String>(recordIDs);
+	}
+
+	/**
+	 * Closes the file and prints the totals
+	 */
+	public synchronized void close() {
+		try {
+			writer.close();
+		} catch (IOException e) {
+			System.out.println("ERROR IOException in DeadLetterStore.close() : Unable to close " + file + ".");
+			e.printStackTrace();
+		}
+		System.out.println("Dead-lettered rows: " + rowsRecorded + (rowsFailed == 0 ? "" : ", not recorded: "
+				+ rowsFailed) + (rowsRecorded == 0 ? "" : ", in " + file));
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * DecodeBenchmark.java
+ *
+ * Program Description: Compares the streaming ResponseDecoder with the json-simple DOM
+ * parsing it replaced, on a single-record GET response, a 100-record POST response and a
+ * Global MAK response. For each decoder it reports decodes per second and bytes allocated
+ * per decode, measured by the JVM's per-thread allocation counter after a warm-up.
+ *
+ * Usage: java pkg.DecodeBenchmark [seconds per measurement]
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class DecodeBenchmark {
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	// Keeps the results reachable so the decoding cannot be optimized away
+	private static volatile Object sink;
+
+	public static void main(String[] args) throws ParseException {
+		double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+
+		final byte[] single = buildGlobalAddressResponse(1);
+		final byte[] batch = buildGlobalAddressResponse(100);
+		final byte[] mak = "{\"_id\":\"IS0123456789abcdef\",\"iso2\":\"IS\"}".getBytes(StandardCharsets.UTF_8);
+		checkSameResults(batch);
+
+		System.out.println(String.format("%-34s %14s %14s", "decoder", "decodes/sec", "bytes/decode"));
+		measure("json-simple, 1 record", seconds, () -> sink = parseWithJsonSimple(single));
+		measure("streaming, 1 record", seconds, () -> sink = ResponseDecoder.decodeGlobalAddress(single));
+		measure("json-simple, 100 records", seconds, () -> sink = parseWithJsonSimple(batch));
+		measure("streaming, 100 records", seconds, () -> sink = ResponseDecoder.decodeGlobalAddress(batch));
+		measure("json-simple, MAK _id", seconds, () -> sink = ((JSONObject) new JSONParser()
+				.parse(new String(mak, StandardCharsets.UTF_8))).get("_id").toString());
+		measure("streaming, MAK _id", seconds, () -> sink = ResponseDecoder.decodeMakId(mak));
+	}
+
+	/**
+	 * Runs the decode for a warm-up period, then for the measured period, and prints its rate
+	 * and bytes allocated per run
+	 * @param name
+	 * @param seconds
+	 * @param decode
+	 */
+	static void measure(String name, double seconds, Operation decode) throws ParseException {
+		long threadID = Thread.currentThread().getId();
+		long warmUpEnd = System.nanoTime() + (long) (seconds * 1e9);
+		while (System.nanoTime() < warmUpEnd) {
+			decode.run();
+		}
+
+		long decodes = 0;
+		long allocatedBefore = THREADS.getThreadAllocatedBytes(threadID);
+		long start = System.nanoTime();
+		long end = start + (long) (seconds * 1e9);
+		long now;
+		do {
+			for (int i = 0; i < 100; i++) {
+				decode.run();
+			}
+			decodes += 100;
+			now = System.nanoTime();
+		} while (now < end);
+		long allocated = THREADS.getThreadAllocatedBytes(threadID) - allocatedBefore;
+
+		System.out.println(String.format("%-34s %14.0f %14d", name, decodes / ((now - start) / 1e9),
+				allocated / decodes));
+	}
+
+	/**
+	 * The json-simple parsing the streaming decoder replaced: the whole response is parsed into
+	 * maps and the used fields are then read from each record
+	 * @param response
+	 * @return result of every record
+	 */
+	static List<GlobalAddressResult> parseWithJsonSimple(byte[] response) throws ParseException {
+		JSONObject jsonResponseObj = (JSONObject) new JSONParser().parse(new String(response, StandardCharsets.UTF_8));
+		JSONArray records = (JSONArray) jsonResponseObj.get("Records");
+		List<GlobalAddressResult> results = new ArrayList<GlobalAddressResult>();
+
+		for (Object element : records) {
+			JSONObject record = (JSONObject) element;
+			String[] fields = new String[GlobalAddressResult.CORRECTED_FIELD_NAMES.length];
+
+			for (int i = 0; i < fields.length; i++) {
+				fields[i] = valueOf(record.get(GlobalAddressResult.CORRECTED_FIELD_NAMES[i]));
+			}
+			results.add(new GlobalAddressResult(valueOf(record.get("RecordID")), valueOf(record.get("Results")),
+					fields));
+		}
+		return results;
+	}
+
+	private static String valueOf(Object value) {
+		return value == null ? "" : value.toString();
+	}
+
+	/**
+	 * Fails if the two decoders disagree on any field of the given response
+	 * @param response
+	 */
+	private static void checkSameResults(byte[] response) throws ParseException {
+		List<GlobalAddressResult> expected = parseWithJsonSimple(response);
+		List<GlobalAddressResult> actual = ResponseDecoder.decodeGlobalAddress(response);
+
+		for (int i = 0; i < expected.size(); i++) {
+			boolean same = expected.get(i).getRecordID().equals(actual.get(i).getRecordID())
+					&& expected.get(i).getResultCodes().equals(actual.get(i).getResultCodes());
+			for (int field = 0; field < expected.get(i).getCorrectedFieldCount(); field++) {
+				same &= expected.get(i).getCorrectedField(field).equals(actual.get(i).getCorrectedField(field));
+			}
+			if (!same || expected.size() != actual.size()) {
+				throw new IllegalStateException("Decoders disagree on record " + (i + 1));
+			}
+		}
+	}
+
+	/**
+	 * Builds a Global Address response with every field of a real record filled in
+	 * @param records
+	 * @return UTF-8 bytes of the response
+	 */
+	@SuppressWarnings("unchecked")
+	private static byte[] buildGlobalAddressResponse(int records) {
+		JSONArray array = new JSONArray();
+		List<AddressRecord> rows = Benchmark.generateRows(records, 7);
+
+		for (int i = 0; i < records; i++) {
+			JSONObject record = new JSONObject();
+			AddressRecord row = rows.get(i);
+			String street = row.getAddressLine(1);
+			for (String field : StubServices.RECORD_FIELDS) {
+				record.put(field, "");
+			}
+			record.put("RecordID", String.valueOf(i + 1));
+			record.put("Results", "AV24,GS05");
+			record.put("AddressLine1", street + " \"A\"");
+			record.put("FormattedAddress", street + ";" + row.getPostalCode() + " " + row.getLocality() + ";ICELAND");
+			record.put("Locality", row.getLocality());
+			record.put("PostalCode", row.getPostalCode());
+			record.put("CountryName", "Iceland");
+			record.put("CountryISO3166_1_Alpha2", "IS");
+			record.put("CountryISO3166_1_Alpha3", "ISL");
+			record.put("CountryISO3166_1_Numeric", "352");
+			record.put("Thoroughfare", street.substring(0, street.lastIndexOf(' ')));
+			record.put("PremisesNumber", street.substring(street.lastIndexOf(' ') + 1));
+			record.put("Latitude", "64.145981");
+			record.put("Longitude", "-21.9422367");
+			array.add(record);
+		}
+
+		JSONObject response = new JSONObject();
+		response.put("Version", "3.0.1.143");
+		response.put("TransmissionReference", "");
+		response.put("TransmissionResults", "");
+		response.put("TotalRecords", String.valueOf(records));
+		response.put("Records", array);
+		return response.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	interface Operation {
+		void run() throws ParseException;
+	}
+}
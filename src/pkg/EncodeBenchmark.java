@@ -0,0 +1,164 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * EncodeBenchmark.java
+ *
+ * Program Description: Compares the RequestEncoder with the request building it replaced:
+ * string concatenation and a URI for the Global Address GET URL, and a filled JSONObject for
+ * the Global MAK POST body. For each it reports requests encoded per second and bytes
+ * allocated per record, measured the same way as DecodeBenchmark.java. Before measuring, it
+ * checks that the encoded requests decode back to the records' fields, Icelandic letters
+ * and reserved characters included.
+ *
+ * Usage: java pkg.EncodeBenchmark [seconds per measurement]
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class EncodeBenchmark {
+	private static final String URL = "https://address.melissadata.net/V3/WEB/GlobalAddress/doGlobalAddress";
+
+	// Keeps the requests reachable so the encoding cannot be optimized away
+	private static volatile Object sink;
+
+	public static void main(String[] args) throws Exception {
+		double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+		final List<AddressRecord> rows = Benchmark.generateRows(1024, 11);
+		for (AddressRecord row : rows) {
+			row.applyVerification(verifiedResult(row));
+		}
+		checkRoundTrip();
+
+		final int[] next = new int[1];
+		System.out.println(String.format("%-34s %14s %14s", "encoder", "encodes/sec", "bytes/encode"));
+		DecodeBenchmark.measure("concatenation + URI, GET", seconds,
+				() -> sink = buildGETWithURI(rows.get(next[0]++ & 1023)));
+		DecodeBenchmark.measure("RequestEncoder, GET", seconds, () -> sink = RequestEncoder.forCurrentThread()
+				.encodeGlobalAddressGET(URL, "", rows.get(next[0]++ & 1023)));
+		DecodeBenchmark.measure("JSONObject, MAK POST", seconds,
+				() -> sink = new StringEntity(buildMakWithJSONObject(rows.get(next[0]++ & 1023)),
+						ContentType.APPLICATION_JSON));
+		DecodeBenchmark.measure("RequestEncoder, MAK POST", seconds, () -> {
+			RequestEncoder encoder = RequestEncoder.forCurrentThread();
+			encoder.encodeGlobalMakPOST(rows.get(next[0]++ & 1023));
+			sink = new ByteArrayEntity(encoder.getBuffer(), 0, encoder.getLength(), ContentType.APPLICATION_JSON);
+		});
+	}
+
+	/**
+	 * The GET request building RequestEncoder replaced
+	 * @param record
+	 * @return URL of the request
+	 */
+	private static String buildGETWithURI(AddressRecord record) {
+		String request = "?id=" + "" + "&a1=" + record.getAddressLine(1) + "&a2=" + record.getAddressLine(2)
+				+ "&a3=" + record.getAddressLine(3) + "&a4=" + record.getAddressLine(4) + "&a5="
+				+ record.getAddressLine(5) + "&a6=" + record.getAddressLine(6) + "&a7=" + record.getAddressLine(7)
+				+ "&a8=" + record.getAddressLine(8) + "&ddeploc=" + record.getDoubleDependentLocality()
+				+ "&deploc=" + record.getDependentLocality() + "&loc=" + record.getLocality() + "&subadmarea="
+				+ record.getSubAdministrativeArea() + "&admarea=" + record.getAdministrativeArea() + "&postal="
+				+ record.getPostalCode() + "&subNationalArea=" + record.getSubNationalArea() + "&ctry="
+				+ record.getCountry() + "&org=" + record.getOrganization() + "&format=json";
+		try {
+			URI address = new URI(URL);
+			return new URI(address.getScheme(), "//" + address.getRawAuthority() + address.getRawPath() + request,
+					null).toASCIIString();
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The MAK request building RequestEncoder replaced
+	 * @param record
+	 * @return JSON body of the request
+	 */
+	@SuppressWarnings("unchecked")
+	private static String buildMakWithJSONObject(AddressRecord record) {
+		JSONObject request = new JSONObject();
+
+		for (int line = 1; line <= AddressRecord.ADDRESS_LINES; line++) {
+			request.put("AddressLine" + line, record.getAddressLine(line));
+		}
+		request.put("Locality", record.getLocality());
+		request.put("AdministrativeArea", record.getAdministrativeArea());
+		request.put("PostalCode", record.getPostalCode());
+		request.put("Country", record.getCountry());
+		request.put("DependentLocality", record.getDependentLocality());
+		request.put("DoubleDependentLocality", record.getDoubleDependentLocality());
+		request.put("SubAdministrativeArea", record.getSubAdministrativeArea());
+		request.put("SubNationalArea", record.getSubNationalArea());
+		request.put("Thoroughfare", record.getThoroughfare());
+		request.put("PremisesNumber", record.getPremisesNumber());
+		request.put("SubPremisesNumber", record.getSubPremisesNumber());
+		request.put("iso2", "IS");
+		return request.toString();
+	}
+
+	/**
+	 * Fails unless a record with Icelandic letters, reserved characters and quotes comes back
+	 * unchanged from both an encoded GET URL and an encoded MAK body
+	 */
+	private static void checkRoundTrip() throws ParseException, UnsupportedEncodingException, URISyntaxException {
+		AddressRecord record = new AddressRecord("1", "\u00deor\u00f0ur & \u00c6gir #2", "c/o \"J\u00f3n\" 50%+1",
+				"", "", "", "", "", "", "Reykjav\u00edk", "", "101", "IS");
+		record.applyVerification(verifiedResult(record));
+
+		RequestEncoder encoder = RequestEncoder.forCurrentThread();
+		String query = new URI(encoder.encodeGlobalAddressGET(URL, "", record)).getRawQuery();
+		String[] expectedGET = { "a1", record.getAddressLine(1), "a2", record.getAddressLine(2), "loc",
+				record.getLocality() };
+		for (int i = 0; i < expectedGET.length; i += 2) {
+			String value = null;
+			for (String parameter : query.split("&")) {
+				if (parameter.startsWith(expectedGET[i] + "=")) {
+					value = URLDecoder.decode(parameter.substring(expectedGET[i].length() + 1), "UTF-8");
+				}
+			}
+			if (!expectedGET[i + 1].equals(value)) {
+				throw new IllegalStateException("GET parameter " + expectedGET[i] + " decoded as " + value);
+			}
+		}
+
+		encoder.encodeGlobalMakPOST(record);
+		JSONObject body = (JSONObject) new JSONParser().parse(
+				new String(encoder.getBuffer(), 0, encoder.getLength(), StandardCharsets.UTF_8));
+		if (!record.getAddressLine(1).equals(body.get("AddressLine1"))
+				|| !record.getAddressLine(2).equals(body.get("AddressLine2"))
+				|| !record.getThoroughfare().equals(body.get("Thoroughfare")) || !"IS".equals(body.get("iso2"))) {
+			throw new IllegalStateException("MAK body decoded as " + body);
+		}
+	}
+
+	/**
+	 * @param record
+	 * @return a verification result that fills in the record's thoroughfare and premises number
+	 */
+	private static GlobalAddressResult verifiedResult(AddressRecord record) {
+		String[] fields = new String[AddressRecord.FIELD_COUNT];
+		String street = record.getAddressLine(1);
+		int space = street.lastIndexOf(' ');
+
+		for (int i = 0; i < AddressRecord.FIELD_COUNT; i++) {
+			fields[i] = record.getField(i);
+		}
+		fields[AddressRecord.THOROUGHFARE] = space < 0 ? street : street.substring(0, space);
+		fields[AddressRecord.PREMISES_NUMBER] = space < 0 ? "" : street.substring(space + 1);
+		return new GlobalAddressResult(record.getRecordID(), "AV24", fields);
+	}
+}
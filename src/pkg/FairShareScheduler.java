@@ -0,0 +1,131 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * FairShareScheduler.java
+ *
+ * Program Description: Shares the calls in flight to one web service between the table jobs
+ * of JobRunner.java by weight. Each call takes one of a fixed number of slots before it goes
+ * to the web service's CallGovernor.java. While every slot is taken, the next free slot goes
+ * to the waiting job that has been served least for its weight (start-time fair queuing), so
+ * a job of weight 3 gets three calls for every call of a job of weight 1 for as long as both
+ * have work, and a job alone gets every slot.
+ *
+ * A job that was idle starts again at the current virtual time instead of catching up on the
+ * share it did not use, so it cannot crowd out the other jobs when it comes back.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FairShareScheduler {
+	private final String name;
+	private final int slots;
+	private final List<Share> shares = new ArrayList<Share>();
+
+	private int slotsInUse = 0;
+	private double virtualTime = 0;
+
+	/**
+	 * @param name web service name used in the report
+	 * @param slots number of calls allowed in flight for all jobs together
+	 */
+	public FairShareScheduler(String name, int slots) {
+		this.name = name;
+		this.slots = Math.max(1, slots);
+	}
+
+	/**
+	 * Adds a job sharing the slots
+	 * @param job name of the job used in the report
+	 * @param weight share of the slots relative to the other jobs, at least 1
+	 * @return the job's share, passed to acquire() and release()
+	 */
+	public synchronized Share addJob(String job, int weight) {
+		Share share = new Share(job, Math.max(1, weight));
+		shares.add(share);
+		return share;
+	}
+
+	/**
+	 * Waits until the given job is the next to be served and a slot is free, and takes the slot
+	 * @param share
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public synchronized void acquire(Share share) throws InterruptedException {
+		if (share.waiting == 0 && share.inFlight == 0) {
+			share.virtualStart = Math.max(share.virtualStart, virtualTime);
+		}
+		share.waiting++;
+		try {
+			while (slotsInUse >= slots || next() != share) {
+				wait();
+			}
+		} finally {
+			share.waiting--;
+		}
+
+		slotsInUse++;
+		share.inFlight++;
+		share.served++;
+		virtualTime = share.virtualStart;
+		share.virtualStart += 1.0 / share.weight;
+		// Another job may be next now that this one has moved on
+		notifyAll();
+	}
+
+	/**
+	 * Frees the slot taken by the given job
+	 * @param share
+	 */
+	public synchronized void release(Share share) {
+		slotsInUse--;
+		share.inFlight--;
+		notifyAll();
+	}
+
+	/**
+	 * @return waiting job that has been served least for its weight
+	 */
+	private Share next() {
+		Share next = null;
+		for (Share share : shares) {
+			if (share.waiting > 0 && (next == null || share.virtualStart < next.virtualStart)) {
+				next = share;
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * @return one line summary of the calls served for every job
+	 */
+	public synchronized String report() {
+		StringBuilder report = new StringBuilder(name + " shares of " + slots + " slots:");
+		for (Share share : shares) {
+			report.append(' ').append(share.job).append(" (weight ").append(share.weight).append(") ")
+					.append(share.served).append(" calls,");
+		}
+		report.setLength(report.length() - 1);
+		return report.toString();
+	}
+
+	/**
+	 * One job's weight and the calls it has been served
+	 */
+	public static class Share {
+		private final String job;
+		private final int weight;
+		private double virtualStart = 0;
+		private int waiting = 0;
+		private int inFlight = 0;
+		private long served = 0;
+
+		private Share(String job, int weight) {
+			this.job = job;
+			this.weight = weight;
+		}
+	}
+}
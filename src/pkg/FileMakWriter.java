@@ -0,0 +1,176 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * FileMakWriter.java
+ *
+ * Program Description: Writes the MAK ids to a result file instead of updating the SQL Table,
+ * one recID and mak_id per line, ready to be bulk loaded into a staging table with bcp or
+ * BULK INSERT and joined back. Lines are collected and written to the FileChannel in one
+ * buffer per batch, then forced to disk, so a batch is durable when the commit listener hears
+ * of it, as with MakWriter.java. A run started over truncates the file; a resumed run appends
+ * to it.
+ *
+ * Line format, with the default terminators of bcp -c and BULK INSERT:
+ * 	recID <delimiter> mak_id \r\n
+ * An empty mak_id loads as NULL with KEEPNULLS.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FileMakWriter implements RecordSink {
+	private final File file;
+	private final FileChannel channel;
+	private final char delimiter;
+	private final int batchSize;
+	private final long flushIntervalMillis;
+	private final List<String[]> pending = new ArrayList<String[]>();
+	private final StringBuilder lines = new StringBuilder();
+
+	private long lastFlushMillis = System.currentTimeMillis();
+	private final long startMillis = System.currentTimeMillis();
+	private long rowsWritten = 0;
+	private long rowsFailed = 0;
+	private MakWriter.CommitListener commitListener;
+	private MakWriter.FailureListener failureListener;
+
+	/**
+	 * Opens the given file for writing
+	 * @param file
+	 * @param append true to add to the lines of an earlier run, false to start the file over
+	 * @param delimiter delimiter between recID and mak_id
+	 * @param batchSize number of lines written per batch
+	 * @param flushIntervalMillis longest time a line waits before its batch is written
+	 * @throws IOException if the file cannot be opened
+	 */
+	public FileMakWriter(File file, boolean append, char delimiter, int batchSize, long flushIntervalMillis)
+			throws IOException {
+		this.file = file;
+		this.channel = new FileOutputStream(file, append).getChannel();
+		this.delimiter = delimiter;
+		this.batchSize = Math.max(1, batchSize);
+		this.flushIntervalMillis = flushIntervalMillis;
+	}
+
+	/**
+	 * Sets the listener told about every batch once it is on disk
+	 * @param commitListener
+	 */
+	public void setCommitListener(MakWriter.CommitListener commitListener) {
+		this.commitListener = commitListener;
+	}
+
+	/**
+	 * Sets the listener told about every line of a batch that could not be written
+	 * @param failureListener
+	 */
+	public void setFailureListener(MakWriter.FailureListener failureListener) {
+		this.failureListener = failureListener;
+	}
+
+	/**
+	 * Queues the line of the row with the given record ID, writing the batch if it is full
+	 * @param recordID
+	 * @param mak MAK id, or null to write an empty one
+	 */
+	@Override
+	public synchronized void add(String recordID, String mak) {
+		pending.add(new String[] { recordID, mak == null ? "" : mak });
+
+		if (pending.size() >= batchSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes the pending batch if the flush interval has passed since the last one
+	 */
+	@Override
+	public synchronized void flushIfDue() {
+		if (!pending.isEmpty() && System.currentTimeMillis() - lastFlushMillis >= flushIntervalMillis) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes every pending line and forces it to disk
+	 */
+	@Override
+	public synchronized void flush() {
+		lastFlushMillis = System.currentTimeMillis();
+
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		long start = System.nanoTime();
+		try {
+			lines.setLength(0);
+			for (String[] update : pending) {
+				lines.append(update[0]).append(delimiter).append(update[1]).append("\r\n");
+			}
+			ByteBuffer buffer = StandardCharsets.UTF_8.encode(lines.toString());
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+
+			rowsWritten += pending.size();
+			Metrics.stage(Metrics.SQL_WRITE).recordSince(start);
+			Metrics.count("rows_written", pending.size());
+
+			if (commitListener != null) {
+				List<String> recordIDs = new ArrayList<String>(pending.size());
+				for (String[] update : pending) {
+					recordIDs.add(update[0]);
+				}
+				commitListener.committed(recordIDs);
+			}
+		} catch (IOException e) {
+			System.out.println("ERROR IOException in FileMakWriter.flush() : "
+					+ "Unable to write " + pending.size() + " MAK IDs to " + file + ".");
+			e.printStackTrace();
+			rowsFailed += pending.size();
+			Metrics.count("rows_write_failed", pending.size());
+
+			if (failureListener != null) {
+				for (String[] update : pending) {
+					failureListener.failed(update[0], update[1], e);
+				}
+			}
+		} finally {
+			pending.clear();
+		}
+	}
+
+	@Override
+	public synchronized long getRowsFailed() {
+		return rowsFailed;
+	}
+
+	/**
+	 * Writes any pending lines, closes the file and prints the totals
+	 */
+	@Override
+	public synchronized void close() {
+		flush();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			System.out.println("ERROR IOException in FileMakWriter.close() : Unable to close " + file + ".");
+			e.printStackTrace();
+		}
+		double seconds = Math.max(1, System.currentTimeMillis() - startMillis) / 1000.0;
+		System.out.println(String.format("MAK IDs written to %s: %d, failed: %d, %.1f rows/sec",
+				file, rowsWritten, rowsFailed, rowsWritten / seconds));
+	}
+}
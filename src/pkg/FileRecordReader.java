@@ -0,0 +1,328 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * FileRecordReader.java
+ *
+ * Program Description: Streams the rows of an extract file instead of the SQL Table, with the
+ * same 17 columns: recID, Address1 - Address8, Locality, AdministrativeArea, PostalCode,
+ * CountryCode, DependentLocality, DoubleDependentLocality, SubAdministrativeArea and
+ * SubNationalArea. The file is read through a FileChannel into one large buffer that is
+ * decoded as UTF-8 in place, so a file of any size is read at disk speed without being held in
+ * memory.
+ *
+ * Formats:
+ * 	delimited	one row per line, fields split by the delimiter, such as a tab or a comma. A
+ * 		field may be quoted with " as in CSV, with "" for a quote, to hold the delimiter or a
+ * 		line break. If the first line has a recID field it names the columns, in any order;
+ * 		otherwise the columns are in the order above.
+ * 	jsonl	one JSON object per line, with the column names as keys. Missing keys are empty.
+ *
+ * Resuming skips the rows up to and including the recID to resume after, in file order, so
+ * the file need not be sorted by recID.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+public class FileRecordReader implements RecordSource {
+	public static final String DELIMITED = "delimited";
+	public static final String JSONL = "jsonl";
+	static final String[] COLUMNS = { "recID", "Address1", "Address2", "Address3", "Address4", "Address5",
+			"Address6", "Address7", "Address8", "Locality", "AdministrativeArea", "PostalCode", "CountryCode",
+			"DependentLocality", "DoubleDependentLocality", "SubAdministrativeArea", "SubNationalArea" };
+
+	private final File file;
+	private final boolean jsonl;
+	private final char delimiter;
+	private final FileChannel channel;
+	private final ByteBuffer bytes;
+	private final CharBuffer chars;
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final StringBuilder field = new StringBuilder();
+	private final List<String> fields = new ArrayList<String>(COLUMNS.length);
+	private final JSONParser parser = new JSONParser();
+
+	// Position of each of the 17 columns among the fields of a delimited line
+	private int[] columnPositions;
+	private boolean endOfInput = false;
+	private boolean decodedAll = false;
+	private int pushedBack = -1;
+	private long line = 0;
+	private String skipThrough;
+	private boolean finished = false;
+	private boolean failed = false;
+
+	/**
+	 * Opens the given file for reading
+	 * @param file
+	 * @param format DELIMITED or JSONL
+	 * @param delimiter field delimiter of a delimited file
+	 * @param bufferBytes size of the read buffer
+	 * @throws IOException if the file cannot be opened
+	 */
+	public FileRecordReader(File file, String format, char delimiter, int bufferBytes) throws IOException {
+		this.file = file;
+		this.jsonl = JSONL.equalsIgnoreCase(format);
+		this.delimiter = delimiter;
+		this.channel = new FileInputStream(file).getChannel();
+		this.bytes = ByteBuffer.allocateDirect(Math.max(4096, bufferBytes));
+		this.chars = CharBuffer.allocate(Math.max(4096, bufferBytes));
+		this.bytes.flip();
+		this.chars.flip();
+	}
+
+	/**
+	 * Skips the rows up to and including the one with the given record ID
+	 * @param recordID
+	 */
+	@Override
+	public void startAfter(String recordID) {
+		this.skipThrough = recordID;
+	}
+
+	/**
+	 * Returns the next row of the file
+	 * @return record of the row, or null at the end of the file
+	 */
+	@Override
+	public AddressRecord next() {
+		while (!finished) {
+			try {
+				String[] row = jsonl ? readJsonLine() : readDelimitedLine();
+
+				if (row == null) {
+					if (skipThrough != null) {
+						System.out.println("ERROR in FileRecordReader.next() : recID " + skipThrough
+								+ " to resume after is not in " + file + ".");
+						failed = true;
+					}
+					break;
+				}
+				if (row[0].isEmpty()) {
+					continue;
+				}
+				if (skipThrough != null) {
+					if (row[0].equals(skipThrough)) {
+						skipThrough = null;
+					}
+					continue;
+				}
+
+				Metrics.count("rows_read");
+				return new AddressRecord(row[0], Arrays.copyOfRange(row, 1, row.length));
+			} catch (IOException | ParseException | ClassCastException e) {
+				System.out.println("ERROR in FileRecordReader.next() : "
+						+ "Unable to read line " + line + " of " + file + ".");
+				e.printStackTrace();
+				failed = true;
+				break;
+			}
+		}
+
+		close();
+		return null;
+	}
+
+	/**
+	 * @return the 17 columns of the next delimited line, or null at the end of the file
+	 */
+	private String[] readDelimitedLine() throws IOException {
+		if (!readFields()) {
+			return null;
+		}
+
+		if (columnPositions == null) {
+			columnPositions = new int[COLUMNS.length];
+			for (int column = 0; column < COLUMNS.length; column++) {
+				columnPositions[column] = column;
+			}
+			// A first line with a recID field names the columns
+			boolean header = false;
+			for (String name : fields) {
+				header |= isColumn(name, COLUMNS[0]);
+			}
+			if (header) {
+				for (int column = 0; column < COLUMNS.length; column++) {
+					columnPositions[column] = -1;
+					for (int position = 0; position < fields.size(); position++) {
+						if (isColumn(fields.get(position), COLUMNS[column])) {
+							columnPositions[column] = position;
+						}
+					}
+				}
+				return readDelimitedLine();
+			}
+		}
+
+		String[] row = new String[COLUMNS.length];
+		for (int column = 0; column < COLUMNS.length; column++) {
+			int position = columnPositions[column];
+			row[column] = position >= 0 && position < fields.size() ? fields.get(position) : "";
+		}
+		row[0] = row[0].trim();
+		return row;
+	}
+
+	/**
+	 * @param header field of the first line
+	 * @param column
+	 * @return true if the field names the column, ignoring case and a byte order mark
+	 */
+	private static boolean isColumn(String header, String column) {
+		return header.replace("\uFEFF", "").trim().equalsIgnoreCase(column);
+	}
+
+	/**
+	 * Reads the fields of the next delimited line into fields
+	 * @return false at the end of the file
+	 */
+	private boolean readFields() throws IOException {
+		fields.clear();
+		field.setLength(0);
+		boolean quoted = false;
+		boolean empty = true;
+		int c;
+
+		while ((c = read()) >= 0) {
+			empty = false;
+			if (quoted) {
+				if (c != '"') {
+					field.append((char) c);
+				} else if ((c = read()) == '"') {
+					field.append('"');
+				} else {
+					quoted = false;
+					pushedBack = c;
+				}
+			} else if (c == delimiter) {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else if (c == '\n') {
+				break;
+			} else if (c == '"' && field.length() == 0) {
+				quoted = true;
+			} else if (c != '\r') {
+				field.append((char) c);
+			}
+		}
+
+		if (empty) {
+			return false;
+		}
+		line++;
+		fields.add(field.toString());
+		return true;
+	}
+
+	/**
+	 * @return the 17 columns of the next JSON line, or null at the end of the file
+	 */
+	private String[] readJsonLine() throws IOException, ParseException {
+		field.setLength(0);
+		boolean empty = true;
+		int c;
+
+		while ((c = read()) >= 0 && c != '\n') {
+			empty = false;
+			field.append((char) c);
+		}
+		if (empty) {
+			return c < 0 ? null : new String[] { "" };
+		}
+		line++;
+		if (field.toString().trim().isEmpty()) {
+			return new String[] { "" };
+		}
+
+		JSONObject object = (JSONObject) parser.parse(field.toString());
+		String[] row = new String[COLUMNS.length];
+		for (int column = 0; column < COLUMNS.length; column++) {
+			Object value = object.get(COLUMNS[column]);
+			row[column] = value == null ? "" : value.toString();
+		}
+		row[0] = row[0].trim();
+		return row;
+	}
+
+	/**
+	 * @return next character of the file, or -1 at its end
+	 */
+	private int read() throws IOException {
+		if (pushedBack >= 0) {
+			int c = pushedBack;
+			pushedBack = -1;
+			return c;
+		}
+		if (!chars.hasRemaining() && !fill()) {
+			return -1;
+		}
+		return chars.get();
+	}
+
+	/**
+	 * Decodes the next part of the file into the character buffer, reading from the file
+	 * whenever the bytes read so far are used up
+	 * @return false at the end of the file
+	 */
+	private boolean fill() throws IOException {
+		chars.clear();
+		while (chars.position() == 0 && !decodedAll) {
+			// Underflow leaves a character split across two reads in the byte buffer for the next read
+			if (decoder.decode(bytes, chars, endOfInput).isUnderflow()) {
+				if (endOfInput) {
+					decoder.flush(chars);
+					decodedAll = true;
+				} else {
+					bytes.compact();
+					endOfInput = channel.read(bytes) < 0;
+					bytes.flip();
+				}
+			}
+		}
+		chars.flip();
+		return chars.hasRemaining();
+	}
+
+	/**
+	 * @return true if reading stopped because a line could not be read
+	 */
+	@Override
+	public boolean hasFailed() {
+		return failed;
+	}
+
+	/**
+	 * Closes the file
+	 */
+	@Override
+	public void close() {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			System.out.println("ERROR IOException in FileRecordReader.close() : Unable to close " + file + ".");
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * GlobalAddressResult.java
+ *
+ * Program Description: In-memory result of one Global Address verification. Holds the
+ * result codes and the corrected address fields of a response record so that the response
+ * is parsed once and handed to the later stages instead of being re-read from disk. Responses
+ * are decoded by ResponseDecoder.java, which keeps only these fields.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.util.List;
+
+import org.json.simple.parser.ParseException;
+
+public class GlobalAddressResult {
+	// Global Address response fields in the order of the parameters array indices 1 - 19
+	static final String[] CORRECTED_FIELD_NAMES = { "AddressLine1", "AddressLine2", "AddressLine3",
+			"AddressLine4", "AddressLine5", "AddressLine6", "AddressLine7", "AddressLine8", "Locality",
+			"AdministrativeArea", "PostalCode", "CountryName", "DependentLocality", "DoubleDependentLocality",
+			"SubAdministrativeArea", "SubNationalArea", "Thoroughfare", "PremisesNumber", "SubPremisesNumber" };
+
+	private final String recordID;
+	private final String resultCodes;
+	private final String[] correctedFields;
+
+	public GlobalAddressResult(String recordID, String resultCodes, String[] correctedFields) {
+		this.recordID = recordID;
+		this.resultCodes = resultCodes;
+		this.correctedFields = correctedFields;
+	}
+
+	/**
+	 * Parses a Global Address JSON response and returns the result of its first record
+	 * @param response UTF-8 bytes of the response
+	 * @return result of the first record in the response
+	 * @throws ParseException if the response is not valid JSON or has no records
+	 */
+	public static GlobalAddressResult parse(byte[] response) throws ParseException {
+		List<GlobalAddressResult> results = ResponseDecoder.decodeGlobalAddress(response);
+
+		if (results.isEmpty()) {
+			throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, "Records");
+		}
+
+		return results.get(0);
+	}
+
+	/**
+	 * Parses a multi-record Global Address JSON response and returns the result of every record
+	 * @param response UTF-8 bytes of the response
+	 * @return results in the order the records appear in the response
+	 * @throws ParseException if the response is not valid JSON
+	 */
+	public static List<GlobalAddressResult> parseAll(byte[] response) throws ParseException {
+		return ResponseDecoder.decodeGlobalAddress(response);
+	}
+
+	public String getRecordID() {
+		return recordID;
+	}
+
+	/**
+	 * @return comma split string containing list of result codes returned
+	 */
+	public String getResultCodes() {
+		return resultCodes;
+	}
+
+	/**
+	 * @param index position of the field in CORRECTED_FIELD_NAMES
+	 * @return corrected value of the field
+	 */
+	public String getCorrectedField(int index) {
+		return correctedFields[index];
+	}
+
+	public int getCorrectedFieldCount() {
+		return correctedFields.length;
+	}
+}
@@ -0,0 +1,343 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * JobRunner.java
+ *
+ * Program Description: Runs several SQL Tables at once in one process, each as a job with its
+ * own Pipeline.java, record reader and MAK id write-back. The jobs share the HTTP client, the
+ * verification and MAK caches and the call governors of Main.java, so together they stay
+ * within one rate quota for each web service. The calls in flight are shared between the jobs
+ * by priority through a FairShareScheduler.java for each web service.
+ *
+ * Every progress interval, and at the end, each table's progress is printed with its
+ * throughput and estimated time left; both are also exposed as metrics.
+ *
+ * Properties:
+ * 	jobs	SQL Tables to run, comma separated
+ * 	job.<table>.priority	weight of the table's share of the calls, 1 by default
+ * 	job.<table>.maxRows	most rows read from the table, 0 for all of them
+ * 	jobs.progressSeconds	seconds between two progress lines
+ *
+ * The progress journal, leases, incremental runs, the verification side table, the pre-filter
+ * and the dead-letter file each follow a single table and are not used by jobs.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class JobRunner {
+	// Job of the calling worker, inherited by the stage threads its pipeline starts
+	private static final InheritableThreadLocal<Job> CURRENT = new InheritableThreadLocal<Job>();
+
+	private final List<Job> jobs = new ArrayList<Job>();
+	private final ConnectionPool connectionPool;
+	private final FairShareScheduler globalAddressScheduler;
+	private final FairShareScheduler makScheduler;
+	private final Properties properties;
+	private final int progressSeconds;
+
+	/**
+	 * Creates a job for every table in the jobs property
+	 * @param properties
+	 * @param connectionString
+	 */
+	public JobRunner(Properties properties, String connectionString) {
+		this.properties = properties;
+		this.progressSeconds = Main.getIntProperty(properties, "jobs.progressSeconds", 30);
+		this.globalAddressScheduler = new FairShareScheduler("Global Address",
+				Main.getIntProperty(properties, "pipeline.verifyThreads", 8));
+		this.makScheduler = new FairShareScheduler("Global MAK",
+				Main.getIntProperty(properties, "pipeline.makThreads", 8));
+
+		for (String listed : properties.getProperty("jobs", "").split(",")) {
+			String table = listed.trim();
+			if (!table.isEmpty()) {
+				int priority = Main.getIntProperty(properties, "job." + table + ".priority", 1);
+				jobs.add(new Job(table, Main.getIntProperty(properties, "job." + table + ".maxRows", 0),
+						globalAddressScheduler.addJob(table, priority), makScheduler.addJob(table, priority)));
+			}
+		}
+
+		// Each job reads a page and writes a batch at the same time
+		this.connectionPool = new ConnectionPool(connectionString,
+				Math.max(Main.getIntProperty(properties, "write.poolSize", 2), 2 * jobs.size()));
+	}
+
+	/**
+	 * @return job of the calling worker, or null if it is not running a job
+	 */
+	static Job currentJob() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Runs every job at once and blocks until the last one is finished
+	 */
+	public void run() {
+		List<Thread> threads = new ArrayList<Thread>();
+		for (Job job : jobs) {
+			String gaugePrefix = job.getMetricPrefix();
+			Metrics.gauge(gaugePrefix + "rows_finished", job.rowsFinished::sum);
+			Metrics.gauge(gaugePrefix + "rows_total", () -> job.rowsTotal);
+			Metrics.gauge(gaugePrefix + "eta_seconds", job::getEtaSeconds);
+			threads.add(new Thread(() -> runJob(job), "job-" + job.table));
+		}
+		System.out.println("Running " + jobs.size() + " tables: " + globalAddressScheduler.report());
+
+		ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "job-progress");
+			thread.setDaemon(true);
+			return thread;
+		});
+		progress.scheduleAtFixedRate(this::printProgress, progressSeconds, progressSeconds, TimeUnit.SECONDS);
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			System.out.println("ERROR InterruptedException in JobRunner.run() : "
+					+ "Interrupted while waiting for the jobs to finish.");
+			for (Thread thread : threads) {
+				thread.interrupt();
+			}
+			Thread.currentThread().interrupt();
+		}
+
+		progress.shutdownNow();
+		printProgress();
+		connectionPool.close();
+	}
+
+	/**
+	 * Reads, verifies and writes back the rows of one table
+	 * @param job
+	 */
+	private void runJob(Job job) {
+		CURRENT.set(job);
+		job.reader = new SqlRecordReader(connectionPool, job.table,
+				Main.getIntProperty(properties, "read.pageSize", 5000),
+				Main.getIntProperty(properties, "read.fetchSize", 1000),
+				Boolean.parseBoolean(properties.getProperty("read.onlyMissingMak", "false")));
+		MakWriter makWriter = new MakWriter(connectionPool, job.table,
+				Main.getIntProperty(properties, "write.batchSize", 500),
+				Main.getIntProperty(properties, "write.flushMillis", 1000));
+
+		try {
+			long rows = job.reader.countRows();
+			job.rowsTotal = job.maxRows > 0 ? Math.min(rows, job.maxRows) : rows;
+		} catch (SQLException e) {
+			System.out.println("ERROR SQLException in JobRunner.runJob() : Unable to count the rows of "
+					+ job.table + ", running without an ETA.");
+			e.printStackTrace();
+		}
+
+		job.startNanos = System.nanoTime();
+		new Pipeline(Main.getIntProperty(properties, "pipeline.queueCapacity", 1000),
+				Main.getIntProperty(properties, "pipeline.batchRows", 64),
+				Main.getIntProperty(properties, "pipeline.verifyThreads", 8),
+				Main.getIntProperty(properties, "pipeline.makThreads", 8),
+				Main.getIntProperty(properties, "globalAddress.batchSize", 1), job, job.new CountingSink(makWriter))
+				.run();
+		makWriter.close();
+		job.endNanos = System.nanoTime();
+	}
+
+	private void printProgress() {
+		for (Job job : jobs) {
+			System.out.println(job.progress());
+		}
+	}
+
+	/**
+	 * @return how the calls to each web service were shared between the jobs
+	 */
+	public String report() {
+		return globalAddressScheduler.report() + System.lineSeparator() + makScheduler.report();
+	}
+
+	/**
+	 * One table being run: the source of its rows, limited to maxRows, and its progress
+	 */
+	public class Job implements RecordSource {
+		private final String table;
+		private final long maxRows;
+		private final FairShareScheduler.Share globalAddressShare;
+		private final FairShareScheduler.Share makShare;
+		private final LongAdder rowsFinished = new LongAdder();
+		private SqlRecordReader reader;
+		private long rowsRead = 0;
+		private volatile long rowsTotal = -1;
+		private volatile long startNanos = 0;
+		private volatile long endNanos = 0;
+
+		private Job(String table, long maxRows, FairShareScheduler.Share globalAddressShare,
+				FairShareScheduler.Share makShare) {
+			this.table = table;
+			this.maxRows = maxRows;
+			this.globalAddressShare = globalAddressShare;
+			this.makShare = makShare;
+		}
+
+		@Override
+		public void startAfter(String recordID) {
+			reader.startAfter(recordID);
+		}
+
+		/**
+		 * @return next row of the table, or null once maxRows rows have been read
+		 */
+		@Override
+		public AddressRecord next() {
+			if (maxRows > 0 && rowsRead >= maxRows) {
+				reader.close();
+				return null;
+			}
+			AddressRecord record = reader.next();
+			if (record != null) {
+				rowsRead++;
+			}
+			return record;
+		}
+
+		@Override
+		public boolean hasFailed() {
+			return reader.hasFailed();
+		}
+
+		@Override
+		public void close() {
+			reader.close();
+		}
+
+		/**
+		 * Sends a Global Address call once the job's share of the calls in flight allows it
+		 * @param governor call governor of the web service
+		 * @param call
+		 * @return result of the call
+		 * @throws IOException of the call
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		<T> T callGlobalAddress(CallGovernor governor, CallGovernor.Call<T> call)
+				throws java.io.IOException, InterruptedException {
+			return call(globalAddressScheduler, globalAddressShare, governor, call);
+		}
+
+		/**
+		 * Sends a Global MAK call once the job's share of the calls in flight allows it
+		 * @param governor call governor of the web service
+		 * @param call
+		 * @return result of the call
+		 * @throws IOException of the call
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		<T> T callGlobalMak(CallGovernor governor, CallGovernor.Call<T> call)
+				throws java.io.IOException, InterruptedException {
+			return call(makScheduler, makShare, governor, call);
+		}
+
+		private <T> T call(FairShareScheduler scheduler, FairShareScheduler.Share share,
+				CallGovernor governor, CallGovernor.Call<T> call) throws java.io.IOException, InterruptedException {
+			scheduler.acquire(share);
+			try {
+				return governor.call(call);
+			} finally {
+				scheduler.release(share);
+			}
+		}
+
+		/**
+		 * @return prefix of the names of the job's metrics, such as job_dbo_Addresses_
+		 */
+		public String getMetricPrefix() {
+			return "job_" + table.replaceAll("[^A-Za-z0-9]+", "_") + "_";
+		}
+
+		/**
+		 * Counts a row finished with or without a MAK id
+		 */
+		void countFinished() {
+			rowsFinished.increment();
+		}
+
+		/**
+		 * @return estimated seconds until every row is finished, or -1 if it cannot be told yet
+		 */
+		public long getEtaSeconds() {
+			long finished = rowsFinished.sum();
+			if (endNanos != 0) {
+				return 0;
+			}
+			if (rowsTotal < 0 || startNanos == 0 || finished == 0) {
+				return -1;
+			}
+			double seconds = (System.nanoTime() - startNanos) / 1e9;
+			return (long) (Math.max(0, rowsTotal - finished) * seconds / finished);
+		}
+
+		/**
+		 * @return one line of the table's rows finished, throughput and time left
+		 */
+		public String progress() {
+			long finished = rowsFinished.sum();
+			double seconds = startNanos == 0 ? 0 : ((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos) / 1e9;
+			long eta = getEtaSeconds();
+
+			return String.format("Table %s: %d of %s rows finished%s, %.1f rows/sec, %s", table, finished,
+					rowsTotal < 0 ? "?" : Long.toString(rowsTotal),
+					rowsTotal > 0 ? String.format(" (%.1f%%)", 100.0 * finished / rowsTotal) : "",
+					seconds > 0 ? finished / seconds : 0.0, endNanos != 0 ? "done"
+							: eta < 0 ? "ETA unknown" : String.format("ETA %d:%02d:%02d", eta / 3600, eta / 60 % 60,
+									eta % 60));
+		}
+
+		/**
+		 * MAK id sink of the job, counting every row it is given as finished
+		 */
+		private class CountingSink implements RecordSink {
+			private final RecordSink sink;
+
+			private CountingSink(RecordSink sink) {
+				this.sink = sink;
+			}
+
+			@Override
+			public void add(String recordID, String mak) {
+				sink.add(recordID, mak);
+				rowsFinished.increment();
+			}
+
+			@Override
+			public void flushIfDue() {
+				sink.flushIfDue();
+			}
+
+			@Override
+			public void flush() {
+				sink.flush();
+			}
+
+			@Override
+			public long getRowsFailed() {
+				return sink.getRowsFailed();
+			}
+
+			@Override
+			public void close() {
+				sink.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * LatencyHistogram.java
+ *
+ * Program Description: Lock-free latency histogram with log-linear buckets: every power of
+ * two is split into eight buckets, so any percentile is accurate to within about 6% at any
+ * scale. Recording a value costs a few arithmetic operations and one atomic increment.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sumNanos = new LongAdder();
+
+	/**
+	 * @param nanos latency of one call
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+
+		counts.incrementAndGet(bucketOf(value));
+		count.increment();
+		sumNanos.add(value);
+	}
+
+	/**
+	 * Records the time passed since the given System.nanoTime() reading
+	 * @param startNanos
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int highestBit = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) ((value >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+		return (highestBit - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @param bucket
+	 * @return middle of the range of values counted in the bucket
+	 */
+	private static long valueOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int highestBit = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int shift = highestBit - SUB_BUCKET_BITS;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lowest + ((1L << shift) >> 1);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getSumNanos() {
+		return sumNanos.sum();
+	}
+
+	/**
+	 * @param quantile between 0 and 1, e.g. 0.99 for p99
+	 * @return latency in nanoseconds below which the given share of calls fell, 0 if none were recorded
+	 */
+	public long getQuantileNanos(double quantile) {
+		long total = count.sum();
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(quantile * total);
+		long seen = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			seen += counts.get(bucket);
+			if (seen >= rank) {
+				return valueOf(bucket);
+			}
+		}
+		return valueOf(BUCKETS - 1);
+	}
+
+	/**
+	 * @return p50, p99 and p99.9 in milliseconds and the number of calls
+	 */
+	public String summary() {
+		return String.format("p50 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, %d calls",
+				getQuantileNanos(0.5) / 1e6, getQuantileNanos(0.99) / 1e6, getQuantileNanos(0.999) / 1e6,
+				getCount());
+	}
+}
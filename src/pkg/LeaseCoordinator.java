@@ -0,0 +1,489 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * LeaseCoordinator.java
+ *
+ * Program Description: Lets several worker processes, on one or more nodes, share one SQL
+ * Table by leasing disjoint recID ranges from a lease table in the same database.
+ *
+ * The first worker to start splits the SQL Table into ranges of about rangeRows rows and
+ * inserts one lease row per range; the others find the ranges already planned. A worker
+ * claims the first range that is open or whose lease has expired, and keeps its leases alive
+ * with a heartbeat. A range is marked done once every row read from it has either been
+ * rejected or had its mak_id update committed. A worker that dies stops its heartbeat, so its
+ * ranges expire and are claimed again by the others, which repeat the unfinished rows of the
+ * range. Expiry is measured on the database clock, so the nodes' clocks need not agree.
+ *
+ * Lease table columns:
+ * 	range_id	order of the range in the SQL Table
+ * 	after_recID, through_recID	bounds of the range, NULL for the ends of the table
+ * 	state	open, leased or done
+ * 	owner, expires_at	worker holding the lease and when it expires
+ *
+ * The lease table is kept after the run, so a later run with the same lease table only reads
+ * the ranges that were never finished. Drop it, or name a new one, to process the table again.
+ * In an incremental run the last worker to finish empties it for the next run.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class LeaseCoordinator {
+	private final ConnectionPool connectionPool;
+	private final String leaseTable;
+	private final String databaseTable;
+	private final String owner;
+	private final int rangeRows;
+	private final int leaseSeconds;
+	private final long heartbeatMillis;
+	// Leases held by this worker, by range ID
+	private final Map<Integer, Lease> held = new HashMap<Integer, Lease>();
+	// Lease of every row read and not yet finished, by record ID
+	private final Map<String, Lease> rowLeases = new HashMap<String, Lease>();
+
+	private Thread heartbeatThread;
+	private volatile boolean closed = false;
+
+	/**
+	 * @param connectionString JDBC connection string of the database holding both tables
+	 * @param leaseTable lease table, created if it does not exist
+	 * @param databaseTable SQL Table whose rows are leased
+	 * @param owner name of this worker, unique among the workers sharing the table
+	 * @param rangeRows number of rows per range when the ranges are planned
+	 * @param leaseSeconds time a lease lasts without a heartbeat
+	 * @param heartbeatSeconds interval between heartbeats, well below leaseSeconds
+	 */
+	public LeaseCoordinator(String connectionString, String leaseTable, String databaseTable, String owner,
+			int rangeRows, int leaseSeconds, int heartbeatSeconds) {
+		// Heartbeats and claims get their own connection so a slow write-back cannot delay them
+		this.connectionPool = new ConnectionPool(connectionString, 1);
+		this.leaseTable = leaseTable;
+		this.databaseTable = databaseTable;
+		this.owner = owner;
+		this.rangeRows = Math.max(1, rangeRows);
+		this.leaseSeconds = Math.max(1, leaseSeconds);
+		this.heartbeatMillis = Math.max(1, Math.min(heartbeatSeconds, this.leaseSeconds)) * 1000L;
+
+		Metrics.gauge("leases_held", this::heldCount);
+	}
+
+	/**
+	 * Creates the lease table and plans the ranges unless another worker already has. Workers
+	 * starting together take turns through an application lock
+	 * @throws SQLException if the lease table cannot be created or planned
+	 */
+	public void prepare() throws SQLException {
+		Connection connection = connectionPool.borrow();
+		try {
+			connection.setAutoCommit(false);
+			try {
+				try (PreparedStatement lock = connection.prepareStatement("EXEC sp_getapplock @Resource = ?, "
+						+ "@LockMode = 'Exclusive', @LockOwner = 'Transaction', @LockTimeout = 60000")) {
+					lock.setString(1, "lease " + leaseTable);
+					lock.execute();
+				}
+
+				try (Statement statement = connection.createStatement()) {
+					statement.execute("IF OBJECT_ID(N'" + leaseTable.replace("'", "''") + "', N'U') IS NULL "
+							+ "CREATE TABLE " + leaseTable + " ([range_id] INT NOT NULL PRIMARY KEY, "
+							+ "[after_recID] NVARCHAR(450) NULL, [through_recID] NVARCHAR(450) NULL, "
+							+ "[state] VARCHAR(8) NOT NULL, [owner] NVARCHAR(200) NULL, "
+							+ "[expires_at] DATETIME2 NULL)");
+
+					try (ResultSet count = statement.executeQuery("SELECT COUNT(*) FROM " + leaseTable)) {
+						count.next();
+						if (count.getInt(1) == 0) {
+							planRanges(connection);
+						}
+					}
+				}
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+		} finally {
+			connectionPool.release(connection);
+		}
+	}
+
+	/**
+	 * Splits the SQL Table at every rangeRows-th recID and inserts one open lease per range
+	 * @param connection
+	 * @throws SQLException
+	 */
+	private void planRanges(Connection connection) throws SQLException {
+		List<String> boundaries = new ArrayList<String>();
+
+		try (PreparedStatement select = connection.prepareStatement("SELECT [recID] FROM (SELECT [recID], "
+				+ "ROW_NUMBER() OVER (ORDER BY [recID]) AS [row_number] FROM " + databaseTable + ") AS [numbered] "
+				+ "WHERE [row_number] % ? = 0 ORDER BY [recID]")) {
+			select.setInt(1, rangeRows);
+			try (ResultSet resultSet = select.executeQuery()) {
+				while (resultSet.next()) {
+					boundaries.add(resultSet.getString(1));
+				}
+			}
+		}
+
+		// The last range is open-ended so rows added later are still leased
+		try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + leaseTable
+				+ " ([range_id], [after_recID], [through_recID], [state]) VALUES (?, ?, ?, 'open')")) {
+			for (int range = 0; range <= boundaries.size(); range++) {
+				insert.setInt(1, range);
+				insert.setString(2, range == 0 ? null : boundaries.get(range - 1));
+				insert.setString(3, range == boundaries.size() ? null : boundaries.get(range));
+				insert.addBatch();
+			}
+			insert.executeBatch();
+		}
+		System.out.println("Planned " + (boundaries.size() + 1) + " ranges of " + rangeRows + " rows in "
+				+ leaseTable);
+	}
+
+	/**
+	 * Starts renewing the leases held by this worker every heartbeat interval
+	 */
+	public void startHeartbeat() {
+		heartbeatThread = new Thread(() -> {
+			while (!closed) {
+				try {
+					Thread.sleep(heartbeatMillis);
+				} catch (InterruptedException e) {
+					return;
+				}
+				heartbeat();
+			}
+		}, "lease-heartbeat");
+		heartbeatThread.setDaemon(true);
+		heartbeatThread.start();
+	}
+
+	/**
+	 * Extends every lease this worker holds and marks the ones another worker has claimed
+	 * since, after they expired, as lost
+	 */
+	void heartbeat() {
+		Set<Integer> renewed = new HashSet<Integer>();
+		Set<Integer> heldBefore;
+		Connection connection = null;
+
+		// Leases claimed while the heartbeat runs were not due for renewal
+		synchronized (this) {
+			heldBefore = new HashSet<Integer>(held.keySet());
+		}
+
+		try {
+			connection = connectionPool.borrow();
+			try (PreparedStatement update = connection.prepareStatement("UPDATE " + leaseTable
+					+ " SET [expires_at] = DATEADD(second, ?, SYSUTCDATETIME()) OUTPUT inserted.[range_id]"
+					+ " WHERE [owner] = ? AND [state] = 'leased'")) {
+				update.setInt(1, leaseSeconds);
+				update.setString(2, owner);
+				try (ResultSet resultSet = update.executeQuery()) {
+					while (resultSet.next()) {
+						renewed.add(resultSet.getInt(1));
+					}
+				}
+			}
+		} catch (SQLException e) {
+			System.out.println("ERROR SQLException in LeaseCoordinator.heartbeat() : "
+					+ "Unable to renew the leases in " + leaseTable + ".");
+			e.printStackTrace();
+			return;
+		} finally {
+			connectionPool.release(connection);
+		}
+
+		synchronized (this) {
+			Iterator<Lease> leases = held.values().iterator();
+			while (leases.hasNext()) {
+				Lease lease = leases.next();
+				if (heldBefore.contains(lease.rangeID) && !renewed.contains(lease.rangeID)) {
+					System.out.println("Lost the lease of range " + lease.rangeID + " to another worker.");
+					lease.lost = true;
+					leases.remove();
+					Metrics.count("leases_lost");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Claims the first range that is open or whose lease has expired
+	 * @return the claimed lease, or null if no range can be claimed now
+	 * @throws SQLException if the lease table cannot be read
+	 */
+	public Lease claim() throws SQLException {
+		Connection connection = connectionPool.borrow();
+
+		try (PreparedStatement update = connection.prepareStatement("WITH [next_range] AS (SELECT TOP (1) * FROM "
+				+ leaseTable + " WITH (UPDLOCK, READPAST, ROWLOCK) WHERE [state] = 'open' OR ([state] = 'leased'"
+				+ " AND [expires_at] < SYSUTCDATETIME()) ORDER BY [range_id]) UPDATE [next_range]"
+				+ " SET [state] = 'leased', [owner] = ?, [expires_at] = DATEADD(second, ?, SYSUTCDATETIME())"
+				+ " OUTPUT inserted.[range_id], inserted.[after_recID], inserted.[through_recID], deleted.[owner]")) {
+			update.setString(1, owner);
+			update.setInt(2, leaseSeconds);
+
+			try (ResultSet resultSet = update.executeQuery()) {
+				if (!resultSet.next()) {
+					return null;
+				}
+
+				Lease lease = new Lease(resultSet.getInt(1), resultSet.getString(2), resultSet.getString(3));
+				String previousOwner = resultSet.getString(4);
+				if (previousOwner != null && !previousOwner.equals(owner)) {
+					System.out.println("Reclaimed range " + lease.rangeID + " from " + previousOwner
+							+ " after its lease expired.");
+					Metrics.count("leases_reclaimed");
+				}
+				synchronized (this) {
+					held.put(lease.rangeID, lease);
+				}
+				Metrics.count("leases_claimed");
+				return lease;
+			}
+		} finally {
+			connectionPool.release(connection);
+		}
+	}
+
+	/**
+	 * Waits one heartbeat interval if other workers still hold unfinished ranges, since their
+	 * leases may expire and have to be claimed again
+	 * @return true if claiming should be tried again, false once every other range is done
+	 * @throws SQLException if the lease table cannot be read
+	 * @throws InterruptedException
+	 */
+	public boolean awaitOtherWorkers() throws SQLException, InterruptedException {
+		Connection connection = connectionPool.borrow();
+		int unfinished;
+
+		try (PreparedStatement select = connection.prepareStatement("SELECT COUNT(*) FROM " + leaseTable
+				+ " WHERE [state] <> 'done' AND ([owner] IS NULL OR [owner] <> ?)")) {
+			select.setString(1, owner);
+			try (ResultSet resultSet = select.executeQuery()) {
+				resultSet.next();
+				unfinished = resultSet.getInt(1);
+			}
+		} finally {
+			connectionPool.release(connection);
+		}
+
+		if (unfinished == 0) {
+			return false;
+		}
+		Thread.sleep(heartbeatMillis);
+		return true;
+	}
+
+	/**
+	 * @return true once every range of the SQL Table is done
+	 * @throws SQLException if the lease table cannot be read
+	 */
+	public boolean allRangesDone() throws SQLException {
+		Connection connection = connectionPool.borrow();
+
+		try (Statement statement = connection.createStatement();
+				ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM " + leaseTable
+						+ " WHERE [state] <> 'done'")) {
+			resultSet.next();
+			return resultSet.getInt(1) == 0;
+		} finally {
+			connectionPool.release(connection);
+		}
+	}
+
+	/**
+	 * Deletes every range once all are done, so the next run plans its ranges afresh
+	 * @throws SQLException if the lease table cannot be changed
+	 */
+	public void clearDoneRanges() throws SQLException {
+		Connection connection = connectionPool.borrow();
+
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate("DELETE FROM " + leaseTable + " WHERE NOT EXISTS (SELECT 1 FROM " + leaseTable
+					+ " WHERE [state] <> 'done')");
+		} finally {
+			connectionPool.release(connection);
+		}
+	}
+
+	/**
+	 * Registers a row that has just been read from the given lease's range
+	 * @param recordID
+	 * @param lease
+	 */
+	public synchronized void started(String recordID, Lease lease) {
+		// A recID read twice is counted once
+		if (rowLeases.putIfAbsent(recordID, lease) == null) {
+			lease.unfinishedRows++;
+		}
+	}
+
+	/**
+	 * Tells the coordinator that every row of the given lease's range has been read
+	 * @param lease
+	 */
+	public void fullyRead(Lease lease) {
+		synchronized (this) {
+			lease.fullyRead = true;
+		}
+		completeIfDone(lease);
+	}
+
+	/**
+	 * Tells the coordinator that a row needs no more work
+	 * @param recordID
+	 */
+	public void finished(String recordID) {
+		Lease lease;
+
+		synchronized (this) {
+			lease = rowLeases.remove(recordID);
+			if (lease == null) {
+				return;
+			}
+			lease.unfinishedRows--;
+		}
+		completeIfDone(lease);
+	}
+
+	/**
+	 * Tells the coordinator that the MAK id updates of the given rows have been committed
+	 * @param recordIDs
+	 */
+	public void written(List<String> recordIDs) {
+		for (String recordID : recordIDs) {
+			finished(recordID);
+		}
+	}
+
+	/**
+	 * Marks the lease's range done once it has been read to its end and every row is finished
+	 * @param lease
+	 */
+	private void completeIfDone(Lease lease) {
+		synchronized (this) {
+			if (!lease.fullyRead || lease.unfinishedRows > 0 || lease.done) {
+				return;
+			}
+			lease.done = true;
+			held.remove(lease.rangeID);
+		}
+
+		Connection connection = null;
+		try {
+			connection = connectionPool.borrow();
+			try (PreparedStatement update = connection.prepareStatement("UPDATE " + leaseTable
+					+ " SET [state] = 'done', [expires_at] = NULL WHERE [range_id] = ? AND [owner] = ?")) {
+				update.setInt(1, lease.rangeID);
+				update.setString(2, owner);
+				update.executeUpdate();
+			}
+			Metrics.count("leases_completed");
+		} catch (SQLException e) {
+			// The lease expires and the range is repeated by whoever claims it next
+			System.out.println("ERROR SQLException in LeaseCoordinator.completeIfDone() : "
+					+ "Unable to mark range " + lease.rangeID + " done.");
+			e.printStackTrace();
+		} finally {
+			connectionPool.release(connection);
+		}
+	}
+
+	private synchronized long heldCount() {
+		return held.size();
+	}
+
+	/**
+	 * Stops the heartbeat and hands the ranges this worker did not finish back to the others
+	 * straight away instead of letting their leases expire
+	 */
+	public void close() {
+		closed = true;
+		if (heartbeatThread != null) {
+			heartbeatThread.interrupt();
+		}
+
+		Connection connection = null;
+		try {
+			connection = connectionPool.borrow();
+			try (PreparedStatement update = connection.prepareStatement("UPDATE " + leaseTable
+					+ " SET [state] = 'open', [owner] = NULL, [expires_at] = NULL"
+					+ " WHERE [owner] = ? AND [state] = 'leased'")) {
+				update.setString(1, owner);
+				int released = update.executeUpdate();
+				if (released > 0) {
+					System.out.println("Released " + released + " unfinished ranges in " + leaseTable);
+				}
+			}
+		} catch (SQLException e) {
+			System.out.println("ERROR SQLException in LeaseCoordinator.close() : "
+					+ "Unable to release the leases in " + leaseTable + ".");
+			e.printStackTrace();
+		} finally {
+			connectionPool.release(connection);
+			connectionPool.close();
+		}
+	}
+
+	/**
+	 * A recID range leased by this worker
+	 */
+	public static class Lease {
+		private final int rangeID;
+		private final String afterRecordID;
+		private final String throughRecordID;
+		private int unfinishedRows = 0;
+		private boolean fullyRead = false;
+		private boolean done = false;
+		private volatile boolean lost = false;
+
+		Lease(int rangeID, String afterRecordID, String throughRecordID) {
+			this.rangeID = rangeID;
+			this.afterRecordID = afterRecordID;
+			this.throughRecordID = throughRecordID;
+		}
+
+		public int getRangeID() {
+			return rangeID;
+		}
+
+		/**
+		 * @return record ID the range starts after, or null for the start of the table
+		 */
+		public String getAfterRecordID() {
+			return afterRecordID;
+		}
+
+		/**
+		 * @return last record ID of the range, or null for the end of the table
+		 */
+		public String getThroughRecordID() {
+			return throughRecordID;
+		}
+
+		/**
+		 * @return true if another worker has claimed the range after this lease expired
+		 */
+		public boolean isLost() {
+			return lost;
+		}
+	}
+}
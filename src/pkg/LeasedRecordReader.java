@@ -0,0 +1,108 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * LeasedRecordReader.java
+ *
+ * Program Description: Streams the rows of the recID ranges this worker leases through
+ * LeaseCoordinator.java, one range after another, so several workers can read the same SQL
+ * Table without reading the same rows. When no range is free it waits while other workers
+ * still hold unfinished ranges, since a dead worker's ranges become free once their leases
+ * expire. Reading ends once every range is done or held by this worker.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.sql.SQLException;
+
+public class LeasedRecordReader implements RecordSource {
+	private final SqlRecordReader rangeReader;
+	private final LeaseCoordinator leaseCoordinator;
+
+	private LeaseCoordinator.Lease lease;
+	private boolean finished = false;
+	private boolean failed = false;
+
+	/**
+	 * @param rangeReader reader of the SQL Table, restarted at each leased range
+	 * @param leaseCoordinator
+	 */
+	public LeasedRecordReader(SqlRecordReader rangeReader, LeaseCoordinator leaseCoordinator) {
+		this.rangeReader = rangeReader;
+		this.leaseCoordinator = leaseCoordinator;
+	}
+
+	/**
+	 * Leased ranges set where reading starts, so this has no effect
+	 * @param recordID
+	 */
+	@Override
+	public void startAfter(String recordID) {
+	}
+
+	/**
+	 * Returns the next row of the current range, claiming the next range when it is used up
+	 * @return record of the row, or null when no range is left to read
+	 */
+	@Override
+	public AddressRecord next() {
+		while (!finished) {
+			if (lease != null) {
+				// A range lost to another worker is left to that worker
+				AddressRecord record = lease.isLost() ? null : rangeReader.next();
+
+				if (record != null) {
+					leaseCoordinator.started(record.getRecordID(), lease);
+					return record;
+				}
+				if (rangeReader.hasFailed()) {
+					failed = true;
+					break;
+				}
+				if (!lease.isLost()) {
+					leaseCoordinator.fullyRead(lease);
+				}
+				lease = null;
+			}
+
+			try {
+				lease = leaseCoordinator.claim();
+				if (lease != null) {
+					rangeReader.readRange(lease.getAfterRecordID(), lease.getThroughRecordID());
+				} else if (!leaseCoordinator.awaitOtherWorkers()) {
+					break;
+				}
+			} catch (SQLException e) {
+				System.out.println("ERROR SQLException in LeasedRecordReader.next() : "
+						+ "Unable to claim a range.");
+				e.printStackTrace();
+				failed = true;
+				break;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failed = true;
+				break;
+			}
+		}
+
+		finished = true;
+		return null;
+	}
+
+	/**
+	 * @return true if reading stopped because a range could not be claimed or read
+	 */
+	@Override
+	public boolean hasFailed() {
+		return failed;
+	}
+
+	/**
+	 * Stops reading; ranges not yet finished are released by LeaseCoordinator.close()
+	 */
+	@Override
+	public void close() {
+		rangeReader.close();
+		finished = true;
+	}
+}
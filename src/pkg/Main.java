@@ -22,570 +22,1359 @@
 
 package pkg;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.NoSuchFileException;
-import java.nio.file.Paths;
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.nio.file.StandardOpenOption;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.util.EntityUtils;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 public class Main {
 	public static String databaseTable;
-	private static int count = 1;
+	static String connectionString;
+	static final String RESPONSE_FILE = "JSONResponse.json";
+	static boolean dumpResponses = false;
+	static String globalAddressUrl = "http://address.melissadata.net/V3/WEB/GlobalAddress/doGlobalAddress";
+	static String makUrl = ""; // global MAK web API
+	static ServiceHttpClient httpClient;
+	static CallGovernor globalAddressGovernor;
+	static CallGovernor makGovernor;
+	static CoalescingCache<GlobalAddressResult> verificationCache;
+	static CoalescingCache<String> makCache;
+	static PersistentCache persistentCache;
+	static ProgressJournal progressJournal;
+	static LeaseCoordinator leaseCoordinator;
+	static ChangeWatermark changeWatermark;
+	static VerificationStore verificationStore;
+	static PrefilterIndex prefilterIndex;
+	static DeadLetterStore deadLetterStore;
+	static RequestHedger globalAddressHedger;
+	static RequestHedger makHedger;
+	static ResponseCassette responseCassette;
+	// Result codes of which any one accepts an address for a MAK id
+	static ResultCodes acceptanceCodes = ResultCodes.parse("AV24,AV25");
+	// Rows of the countries listed in the countries property, and of every other country
+	static Map<String, CountryPartition> countryPartitions = new LinkedHashMap<String, CountryPartition>();
+	static CountryPartition defaultPartition = new CountryPartition();
 
 	public static void main(String[] args) {
-		ResultSet resultSet = null;
-		String[] currentRequestParameters = new String[21];	
+		AddressRecord currentRecord = null;
 		Properties properties = new Properties();
 		try {
 			properties.load(new FileInputStream("config.properties"));
 			databaseTable = properties.getProperty("table");
+			connectionString = properties.getProperty("connection");
+			dumpResponses = Boolean.parseBoolean(properties.getProperty("debug.dumpResponses", "false"));
+			globalAddressUrl = properties.getProperty("globalAddress.url", globalAddressUrl).trim();
+			makUrl = properties.getProperty("globalMak.url", makUrl).trim();
+			acceptanceCodes = ResultCodes.parse(properties.getProperty("acceptance.codes", "AV24,AV25"));
 		} catch (IOException e) {
 			System.out.println("ERROR IOException in main() : "
 					+ "Unable to load config.properties.");
 			e.printStackTrace();
-			System.exit(0);
+			System.exit(1);
+		}
+		
+		// Both web services share one pooled, keep-alive HTTP client sized to the number of workers
+		int verifyThreads = getIntProperty(properties, "pipeline.verifyThreads", 8);
+		int makThreads = getIntProperty(properties, "pipeline.makThreads", 8);
+		List<String> countries = new ArrayList<String>();
+		int workers = Math.max(verifyThreads, makThreads);
+		for (String listed : properties.getProperty("countries", "").split(",")) {
+			String country = listed.trim().toUpperCase(Locale.ROOT);
+			if (!country.isEmpty()) {
+				countries.add(country);
+				workers += Math.max(getIntProperty(properties, "country." + country + ".verifyThreads", verifyThreads),
+						getIntProperty(properties, "country." + country + ".makThreads", makThreads));
+			}
+		}
+		httpClient = new ServiceHttpClient(workers,
+				getIntProperty(properties, "http.connectTimeoutMillis", 5000),
+				getIntProperty(properties, "http.readTimeoutMillis", 30000),
+				getIntProperty(properties, "http.deadlineMillis", 60000));
+		
+		// Requests still unanswered after the observed tail latency can be sent a second time
+		globalAddressHedger = createHedger(properties, "globalAddress", "Global Address");
+		makHedger = createHedger(properties, "globalMak", "Global MAK");
+		
+		// Each web service gets its own rate quota, adaptive concurrency limit, retries and circuit breaker
+		globalAddressGovernor = createCallGovernor(properties, "globalAddress", "Global Address", verifyThreads);
+		makGovernor = createCallGovernor(properties, "globalMak", "Global MAK", makThreads);
+		
+		// Rows of each listed country get their own queues, workers, rate quotas and acceptance codes
+		for (String country : countries) {
+			String prefix = "country." + country;
+			int countryVerifyThreads = getIntProperty(properties, prefix + ".verifyThreads", verifyThreads);
+			int countryMakThreads = getIntProperty(properties, prefix + ".makThreads", makThreads);
+			CountryPartition partition = new CountryPartition(country, countryVerifyThreads, countryMakThreads,
+					createCallGovernor(properties, prefix + ".globalAddress", "globalAddress",
+							"Global Address " + country, countryVerifyThreads),
+					createCallGovernor(properties, prefix + ".globalMak", "globalMak",
+							"Global MAK " + country, countryMakThreads),
+					ResultCodes.parse(properties.getProperty(prefix + ".acceptance.codes",
+							properties.getProperty("acceptance.codes", "AV24,AV25"))));
+			countryPartitions.put(country, partition);
+			Metrics.gauge("country_" + country + "_rows_read", partition::getRowsRead);
+			Metrics.gauge("country_" + country + "_mak_ids", partition::getMakIds);
+			Metrics.gauge("country_" + country + "_global_address_failures",
+					partition.getGlobalAddressGovernor()::getFailures);
+			Metrics.gauge("country_" + country + "_global_mak_failures", partition.getMakGovernor()::getFailures);
+		}
+		if (!countries.isEmpty()) {
+			System.out.println("Rows of " + countries + " each have their own queues, other countries share one");
+		}
+		
+		// Stage latencies, counters and gauges are exposed over JMX and written to a Prometheus file
+		Metrics.gauge("global_address_retries", globalAddressGovernor::getRetries);
+		Metrics.gauge("global_address_failures", globalAddressGovernor::getFailures);
+		Metrics.gauge("global_address_circuit_opens", globalAddressGovernor::getCircuitOpens);
+		Metrics.gauge("global_mak_retries", makGovernor::getRetries);
+		Metrics.gauge("global_mak_failures", makGovernor::getFailures);
+		Metrics.gauge("global_mak_circuit_opens", makGovernor::getCircuitOpens);
+		if (globalAddressHedger != null) {
+			Metrics.gauge("global_address_hedges", globalAddressHedger::getHedged);
+			Metrics.gauge("global_address_hedge_wins", globalAddressHedger::getHedgeWins);
+		}
+		if (makHedger != null) {
+			Metrics.gauge("global_mak_hedges", makHedger::getHedged);
+			Metrics.gauge("global_mak_hedge_wins", makHedger::getHedgeWins);
+		}
+		String metricsFile = properties.getProperty("metrics.file", "").trim();
+		Metrics.start(metricsFile.isEmpty() ? null : new File(metricsFile),
+				getIntProperty(properties, "metrics.intervalSeconds", 10));
+		
+		// Identical addresses share one Global Address call and one Global MAK call
+		// and are looked up in the persistent cache from earlier runs before any call is made
+		String cacheFile = properties.getProperty("cache.file", "").trim();
+		if (!cacheFile.isEmpty()) {
+			try {
+				persistentCache = new PersistentCache(new File(cacheFile),
+						TimeUnit.DAYS.toMillis(getIntProperty(properties, "cache.ttlDays", 30)),
+						getIntProperty(properties, "cache.fileMaxEntries", 5000000));
+				System.out.println("Loaded " + persistentCache.size() + " entries from " + cacheFile);
+			} catch (IOException e) {
+				System.out.println("ERROR IOException in main() : "
+						+ "Unable to open " + cacheFile + ", continuing without the persistent cache.");
+				e.printStackTrace();
+			}
+		}
+		
+		// Web service responses can be recorded, then replayed offline for repeatable profiling runs
+		String cassetteMode = properties.getProperty("cassette.mode", "").trim();
+		if (!cassetteMode.isEmpty()) {
+			String cassetteFile = properties.getProperty("cassette.file", "responses.cassette").trim();
+			try {
+				responseCassette = new ResponseCassette(new File(cassetteFile), cassetteMode,
+						Boolean.parseBoolean(properties.getProperty("cassette.replayTiming", "false")));
+				System.out.println("Opened " + cassetteFile + " to " + cassetteMode.toLowerCase(Locale.ROOT) + " "
+						+ responseCassette.size() + " responses");
+				// Which rows share a POST depends on timing, so only single-address requests replay the same
+				if (getIntProperty(properties, "globalAddress.batchSize", 1) > 1) {
+					System.out.println("Sending one address per Global Address request while the response "
+							+ "cassette is in use, instead of globalAddress.batchSize.");
+					properties.setProperty("globalAddress.batchSize", "1");
+				}
+			} catch (IOException e) {
+				System.out.println("ERROR IOException in main() : Unable to open " + cassetteFile + ".");
+				e.printStackTrace();
+				System.exit(1);
+			}
+		}
+		int cacheEntries = getIntProperty(properties, "cache.maxEntries", 100000);
+		verificationCache = new CoalescingCache<GlobalAddressResult>("Global Address", cacheEntries,
+				persistentCache == null ? null : persistentCache.verificationStore());
+		makCache = new CoalescingCache<String>("Global MAK", cacheEntries,
+				persistentCache == null ? null : persistentCache.makStore());
+		
+		// Several tables can be run at once, sharing the web service quota by priority
+		if (!properties.getProperty("jobs", "").trim().isEmpty()) {
+			System.out.println("Running the tables listed in jobs; the progress journal, leases, incremental runs, "
+					+ "verification table, pre-filter, dead-letter file and input/output files are not used.");
+			JobRunner jobRunner = new JobRunner(properties, connectionString);
+			jobRunner.run();
+			printCacheReport();
+			System.out.println(jobRunner.report());
+			Metrics.printSummary();
+			httpClient.close();
+			
+			System.out.println("Program successfully executed.");
+			return;
+		}
+		
+		// Paged reads and batched MAK ID write-back share one pool of connections
+		// The reader holds one connection for a whole page, so write-back needs at least one more
+		int poolSize = getIntProperty(properties, "write.poolSize", 2);
+		if (poolSize < 2) {
+			System.out.println("ERROR in main() : write.poolSize is " + poolSize + " but must be at least 2, "
+					+ "one connection for the page being read and one for writing MAK IDs back.");
+			System.exit(1);
+		}
+		ConnectionPool connectionPool = new ConnectionPool(connectionString, poolSize);
+		MakWriter makWriter = new MakWriter(connectionPool, databaseTable,
+				getIntProperty(properties, "write.batchSize", 500),
+				getIntProperty(properties, "write.flushMillis", 1000));
+		
+		// The full Global Address output of every verified row is kept so the acceptance policy can change later
+		String verificationTable = properties.getProperty("verification.table", "").trim();
+		if (!verificationTable.isEmpty()) {
+			verificationStore = new VerificationStore(connectionPool, verificationTable, databaseTable,
+					getIntProperty(properties, "write.batchSize", 500));
+			try {
+				verificationStore.prepare();
+			} catch (SQLException e) {
+				System.out.println("ERROR SQLException in main() : Unable to prepare " + verificationTable + ".");
+				e.printStackTrace();
+				System.exit(1);
+			}
+		}
+		
+		// Rows that cannot be finished are recorded and skipped so that one bad row does not stop the run
+		String deadLetterFile = properties.getProperty("deadLetter.file", "").trim();
+		boolean replay = Arrays.asList(args).contains("--replay-dead-letters");
+		List<String> replayRecordIDs = null;
+		File replayFile = new File(deadLetterFile + ".replaying");
+		makWriter.setFailureListener(Main::writeFailed);
+		if (!deadLetterFile.isEmpty()) {
+			try {
+				if (replay) {
+					replayRecordIDs = takeDeadLetters(new File(deadLetterFile), replayFile);
+				}
+				deadLetterStore = new DeadLetterStore(new File(deadLetterFile));
+			} catch (IOException e) {
+				System.out.println("ERROR IOException in main() : "
+						+ "Unable to open " + deadLetterFile + ", continuing without the dead-letter file.");
+				e.printStackTrace();
+			}
+		}
+		
+		// Process only the dead-lettered rows again, with few workers so the services are not flooded
+		if (replay) {
+			if (replayRecordIDs == null) {
+				System.out.println("ERROR in main() : --replay-dead-letters needs deadLetter.file to be set.");
+			} else {
+				int replayThreads = getIntProperty(properties, "deadLetter.replayThreads", 2);
+				RecordSource replaySource = new DeadLetterRecordSource(connectionPool, databaseTable,
+						getIntProperty(properties, "read.fetchSize", 1000), replayRecordIDs);
+				System.out.println("Replaying " + replayRecordIDs.size() + " dead-lettered rows");
+				Pipeline replayPipeline = new Pipeline(getIntProperty(properties, "pipeline.queueCapacity", 1000),
+						getIntProperty(properties, "pipeline.batchRows", 64), replayThreads, replayThreads,
+						getIntProperty(properties, "globalAddress.batchSize", 1), replaySource, makWriter);
+				replayPipeline.run();
+				// Rows failing again have been recorded anew, so the replayed file is only kept if reading failed
+				if (!replaySource.hasFailed() && !replayPipeline.hasReadFailed() && !replayFile.delete()) {
+					System.out.println("ERROR in main() : Unable to delete " + replayFile + ".");
+				}
+			}
+			printCacheReport();
+			makWriter.close();
+			closeVerificationStore();
+			closeDeadLetterStore();
+			Metrics.printSummary();
+			connectionPool.close();
+			httpClient.close();
+			return;
+		}
+		
+		// Apply the acceptance policy to the stored results instead of verifying the addresses again
+		if (Arrays.asList(args).contains("--reevaluate")) {
+			if (verificationStore == null) {
+				System.out.println("ERROR in main() : --reevaluate needs verification.table to be set.");
+			} else {
+				reevaluate(makWriter, makThreads, getIntProperty(properties, "read.pageSize", 5000));
+				verificationStore.close();
+			}
+			printCacheReport();
+			makWriter.close();
+			closeDeadLetterStore();
+			Metrics.printSummary();
+			connectionPool.close();
+			httpClient.close();
+			return;
+		}
+		
+		// Rows that cannot be verified to the building level are skipped before calling Global Address
+		if (Boolean.parseBoolean(properties.getProperty("prefilter", "false"))) {
+			prefilterIndex = new PrefilterIndex(getIntProperty(properties, "prefilter.minIndexed", 1000),
+					getIntProperty(properties, "prefilter.auditPercent", 1));
+			loadPrefilterIndex(getIntProperty(properties, "read.pageSize", 5000));
+		}
+		
+		// Rows are read page by page in recID order, or streamed from an extract file
+		String inputFile = properties.getProperty("input.file", "").trim();
+		SqlRecordReader recordReader = null;
+		RecordSource recordSource = null;
+		if (inputFile.isEmpty()) {
+			recordReader = new SqlRecordReader(connectionPool, databaseTable,
+					getIntProperty(properties, "read.pageSize", 5000),
+					getIntProperty(properties, "read.fetchSize", 1000),
+					Boolean.parseBoolean(properties.getProperty("read.onlyMissingMak", "false")));
+			recordSource = recordReader;
+		} else {
+			try {
+				recordSource = new FileRecordReader(new File(inputFile),
+						properties.getProperty("input.format", FileRecordReader.DELIMITED).trim(),
+						getDelimiterProperty(properties, "input.delimiter"),
+						getIntProperty(properties, "input.bufferKB", 1024) * 1024);
+			} catch (IOException e) {
+				System.out.println("ERROR IOException in main() : Unable to open " + inputFile + ".");
+				e.printStackTrace();
+				System.exit(1);
+			}
+			System.out.println("Reading the rows of " + inputFile);
+		}
+		
+		// An incremental run reads only the rows changed since the last successful run
+		String rowversionColumn = properties.getProperty("incremental.rowversionColumn", "").trim();
+		String leaseTable = properties.getProperty("lease.table", "").trim();
+		if (recordReader == null && !(rowversionColumn.isEmpty() && leaseTable.isEmpty())) {
+			System.out.println("ERROR in main() : incremental and lease properties need the SQL Table as input, "
+					+ "ignoring them for " + inputFile + ".");
+			rowversionColumn = "";
+			leaseTable = "";
+		}
+		if (!rowversionColumn.isEmpty()) {
+			String hashColumn = properties.getProperty("incremental.hashColumn", "").trim();
+			changeWatermark = new ChangeWatermark(connectionPool,
+					properties.getProperty("incremental.watermarkTable", "mak_watermark").trim(), databaseTable,
+					rowversionColumn, hashColumn.isEmpty() ? null : hashColumn);
+			try {
+				changeWatermark.begin();
+			} catch (SQLException e) {
+				System.out.println("ERROR SQLException in main() : Unable to read the incremental watermark.");
+				e.printStackTrace();
+				System.exit(1);
+			}
+			changeWatermark.filter(recordReader);
+			changeWatermark.stampWrites(makWriter);
+			System.out.println(changeWatermark.isFirstRun() ? "Incremental run: no watermark yet, reading every row"
+					: "Incremental run: reading the rows changed since the last successful run");
+		}
+		
+		// Workers sharing the SQL Table each read only the recID ranges they lease
+		if (!leaseTable.isEmpty()) {
+			String workerID = properties.getProperty("worker.id", "").trim();
+			if (workerID.isEmpty()) {
+				workerID = ManagementFactory.getRuntimeMXBean().getName();
+			}
+			leaseCoordinator = new LeaseCoordinator(connectionString, leaseTable, databaseTable, workerID,
+					getIntProperty(properties, "lease.rangeRows", 10000),
+					getIntProperty(properties, "lease.durationSeconds", 120),
+					getIntProperty(properties, "lease.heartbeatSeconds", 30));
+			try {
+				leaseCoordinator.prepare();
+			} catch (SQLException e) {
+				System.out.println("ERROR SQLException in main() : Unable to prepare " + leaseTable + ".");
+				e.printStackTrace();
+				System.exit(1);
+			}
+			leaseCoordinator.startHeartbeat();
+			recordSource = new LeasedRecordReader(recordReader, leaseCoordinator);
+			System.out.println("Reading the ranges leased from " + leaseTable + " as " + workerID);
+		}
+		
+		// Progress is journaled so that --resume can continue after the last committed write-back
+		String journalFile = properties.getProperty("journal.file", "").trim();
+		boolean resume = Arrays.asList(args).contains("--resume");
+		if (!journalFile.isEmpty()) {
+			try {
+				progressJournal = new ProgressJournal(new File(journalFile), resume,
+						getIntProperty(properties, "journal.syncMillis", 1000));
+			} catch (IOException e) {
+				System.out.println("ERROR IOException in main() : Unable to open " + journalFile + ".");
+				e.printStackTrace();
+				System.exit(1);
+			}
+			if (resume && leaseCoordinator == null) {
+				System.out.println("Resuming after recID " + progressJournal.getResumeAfter());
+				recordSource.startAfter(progressJournal.getResumeAfter());
+			}
+			progressJournal.startSyncing();
+		}
+		if (progressJournal != null || leaseCoordinator != null) {
+			makWriter.setCommitListener(Main::rowsWritten);
+		}
+		
+		// MAK ids are written back to the SQL Table, or to a result file for bulk loading
+		RecordSink recordSink = makWriter;
+		String outputFile = properties.getProperty("output.file", "").trim();
+		if (!outputFile.isEmpty()) {
+			try {
+				FileMakWriter fileWriter = new FileMakWriter(new File(outputFile), resume && progressJournal != null,
+						getDelimiterProperty(properties, "output.delimiter"),
+						getIntProperty(properties, "write.batchSize", 500),
+						getIntProperty(properties, "write.flushMillis", 1000));
+				fileWriter.setFailureListener(Main::writeFailed);
+				if (progressJournal != null || leaseCoordinator != null) {
+					fileWriter.setCommitListener(Main::rowsWritten);
+				}
+				recordSink = fileWriter;
+			} catch (IOException e) {
+				System.out.println("ERROR IOException in main() : Unable to open " + outputFile + ".");
+				e.printStackTrace();
+				System.exit(1);
+			}
+			System.out.println("Writing the MAK ids to " + outputFile);
+		}
+		
+		// Run read, verify, MAK lookup and write-back as concurrent stages if enabled
+		if (Boolean.parseBoolean(properties.getProperty("pipeline", "false"))) {
+			Pipeline pipeline = new Pipeline(getIntProperty(properties, "pipeline.queueCapacity", 1000),
+					getIntProperty(properties, "pipeline.batchRows", 64), verifyThreads, makThreads,
+					getIntProperty(properties, "globalAddress.batchSize", 1), recordSource, recordSink);
+			pipeline.run();
+			boolean readFailed = recordSource.hasFailed() || pipeline.hasReadFailed();
+			printCacheReport();
+			recordSink.close();
+			closeVerificationStore();
+			closeDeadLetterStore();
+			advanceWatermark(readFailed, recordSink);
+			closeLeases();
+			closeProgressJournal(readFailed);
+			Metrics.printSummary();
+			connectionPool.close();
+			httpClient.close();
+			System.out.println("Program successfully executed.");
+			return;
 		}
 		
-		resultSet = getSqlResultSet();
-
 		do {
-			currentRequestParameters = getParametersFromResultSet(resultSet);
+			currentRecord = recordSource.next();
 			
-			if (currentRequestParameters == null) {
+			if (currentRecord == null) {
 				break;
 			}
-
-			// Build and send REST Request to GlobalAddress for current request parameters
-			String globalAddressRequest = buildGlobalAddressGETRequest(currentRequestParameters);
 			
-			sendGlobalAddressGETRequest(globalAddressRequest);
-
-			// Check result codes for fully verified building addresses
-			String resultCodes = "";
-			resultCodes = getResultCodes();
-			
-			if (addressFullyVerified(resultCodes)) {
-				// Build and send REST Request to GlobalMAK for current request parameters and get returned MAK ID
-				currentRequestParameters = updateParameters(currentRequestParameters);
-				currentRequestParameters[20] = sendGlobalMakPOSTRequest(currentRequestParameters);
-				
-				// Update SQL Table with MAK ID
-				updateSqlWithMAK(currentRequestParameters[0], currentRequestParameters[20]);
+			// Skip rows a resumed run already finished
+			if (!startRow(currentRecord.getRecordID())) {
+				continue;
 			}
+			CountryPartition partition = partitionOf(currentRecord);
+			CountryPartition.bind(partition);
+			partition.countRead();
 			
-			System.out.println(count++);
-			
-			
-		} while (currentRequestParameters != null);
-
-		// Clean: remove JSONResponse.json
-		try {
-			Files.deleteIfExists(Paths.get("JSONResponse.json"));
-		} catch (NoSuchFileException e) {
-			System.out.println("ERROR NoSuchFileException : Unable to locate JSONResponse.json");
-		} catch (IOException e) {
-			System.out.println("ERROR IOException : Unable to delete JSONResponse.json");
-			e.printStackTrace();
-		}
+			// Skip rows the pre-filter finds hopeless
+			if (!worthVerifying(currentRecord)) {
+				continue;
+			}
 
+			// A row that fails is recorded and the run goes on with the next one
+			try {
+				processRow(currentRecord, recordSink);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				failRow(currentRecord.getRecordID(), DeadLetterStore.ROW, e.toString());
+			}
+			recordSink.flushIfDue();
+		} while (currentRecord != null);
+		
+		recordSource.close();
+		printCacheReport();
+		recordSink.close();
+		closeVerificationStore();
+		closeDeadLetterStore();
+		advanceWatermark(recordSource.hasFailed(), recordSink);
+		closeLeases();
+		closeProgressJournal(recordSource.hasFailed());
+		Metrics.printSummary();
+		connectionPool.close();
+		httpClient.close();
 		
 		System.out.println("Program successfully executed.");
 	}
 	
 	/**
-	 * Sends a query to SQL Table and returns a ResultSet containing every distinct entry
-	 * @return ResultSet containing every distinct entry
+	 * Registers a row that has just been read with the progress journal
+	 * @param recordID
+	 * @return false if a resumed run already finished this row and it must be skipped
 	 */
-	private static ResultSet getSqlResultSet() {
-
-		//String connectionString = "jdbc:sqlserver:<server name>;" + "database=<database>;" + "user=<user>;" + "password=<password>;";
-		ResultSet resultSet = null;
-		Statement statement = null;
-		Connection connection = null;
-
-		try {
-			connection = DriverManager.getConnection(connectionString);
-			String selectSql = "SELECT DISTINCT [recID], [Address1],[Address2],[Address3]"
-					+ ",[Address4],[Address5],[Address6],[Address7],[Address8],[Locality]"
-					+ ",[AdministrativeArea],[PostalCode],[CountryCode],[DependentLocality]"
-					+ ",[DoubleDependentLocality],[SubAdministrativeArea],[SubNationalArea]"
-					+ "FROM " + databaseTable;
-			statement = connection.createStatement();
-			resultSet = statement.executeQuery(selectSql);
-		} catch (SQLException e) {
-			System.out.println("ERROR SQLException in getSqlResultSet() : Unable to query for REST Request parameters.");
-			e.printStackTrace();
-			System.exit(0);
+	static boolean startRow(String recordID) {
+		if (progressJournal == null || progressJournal.started(recordID)) {
+			return true;
 		}
-
-		return resultSet;
+		if (leaseCoordinator != null) {
+			leaseCoordinator.finished(recordID);
+		}
+		return false;
 	}
-
+	
 	/**
-	 * Parses current result set row for the parameters needed to send a GET Request to the Global Address
-	 * Web Service
-	 * @param resultSet
-	 * @return String array of parameters
+	 * Tells the progress journal, the lease coordinator and the table job that a row needs no write-back
+	 * @param recordID
+	 */
+	static void finishRow(String recordID) {
+		JobRunner.Job job = JobRunner.currentJob();
+		if (job != null) {
+			job.countFinished();
+		}
+		if (progressJournal != null) {
+			progressJournal.finished(recordID);
+		}
+		if (leaseCoordinator != null) {
+			leaseCoordinator.finished(recordID);
+		}
+	}
+	
+	/**
+	 * Verifies one row, and for an accepted address gets its MAK id and queues its write-back
+	 * @param record
+	 * @param makWriter
 	 */
-	private static String[] getParametersFromResultSet(ResultSet resultSet) {
-		String[] parameters = new String[21];
+	private static void processRow(AddressRecord record, RecordSink makWriter) {
+		// Build and send REST Request to GlobalAddress for current record
+		GlobalAddressResult result = verifyAddress(record);
+		if (result == null) {
+			failRow(record.getRecordID(), DeadLetterStore.VERIFY, "No result from Global Address");
+			return;
+		}
+		storeVerification(record.getRecordID(), result);
+
+		// Check result codes for fully verified building addresses
+		String resultCodes = getResultCodes(result);
+		Metrics.countResultCodes(resultCodes);
+		boolean accepted = addressFullyVerified(resultCodes);
+		learnVerified(record, result, accepted);
 		
+		if (accepted) {
+			Metrics.count("rows_accepted");
+			currentPartition().countAccepted();
+			
+			// Build and send REST Request to GlobalMAK for the verified record and get returned MAK ID
+			updateParameters(record, result);
+			String mak = getMakId(record);
+			if (mak.isEmpty()) {
+				failRow(record.getRecordID(), DeadLetterStore.MAK, "No MAK id from Global MAK");
+				return;
+			}
+			record.setMak(mak);
+			currentPartition().countMakId();
+			
+			// Queue update of SQL Table with MAK ID
+			makWriter.add(record.getRecordID(), record.getMak());
+		} else {
+			Metrics.count("rows_rejected");
+			currentPartition().countRejected();
+			finishRow(record.getRecordID());
+		}
+		Metrics.count("rows_finished");
+	}
+	
+	/**
+	 * Records a row that could not be finished in the dead-letter file, if one is set, and
+	 * finishes it without a MAK id
+	 * @param recordID
+	 * @param stage stage the row failed in
+	 * @param error what went wrong, used if the failed call noted nothing more precise
+	 */
+	static void failRow(String recordID, String stage, String error) {
+		if (deadLetterStore != null) {
+			deadLetterStore.add(recordID, stage, error);
+		} else {
+			// Without a dead-letter file only the next run can pick the row up again
+			System.out.println("ERROR in " + stage + " stage : recID " + recordID + " not finished : " + error);
+			Metrics.count("rows_failed");
+		}
+		currentPartition().countFailed();
+		finishRow(recordID);
+		Metrics.count("rows_finished");
+	}
+	
+	/**
+	 * Records a row whose MAK id update could not be written in the dead-letter file, if one is
+	 * set, and finishes it, so the progress journal and the lease coordinator do not wait for it
+	 * @param recordID
+	 * @param mak MAK id that was not written
+	 * @param error
+	 */
+	static void writeFailed(String recordID, String mak, Exception error) {
+		if (deadLetterStore != null) {
+			deadLetterStore.add(recordID, DeadLetterStore.WRITE, error.toString(), mak);
+		} else {
+			// The writer has already reported the failed batch
+			Metrics.count("rows_failed");
+		}
+		currentPartition().countFailed();
+		finishRow(recordID);
+	}
+	
+	/**
+	 * Moves the rows recorded in the dead-letter file to the file being replayed, adding them to
+	 * those of a replay that did not finish
+	 * @param deadLetterFile
+	 * @param replayFile
+	 * @return record IDs of the rows to replay, in recID order
+	 * @throws IOException if either file cannot be read or written
+	 */
+	private static List<String> takeDeadLetters(File deadLetterFile, File replayFile) throws IOException {
+		if (deadLetterFile.exists()) {
+			Files.write(replayFile.toPath(), Files.readAllBytes(deadLetterFile.toPath()),
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			Files.delete(deadLetterFile.toPath());
+		}
+		return DeadLetterStore.readRecordIDs(replayFile);
+	}
+	
+	private static void closeDeadLetterStore() {
+		if (deadLetterStore != null) {
+			deadLetterStore.close();
+		}
+	}
+	
+	/**
+	 * Checks an Icelandic row against the pre-filter, if one is set, finishing it as skipped if it
+	 * is hopeless
+	 * @param record
+	 * @return false if the row was skipped and must not be sent to Global Address
+	 */
+	static boolean worthVerifying(AddressRecord record) {
+		if (prefilterIndex == null || !AddressRecord.DEFAULT_COUNTRY_CODE.equals(record.getCountryCode())
+				|| prefilterIndex.check(record) != PrefilterIndex.Decision.SKIP) {
+			return true;
+		}
+		Metrics.count("rows_skipped");
+		currentPartition().countSkipped();
+		finishRow(record.getRecordID());
+		Metrics.count("rows_finished");
+		return false;
+	}
+	
+	/**
+	 * Tells the pre-filter, if one is set, about a verified Icelandic row so it learns accepted
+	 * addresses
+	 * @param record
+	 * @param result verification result, or null if no response was retrieved
+	 * @param accepted true if the row was accepted for a MAK id
+	 */
+	static void learnVerified(AddressRecord record, GlobalAddressResult result, boolean accepted) {
+		if (prefilterIndex != null && AddressRecord.DEFAULT_COUNTRY_CODE.equals(record.getCountryCode())) {
+			prefilterIndex.verified(record.getRecordID(), result, accepted);
+		}
+	}
+	
+	/**
+	 * @param record
+	 * @return partition of the row's country, or the default partition if it has none of its own
+	 */
+	static CountryPartition partitionOf(AddressRecord record) {
+		return countryPartitions.getOrDefault(record.getCountryCode(), defaultPartition);
+	}
+	
+	/**
+	 * @return partition the calling worker is bound to, or the default partition
+	 */
+	static CountryPartition currentPartition() {
+		CountryPartition partition = CountryPartition.current();
+		return partition == null ? defaultPartition : partition;
+	}
+	
+	/**
+	 * Fills the pre-filter with the accepted addresses in the verification side table, if one is set
+	 * @param pageSize number of stored rows read per query
+	 */
+	private static void loadPrefilterIndex(int pageSize) {
+		if (verificationStore == null) {
+			System.out.println("Pre-filter: no verification.table, learning accepted addresses during the run");
+			return;
+		}
 		try {
-			while (resultSet.next()) {
-				for (int i = 0; i < 16; i++) {
-					parameters[i] = resultSet.getString(i + 1).toString().trim();
-				}
-				
-				for (int i = 16; i < 21; i++) {
-					parameters[i] = "";
+			verificationStore.forEachStored(pageSize, (result, countryCode, hasMak) -> {
+				// The pre-filter only applies to rows of the default country
+				AddressRecord record = storedRecord(result, countryCode);
+				if (AddressRecord.DEFAULT_COUNTRY_CODE.equals(record.getCountryCode())
+						&& partitionOf(record).accepts(ResultCodes.parse(result.getResultCodes()))) {
+					prefilterIndex.add(result);
 				}
-				return parameters;
-			}
+			});
+			System.out.println("Pre-filter: loaded " + prefilterIndex.size() + " accepted addresses");
 		} catch (SQLException e) {
-			System.out.println("ERROR : SQLException in getParametersFromResultSet() : "
-					+ "Unable to get parameters from result set.");
+			System.out.println("ERROR SQLException in loadPrefilterIndex() : "
+					+ "Unable to read the stored results, learning accepted addresses during the run.");
 			e.printStackTrace();
-			System.exit(0);
 		}
-
-		return null;
 	}
-
+	
 	/**
-	 * Builds GET Request for Global Address Web Service with given parameters
-	 * @param parameters
-	 * @return String formatted GET Request
+	 * Tells the progress journal and the lease coordinator that the MAK id updates of the
+	 * given rows have been committed
+	 * @param recordIDs
 	 */
-	private static String buildGlobalAddressGETRequest(String[] parameters) {
-		//Initialize fields for REST Request
-		String request = "";
-		String custID = ""; // Input customer ID here
-		String address1 = parameters[1];
-		String address2 = parameters[2];
-		String address3 = parameters[3];
-		String address4 = parameters[4];
-		String address5 = parameters[5];
-		String address6 = parameters[6];
-		String address7 = parameters[7];
-		String address8 = parameters[8];
-		String locality = parameters[9];
-		String administrativeArea = parameters[10];
-		String postalCode = parameters[11];
-		String country = parameters[12];
-		String dependentLocality = parameters[13];
-		String doubleDependentLocality = parameters[14];
-		String subAdministrativeArea = parameters[15];
-		String subNationalArea = parameters[16];
-		String organization = parameters[17];
-		
-		// Build request string
-		request = "?id=" + custID + "&a1=" + address1 + "&a2=" + address2 + "&a3=" + address3 + "&a4=" + address4
-				+ "&a5=" + address5 + "&a6=" + address6 + "&a7=" + address7 + "&a8=" + address8 + "&ddeploc=" 
-				+ doubleDependentLocality + "&deploc=" + dependentLocality + "&loc=" + locality + "&subadmarea=" 
-				+ subAdministrativeArea + "&admarea=" + administrativeArea + "&postal=" + postalCode + "&subNationalArea=" 
-				+ subNationalArea + "&ctry=" + country + "&org=" + organization + "&format=json";
-		
-		return request;	
-	}
-	
-	/**
-	 * Sends GET Request to Global Address Web Service
-	 * @param request
+	static void rowsWritten(List<String> recordIDs) {
+		if (progressJournal != null) {
+			progressJournal.written(recordIDs);
+		}
+		if (leaseCoordinator != null) {
+			leaseCoordinator.written(recordIDs);
+		}
+	}
+	
+	/**
+	 * Moves the incremental watermark forward if every row read was finished: reading did not
+	 * fail, no web service call gave up and every mak_id update was committed
+	 * @param readFailed true if reading stopped at an error rather than at the end of the rows
+	 * @param makWriter
 	 */
-	private static void sendGlobalAddressGETRequest(String request) {
-		String httpAddress = "//address.melissadata.net/V3/WEB/GlobalAddress/doGlobalAddress";
-
-		// Create URI
-		URI uri = null;
-		try {
-			uri = new URI("http", httpAddress + request, null);
-		} catch (URISyntaxException e) {
-			System.out.println("ERROR : URISyntaxException in sendGlobalAddressGETRequest() : " 
-					+ "Unable to build URI.");
-			e.printStackTrace();
-			System.exit(0);
+	private static void advanceWatermark(boolean readFailed, RecordSink makWriter) {
+		if (changeWatermark == null) {
+			return;
 		}
-
-		// Create URL
-		URL url = null;
-		try {
-			url = new URL(uri.toURL().toString());
-		} catch (MalformedURLException e) {
-			System.out.println("ERROR MalformedURLException in sendGlobalAddressGETRequest() : " 
-					+ "Unable to build URL.");
-			e.printStackTrace();
-			System.exit(0);
+		
+		boolean callsFailed = globalAddressGovernor.getFailures() > 0 || makGovernor.getFailures() > 0;
+		for (CountryPartition partition : countryPartitions.values()) {
+			callsFailed |= partition.getGlobalAddressGovernor().getFailures() > 0
+					|| partition.getMakGovernor().getFailures() > 0;
 		}
-
-		// Loop until either GET request is sent and received or tries exceed 5
-		boolean requestRetrieved = false;
-		int retry = 0;
-
-		do {
-			// Open a Connection
-			HttpURLConnection urlConn = null;
-			try {
-				urlConn = (HttpURLConnection) (url.openConnection());
-			} catch (IOException e) {
-				System.out.println("ERROR IOException in sendGlobalAddressGETRequest() :" 
-						+ " Unable to open connection to URL.");
-			}
-			
-			// Read in the JSON response and write it into a file
-			InputStreamReader inputStreamReader = null;
-			BufferedReader jsonResponse = null;
-			FileWriter jsonFile = null;
-			String readLine = "";
-			String jsonString = "";
-
-			// Connect and read in GET Response
+		if (readFailed || makWriter.getRowsFailed() > 0 || callsFailed
+				|| Metrics.getCount("rows_failed") > 0) {
+			System.out.println("Incremental watermark not moved: some rows were not finished and will be "
+					+ "read again by the next run.");
+			return;
+		}
+		
+		// Workers sharing the run through leases leave the watermark to the last one to finish
+		if (leaseCoordinator != null) {
 			try {
-				urlConn.connect();
-				inputStreamReader = new InputStreamReader(urlConn.getInputStream());
-				jsonResponse = new BufferedReader(inputStreamReader);
-				jsonFile = new FileWriter("JSONResponse.json");
-				while ((readLine = jsonResponse.readLine()) != null) {
-					jsonString += readLine;
+				if (!leaseCoordinator.allRangesDone()) {
+					System.out.println("Incremental watermark left to the workers still holding ranges.");
+					return;
 				}
-
-				jsonFile.write(jsonString);
-				jsonFile.flush();
-				requestRetrieved = true;
-			} catch (IOException e) {
-				retry++;
-			} finally {
-
+			} catch (SQLException e) {
+				System.out.println("ERROR SQLException in advanceWatermark() : Unable to read the lease table.");
+				e.printStackTrace();
+				return;
+			}
+		}
+		
+		if (changeWatermark.advance()) {
+			System.out.println("Incremental watermark moved forward.");
+			if (leaseCoordinator != null) {
 				try {
-					if (jsonFile != null) {
-						jsonFile.close();
-					}
-					if (jsonResponse != null) {
-						jsonResponse.close();
-					}
-					if (inputStreamReader != null) {
-						inputStreamReader.close();
-					}
-					urlConn.disconnect();
-				} catch (IOException | NullPointerException e) {
+					leaseCoordinator.clearDoneRanges();
+				} catch (SQLException e) {
+					System.out.println("ERROR SQLException in advanceWatermark() : Unable to clear the lease table.");
 					e.printStackTrace();
 				}
 			}
-		} while (requestRetrieved == false && retry < 5);
-
-		if (retry >= 5) {
-			System.out.println("ERROR in sendGlobalAddressGETRequest : " 
-					+ "Unable to send request after five tries.");
 		}
 	}
 	
 	/**
-	 * Gets the result codes from the most recent Global Address GET response
-	 * @return comma split string containing list of result codes returned
+	 * Releases the leased ranges this worker did not finish
+	 */
+	private static void closeLeases() {
+		if (leaseCoordinator != null) {
+			leaseCoordinator.close();
+		}
+	}
+	
+	/**
+	 * Writes the final progress snapshot, dropping the journal if every row was finished
+	 * @param readFailed true if reading stopped at an error rather than at the end of the rows
+	 */
+	private static void closeProgressJournal(boolean readFailed) {
+		if (progressJournal != null) {
+			progressJournal.close(!readFailed);
+		}
+	}
+	
+	/**
+	 * Verifies the given record with Global Address unless an identical address has already
+	 * been verified or is being verified by another worker
+	 * @param record
+	 * @return verification result, or null if no response could be retrieved
+	 */
+	static GlobalAddressResult verifyAddress(final AddressRecord record) {
+		DeadLetterStore.clearFailure();
+		try {
+			return verificationCache.get(AddressKey.ofInput(record),
+					() -> sendGlobalAddressGETRequest(buildGlobalAddressGETRequest(record)));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+	
+	/**
+	 * Gets the MAK id of the given verified record from Global MAK unless an identical address
+	 * has already been looked up or is being looked up by another worker
+	 * @param record
+	 * @return string formatted MAK id, or an empty string if none was returned
+	 */
+	static String getMakId(final AddressRecord record) {
+		DeadLetterStore.clearFailure();
+		try {
+			String mak = makCache.get(AddressKey.ofVerified(record), () -> {
+				String id = sendGlobalMakPOSTRequest(record);
+				return id.isEmpty() ? null : id;
+			});
+			return mak == null ? "" : mak;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return "";
+		}
+	}
+	
+	/**
+	 * Prints the hit ratio of the in-run Global Address and Global MAK caches and the call totals
+	 * of both web services, and saves the persistent cache
+	 */
+	private static void printCacheReport() {
+		System.out.println(verificationCache.report());
+		System.out.println(makCache.report());
+		System.out.println(globalAddressGovernor.report());
+		System.out.println(makGovernor.report());
+		for (CountryPartition partition : countryPartitions.values()) {
+			System.out.println(partition.report());
+			System.out.println(partition.getGlobalAddressGovernor().report());
+			System.out.println(partition.getMakGovernor().report());
+		}
+		if (!countryPartitions.isEmpty()) {
+			System.out.println(defaultPartition.report());
+		}
+		if (globalAddressHedger != null) {
+			System.out.println(globalAddressHedger.report());
+		}
+		if (makHedger != null) {
+			System.out.println(makHedger.report());
+		}
+		if (prefilterIndex != null) {
+			System.out.println(prefilterIndex.report());
+		}
+		
+		if (persistentCache != null) {
+			persistentCache.close();
+		}
+		if (responseCassette != null) {
+			System.out.println(responseCassette.report());
+			responseCassette.close();
+		}
+	}
+	
+	/**
+	 * @param properties
+	 * @param key
+	 * @return first character of the property, such as a tab written as \t, or a tab if it is empty
 	 */
-	private static String getResultCodes() {
-		String resultCodes = "";
-		FileReader fileReader = null;
-		JSONObject jsonResponseObj = null;
-		JSONObject recordsObj = null;
-		JSONArray records;
+	private static char getDelimiterProperty(Properties properties, String key) {
+		// Not trimmed, since the delimiter may itself be white space
+		String delimiter = properties.getProperty(key, "");
+		return delimiter.isEmpty() ? '\t' : delimiter.charAt(0);
+	}
+	
+	/**
+	 * Creates the hedging policy of one web service from its properties
+	 * @param properties
+	 * @param prefix prefix of the web service's properties
+	 * @param name web service name used in messages
+	 * @return hedging policy, or null if the web service's requests are not hedged
+	 */
+	private static RequestHedger createHedger(Properties properties, String prefix, String name) {
+		int percentile = getIntProperty(properties, prefix + ".hedgePercentile", 0);
+		if (percentile <= 0) {
+			return null;
+		}
+		return new RequestHedger(name, percentile, getIntProperty(properties, prefix + ".hedgeMaxPercent", 10));
+	}
+	
+	/**
+	 * Creates the call governor of one web service from its properties
+	 * @param properties
+	 * @param prefix prefix of the web service's properties
+	 * @param name web service name used in messages
+	 * @param maxConcurrency highest number of calls allowed in flight
+	 * @return call governor of the web service
+	 */
+	private static CallGovernor createCallGovernor(Properties properties, String prefix, String name,
+			int maxConcurrency) {
+		return new CallGovernor(name, getIntProperty(properties, prefix + ".ratePerSecond", 0), maxConcurrency,
+				getIntProperty(properties, prefix + ".latencyTargetMillis", 2000),
+				getIntProperty(properties, prefix + ".maxAttempts", 5),
+				getIntProperty(properties, prefix + ".failureThreshold", 10),
+				getIntProperty(properties, prefix + ".pauseMillis", 30000));
+	}
+	
+	/**
+	 * Creates the call governor of one country's calls to a web service, taking each property
+	 * the country does not set from the web service's own
+	 * @param properties
+	 * @param prefix prefix of the country's properties for the web service
+	 * @param servicePrefix prefix of the web service's properties
+	 * @param name web service and country name used in messages
+	 * @param maxConcurrency highest number of calls allowed in flight
+	 * @return call governor of the country's calls
+	 */
+	private static CallGovernor createCallGovernor(Properties properties, String prefix, String servicePrefix,
+			String name, int maxConcurrency) {
+		return new CallGovernor(name, getIntProperty(properties, prefix + ".ratePerSecond",
+				getIntProperty(properties, servicePrefix + ".ratePerSecond", 0)), maxConcurrency,
+				getIntProperty(properties, prefix + ".latencyTargetMillis",
+						getIntProperty(properties, servicePrefix + ".latencyTargetMillis", 2000)),
+				getIntProperty(properties, prefix + ".maxAttempts",
+						getIntProperty(properties, servicePrefix + ".maxAttempts", 5)),
+				getIntProperty(properties, prefix + ".failureThreshold",
+						getIntProperty(properties, servicePrefix + ".failureThreshold", 10)),
+				getIntProperty(properties, prefix + ".pauseMillis",
+						getIntProperty(properties, servicePrefix + ".pauseMillis", 30000)));
+	}
+	
+	/**
+	 * Reads an integer property, falling back to the given default when it is missing or blank
+	 * @param properties
+	 * @param key
+	 * @param defaultValue
+	 * @return integer value of the property
+	 */
+	static int getIntProperty(Properties properties, String key, int defaultValue) {
+		String value = properties.getProperty(key, "").trim();
+		
+		if (value.isEmpty()) {
+			return defaultValue;
+		}
+		
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			System.out.println("ERROR NumberFormatException in getIntProperty() : "
+					+ "Property " + key + " is not a number, using " + defaultValue + ".");
+			return defaultValue;
+		}
+	}
+	
+	/**
+	 * Parses current result set row into the record needed to send a GET Request to the Global Address
+	 * Web Service
+	 * @param resultSet positioned on the row to parse, with [recID] followed by the address columns
+	 * in AddressRecord field order
+	 * @return record of the row
+	 * @throws SQLException if the row cannot be read
+	 */
+	static AddressRecord getRecordFromResultSet(ResultSet resultSet) throws SQLException {
+		String[] inputFields = new String[AddressRecord.INPUT_FIELD_COUNT];
+		
+		for (int i = 0; i < inputFields.length; i++) {
+			inputFields[i] = resultSet.getString(i + 2);
+		}
+		
+		String recordID = resultSet.getString(1);
+		return new AddressRecord(recordID == null ? "" : recordID.trim(), inputFields);
+	}
 
-		// Create jsonResponseObj from JSON file
+	/**
+	 * Builds GET Request for Global Address Web Service with given record
+	 * @param record
+	 * @return percent-encoded URL of the GET Request
+	 */
+	static String buildGlobalAddressGETRequest(AddressRecord record) {
+		String custID = ""; // Input customer ID here
+		
+		// Encode the query in the calling worker's reusable buffer
+		return RequestEncoder.forCurrentThread().encodeGlobalAddressGET(globalAddressUrl, custID, record);
+	}
+	
+	/**
+	 * Sends GET Request to Global Address Web Service and returns the parsed response
+	 * @param url GET Request built by buildGlobalAddressGETRequest()
+	 * @return verification result of the response, or null if no response could be retrieved
+	 */
+	static GlobalAddressResult sendGlobalAddressGETRequest(String url) {
+		// Send GET request, retrying with backoff under the Global Address call limits
+		byte[] response = null;
+		long start = System.nanoTime();
 		try {
-			fileReader = new FileReader("JSONResponse.json"); 
-			jsonResponseObj = (JSONObject) new JSONParser().parse(fileReader);
-		} catch (IOException | ParseException e) {
-			System.out.println("ERROR : IOException or ParseException in getResultCodes() : "
-					+ "Unable to create JSONObject from parsing JSONResponse.json.");
+			// The query string identifies the request on the cassette, whatever the service URL
+			byte[] query = url.substring(url.indexOf('?') + 1).getBytes(StandardCharsets.UTF_8);
+			CallGovernor governor = currentPartition().getGlobalAddressGovernor();
+			response = callGlobalAddress(governor, () -> exchange(ResponseCassette.GLOBAL_ADDRESS, query,
+					query.length, () -> httpClient.getBytes(url, globalAddressHedger)));
+			Metrics.stage(Metrics.GLOBAL_ADDRESS).recordSince(start);
+		} catch (IOException e) {
 			e.printStackTrace();
-			System.exit(0);
+			DeadLetterStore.noteFailure(e.toString(), url);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 
-		// Create subset of jsonResponseObj containing the pairs in the Records array
-		records = ((JSONArray) jsonResponseObj.get("Records"));
-		recordsObj = (JSONObject) records.get(0);
-
-		// Get result codes
-		resultCodes = recordsObj.get("Results").toString();
+		if (response == null) {
+			System.out.println("ERROR in sendGlobalAddressGETRequest : " 
+					+ "Unable to send request.");
+			return null;
+		}
+		
+		if (dumpResponses) {
+			dumpResponse(response);
+		}
 
+		// Parse the response once; later steps read the returned result
+		start = System.nanoTime();
 		try {
-			fileReader.close();
+			GlobalAddressResult result = GlobalAddressResult.parse(response);
+			Metrics.stage(Metrics.JSON_PARSE).recordSince(start);
+			return result;
+		} catch (ParseException | ClassCastException e) {
+			System.out.println("ERROR ParseException in sendGlobalAddressGETRequest() : "
+					+ "Unable to parse response from Global Address.");
+			e.printStackTrace();
+			DeadLetterStore.noteFailure(e.toString(), new String(response, StandardCharsets.UTF_8));
+			return null;
+		}
+	}
+	
+	/**
+	 * Sends a Global Address call through its governor, once the share of the calling worker's
+	 * table job allows it when several tables are run
+	 * @param governor
+	 * @param call
+	 * @return result of the call
+	 * @throws IOException if the call failed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private static <T> T callGlobalAddress(CallGovernor governor, CallGovernor.Call<T> call)
+			throws IOException, InterruptedException {
+		JobRunner.Job job = JobRunner.currentJob();
+		return job == null ? governor.call(call) : job.callGlobalAddress(governor, call);
+	}
+	
+	/**
+	 * Sends a Global MAK call through its governor, once the share of the calling worker's
+	 * table job allows it when several tables are run
+	 * @param governor
+	 * @param call
+	 * @return result of the call
+	 * @throws IOException if the call failed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private static <T> T callGlobalMak(CallGovernor governor, CallGovernor.Call<T> call)
+			throws IOException, InterruptedException {
+		JobRunner.Job job = JobRunner.currentJob();
+		return job == null ? governor.call(call) : job.callGlobalMak(governor, call);
+	}
+	
+	/**
+	 * Sends a web service request, or answers it from the response cassette when one is open
+	 * @param service ResponseCassette.GLOBAL_ADDRESS or ResponseCassette.GLOBAL_MAK
+	 * @param request UTF-8 bytes of the query string or POST body of the request
+	 * @param requestLength number of bytes of the request
+	 * @param call sends the request to the web service
+	 * @return raw response
+	 * @throws IOException if the request failed, or was not recorded when replaying
+	 */
+	private static byte[] exchange(byte service, byte[] request, int requestLength, CallGovernor.Call<byte[]> call)
+			throws IOException {
+		if (responseCassette == null) {
+			return call.execute();
+		}
+		return responseCassette.exchange(service, request, requestLength, call);
+	}
+	
+	/**
+	 * Writes the given Global Address response to JSONResponse.json for debugging
+	 * @param response UTF-8 bytes of the response
+	 */
+	private static synchronized void dumpResponse(byte[] response) {
+		try (FileOutputStream jsonFile = new FileOutputStream(RESPONSE_FILE)) {
+			jsonFile.write(response);
 		} catch (IOException e) {
-			System.out.println("ERROR IOException in getResultCodes() :"
-					+ "Unable to close fileReader.");
+			System.out.println("ERROR IOException in dumpResponse() : Unable to write " + RESPONSE_FILE);
 			e.printStackTrace();
-			System.exit(0);
 		}
-		return resultCodes;
 	}
 	
 	/**
-	 * Determines if address returned from most recent Global Address GET response
-	 * is fully verified to the building and/or suite level
-	 * @param resultCodes
-	 * @return true if fully verified to the building and/or suite level, false otherwise
+	 * Builds a multi-record POST Request for Global Address Web Service with the given batch of
+	 * records. Each record's RecordID is its position in the batch, starting at 1
+	 * @param batch
+	 * @return the calling worker's encoder, holding the UTF-8 JSON body of the POST Request
 	 */
-	private static boolean addressFullyVerified(String resultCodes) {
-		String[] codes = resultCodes.split(",");
+	static RequestEncoder buildGlobalAddressPOSTRequest(List<AddressRecord> batch) {
+		RequestEncoder request = RequestEncoder.forCurrentThread();
+		String custID = ""; // Input customer ID here
 		
-		for (String code : codes) {
-			if (code.equals("AV24") || code.equals("AV25")) {
-				return true;
+		request.encodeGlobalAddressPOST(custID, batch);
+		return request;
+	}
+	
+	/**
+	 * Sends a multi-record POST Request to Global Address Web Service and maps each returned record
+	 * back to its position in the batch by its RecordID
+	 * @param batch
+	 * @return verification results in the same order as the batch, with null for any record that
+	 * was not returned, or null if no response could be retrieved
+	 */
+	static List<GlobalAddressResult> sendGlobalAddressPOSTRequest(List<AddressRecord> batch) {
+		final RequestEncoder request = buildGlobalAddressPOSTRequest(batch);
+		byte[] response = null;
+		
+		// Send POST request, retrying with backoff under the Global Address call limits
+		long start = System.nanoTime();
+		try {
+			CallGovernor governor = currentPartition().getGlobalAddressGovernor();
+			response = callGlobalAddress(governor, () -> exchange(ResponseCassette.GLOBAL_ADDRESS,
+					request.getBuffer(), request.getLength(), () -> httpClient.postBytes(globalAddressUrl,
+					request.getBuffer(), request.getLength(), globalAddressHedger)));
+			Metrics.stage(Metrics.GLOBAL_ADDRESS).recordSince(start);
+		} catch (IOException e) {
+			e.printStackTrace();
+			DeadLetterStore.noteFailure(e.toString(), requestBody(request));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		if (response == null) {
+			System.out.println("ERROR in sendGlobalAddressPOSTRequest : " 
+					+ "Unable to send request.");
+			return null;
+		}
+		
+		if (dumpResponses) {
+			dumpResponse(response);
+		}
+		
+		List<GlobalAddressResult> results = new ArrayList<GlobalAddressResult>(Collections.nCopies(batch.size(),
+				(GlobalAddressResult) null));
+		start = System.nanoTime();
+		try {
+			for (GlobalAddressResult result : GlobalAddressResult.parseAll(response)) {
+				int position = Integer.parseInt(result.getRecordID()) - 1;
+				
+				if (position >= 0 && position < results.size()) {
+					results.set(position, result);
+				}
 			}
+			Metrics.stage(Metrics.JSON_PARSE).recordSince(start);
+		} catch (ParseException | ClassCastException | NumberFormatException e) {
+			System.out.println("ERROR ParseException in sendGlobalAddressPOSTRequest() : "
+					+ "Unable to parse response from Global Address.");
+			e.printStackTrace();
+			DeadLetterStore.noteFailure(e.toString(), new String(response, StandardCharsets.UTF_8));
+			return null;
 		}
-		// Address was not fully verified at either building level or suite level
-		return false;
+		
+		return results;
 	}
-
+	
 	/**
-	 * Sets each of the values of the given parameters string array to the values returned by the 
-	 * Global Address Web Request in proper order
-	 * @param parameters 
-	 * @return string array containing updated parameters
+	 * Gets the result codes from the given Global Address verification result
+	 * @param result
+	 * @return comma split string containing list of result codes returned
 	 */
-	private static String[] updateParameters(String[] parameters) {
-		FileReader fileReader = null;
-		JSONObject jsonResponseObj = null;
-		JSONObject recordsObj = null;
-		JSONArray records;
-
-		// Create jsonResponseObj from JSON file
+	static String getResultCodes(GlobalAddressResult result) {
+		return result.getResultCodes();
+	}
+	
+	/**
+	 * Determines if address returned from most recent Global Address GET response
+	 * is accepted for a MAK id: it has one of the acceptance codes of its country, by default
+	 * AV24 or AV25 for an address fully verified to the building and/or suite level
+	 * @param resultCodes
+	 * @return true if accepted, false otherwise
+	 */
+	static boolean addressFullyVerified(String resultCodes) {
+		return currentPartition().accepts(ResultCodes.parse(resultCodes));
+	}
+	
+	/**
+	 * Keeps the verification result of a row in the side table, if one is set
+	 * @param recordID
+	 * @param result verification result, or null if no response was retrieved
+	 */
+	static void storeVerification(String recordID, GlobalAddressResult result) {
+		if (verificationStore != null && result != null) {
+			verificationStore.add(recordID, result);
+		}
+	}
+	
+	private static void closeVerificationStore() {
+		if (verificationStore != null) {
+			verificationStore.close();
+		}
+	}
+	
+	/**
+	 * Applies the acceptance policy to every stored verification result. Rows accepted now that
+	 * have no MAK id are sent to Global MAK, and rows with a MAK id that are no longer accepted
+	 * have it cleared. Global Address is not called
+	 * @param makWriter
+	 * @param makThreads number of Global MAK worker threads
+	 * @param pageSize number of stored rows read per query
+	 */
+	private static void reevaluate(final MakWriter makWriter, int makThreads, int pageSize) {
+		final AtomicLong accepted = new AtomicLong();
+		final AtomicLong revoked = new AtomicLong();
+		final AtomicLong unchanged = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		ExecutorService makWorkers = new ThreadPoolExecutor(makThreads, makThreads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(makThreads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+		
 		try {
-			fileReader = new FileReader("JSONResponse.json"); 
-			jsonResponseObj = (JSONObject) new JSONParser().parse(fileReader);
-		} catch (IOException | ParseException e) {
-			System.out.println("ERROR : IOException or ParseException in updateParameters() : "
-					+ "Unable to create JSONObject from parsing JSONResponse.json.");
+			verificationStore.forEachStored(pageSize, (result, countryCode, hasMak) -> {
+				// Each row is judged and looked up under the acceptance codes and quotas of its country
+				AddressRecord record = storedRecord(result, countryCode);
+				CountryPartition partition = partitionOf(record);
+				boolean acceptedNow = partition.accepts(ResultCodes.parse(result.getResultCodes()));
+				
+				if (acceptedNow && !hasMak) {
+					accepted.incrementAndGet();
+					makWorkers.execute(() -> {
+						CountryPartition.bind(partition);
+						String mak = getMakId(record);
+						if (mak.isEmpty()) {
+							failed.incrementAndGet();
+							failRow(record.getRecordID(), DeadLetterStore.MAK, "No MAK id from Global MAK");
+							return;
+						}
+						makWriter.add(record.getRecordID(), mak);
+					});
+				} else if (!acceptedNow && hasMak) {
+					revoked.incrementAndGet();
+					makWriter.add(result.getRecordID(), null);
+				} else {
+					unchanged.incrementAndGet();
+				}
+				makWriter.flushIfDue();
+			});
+		} catch (SQLException e) {
+			System.out.println("ERROR SQLException in reevaluate() : Unable to read the stored results.");
 			e.printStackTrace();
-			System.exit(0);
 		}
-
-		// Create subset of jsonResponseObj containing the pairs in the Records array
-		records = ((JSONArray) jsonResponseObj.get("Records"));
-		recordsObj = (JSONObject) records.get(0);
-		
-		// Get updated parameters from Global Address Verification Web Service
-		parameters[1] = recordsObj.get("AddressLine1").toString();
-		parameters[2] = recordsObj.get("AddressLine2").toString();
-		parameters[3] = recordsObj.get("AddressLine3").toString();
-		parameters[4] = recordsObj.get("AddressLine4").toString();
-		parameters[5] = recordsObj.get("AddressLine5").toString();
-		parameters[6] = recordsObj.get("AddressLine6").toString();
-		parameters[7] = recordsObj.get("AddressLine7").toString();
-		parameters[8] = recordsObj.get("AddressLine8").toString();
-		parameters[9] = recordsObj.get("Locality").toString();
-		parameters[10] = recordsObj.get("AdministrativeArea").toString();
-		parameters[11] = recordsObj.get("PostalCode").toString();
-		parameters[12] = recordsObj.get("CountryName").toString();
-		parameters[13] = recordsObj.get("DependentLocality").toString();
-		parameters[14] = recordsObj.get("DoubleDependentLocality").toString();
-		parameters[15] = recordsObj.get("SubAdministrativeArea").toString();
-		parameters[16] = recordsObj.get("SubNationalArea").toString();
-		parameters[17] = recordsObj.get("Thoroughfare").toString();
-		parameters[18] = recordsObj.get("PremisesNumber").toString();
-		parameters[19] = recordsObj.get("SubPremisesNumber").toString();
 		
+		makWorkers.shutdown();
 		try {
-			fileReader.close();
-		} catch (IOException e) {
-			System.out.println("ERROR IOException in getResultCodes() : "
-					+ " Unable to close fileReader");
-			e.printStackTrace();
-			System.exit(0);
-		}
-		
-		return parameters;
-	}
-	
-	/**
-	 * builds a POST Request to the Global MAK Web Service with the given parameters
-	 * @param parameters
-	 * @return JSON formatted string containing the POST Request fields
-	 */
-	@SuppressWarnings("unchecked")
-	private static String buildGlobalMakPOSTRequest(String[] parameters) {
-		JSONObject request = new JSONObject();
-		String jsonString = "";
-		
-		// Initialize fields for REST Request
-		String address1 = parameters[1];
-		String address2 = parameters[2];
-		String address3 = parameters[3];
-		String address4 = parameters[4];
-		String address5 = parameters[5];
-		String address6 = parameters[6];
-		String address7 = parameters[7];
-		String address8 = parameters[8];
-		String locality = parameters[9];
-		String administrativeArea = parameters[10];
-		String postalCode = parameters[11];
-		String country = parameters[12];
-		String dependentLocality = parameters[13];
-		String doubleDependentLocality = parameters[14];
-		String subAdministrativeArea = parameters[15];
-		String subNationalArea = parameters[16];
-		String thoroughfare = parameters[17];
-		String premisesNumber = parameters[18];
-		String subPremisesNumber = parameters[19];
-
-		// Fill in requestString
-		request.put("AddressLine1", address1);
-		request.put("AddressLine2", address2);
-		request.put("AddressLine3", address3);
-		request.put("AddressLine4", address4);
-		request.put("AddressLine5", address5);
-		request.put("AddressLine6", address6);
-		request.put("AddressLine7", address7);
-		request.put("AddressLine8", address8);
-		request.put("Locality", locality);
-		request.put("AdministrativeArea", administrativeArea);
-		request.put("PostalCode", postalCode);
-		request.put("Country", country);
-		request.put("DependentLocality", dependentLocality);
-		request.put("DoubleDependentLocality", doubleDependentLocality);
-		request.put("SubAdministrativeArea", subAdministrativeArea);
-		request.put("SubNationalArea", subNationalArea);
-		request.put("Thoroughfare", thoroughfare);
-		request.put("PremisesNumber", premisesNumber);
-		request.put("SubPremisesNumber", subPremisesNumber);
-		request.put("iso2", "IS");
+			makWorkers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		System.out.println("Re-evaluated with acceptance codes " + acceptanceCodes + ": " + accepted.get()
+				+ " newly accepted (" + failed.get() + " of them without a MAK id), " + revoked.get()
+				+ " no longer accepted, " + unchanged.get() + " unchanged");
+	}
 
-		jsonString = request.toString();
-		return jsonString;
+	/**
+	 * Rebuilds the verified record of a row from its stored result and its CountryCode
+	 * @param result stored result, with the row's record ID
+	 * @param countryCode CountryCode of the row in the SQL Table, possibly null or empty
+	 * @return record holding the corrected fields and the country of the row
+	 */
+	private static AddressRecord storedRecord(GlobalAddressResult result, String countryCode) {
+		String[] inputFields = new String[AddressRecord.INPUT_FIELD_COUNT];
+		inputFields[AddressRecord.COUNTRY] = countryCode;
+		AddressRecord record = new AddressRecord(result.getRecordID(), inputFields);
+		record.applyVerification(result);
+		return record;
 	}
 	
 	/**
-	 * Sends a POST Request to the Global MAK Web Service with the given parameters and returns the
-	 * MAK id received from the POST Response
-	 * @param parameters
+	 * Sets each of the address fields of the given record to the values returned by the 
+	 * Global Address Web Request
+	 * @param record 
+	 * @param result
+	 * @return the updated record
+	 */
+	static AddressRecord updateParameters(AddressRecord record, GlobalAddressResult result) {
+		// Get updated fields from Global Address Verification Web Service
+		record.applyVerification(result);
+		
+		return record;
+	}
+	
+	/**
+	 * builds a POST Request to the Global MAK Web Service with the given verified record
+	 * @param record
+	 * @return the calling worker's encoder, holding the UTF-8 JSON body of the POST Request
+	 */
+	private static RequestEncoder buildGlobalMakPOSTRequest(AddressRecord record) {
+		RequestEncoder request = RequestEncoder.forCurrentThread();
+		
+		request.encodeGlobalMakPOST(record);
+		return request;
+	}
+	
+	/**
+	 * Sends a POST Request to the Global MAK Web Service with the given verified record and returns
+	 * the MAK id received from the POST Response
+	 * @param record
 	 * @return string formatted MAK id received from POST Response
 	 */
-	private static String sendGlobalMakPOSTRequest(String[] parameters) {
+	static String sendGlobalMakPOSTRequest(AddressRecord record) {
 		String mak = "";
-		CloseableHttpClient httpClient = HttpClientBuilder.create().build();
-		HttpPost post = new HttpPost(""); // global MAK web API
 		
 		// Build POST request
-		String request = buildGlobalMakPOSTRequest(parameters);
-		StringEntity entity = new StringEntity(request, ContentType.APPLICATION_JSON);
-		post.addHeader("content-type", "application/json");
-		post.setEntity(entity);
+		final RequestEncoder request = buildGlobalMakPOSTRequest(record);
 		
-		// Execute POST Request
-		HttpResponse response = null;
+		// Execute POST Request, retrying with backoff under the Global MAK call limits
+		long start = System.nanoTime();
 		try {
-			response = httpClient.execute(post);
+			CallGovernor governor = currentPartition().getMakGovernor();
+			byte[] response = callGlobalMak(governor, () -> exchange(ResponseCassette.GLOBAL_MAK,
+					request.getBuffer(), request.getLength(), () -> httpClient.postBytes(makUrl,
+					request.getBuffer(), request.getLength(), makHedger)));
+			Metrics.stage(Metrics.GLOBAL_MAK).recordSince(start);
 			
-			if (response.getStatusLine().getStatusCode() != 200) {
-				System.out.println("ERROR in sendGlobalMakPOSTRequest() : "
-						+ "Returned response code is not 200 (Success) : " + response.getStatusLine().getStatusCode());
-			}
-			
-			if (response.getStatusLine().getStatusCode() == 200) {
-				// Get MAK ID
-				mak = getMAK(response);
-			}
+			// Get MAK ID
+			mak = getMAK(response);
+		} catch (ServiceHttpClient.HttpStatusException e) {
+			System.out.println("ERROR in sendGlobalMakPOSTRequest() : "
+					+ "Returned response code is not 200 (Success) : " + e.getStatusCode());
+			DeadLetterStore.noteFailure("Returned response code " + e.getStatusCode(), requestBody(request));
 		} catch (IOException e) {
 			System.out.println("ERROR IOException in sendGlobalMakRESTRequest() :"
 					+ " Unable to execute post method.");
-			 e.printStackTrace();
-			 System.exit(0);
-		} finally {
-			post.releaseConnection();
+			e.printStackTrace();
+			DeadLetterStore.noteFailure(e.toString(), requestBody(request));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
 		
 		return mak;
 	}
 	
+	/**
+	 * @param request
+	 * @return the request body held by the given encoder, as text
+	 */
+	private static String requestBody(RequestEncoder request) {
+		return new String(request.getBuffer(), 0, request.getLength(), StandardCharsets.UTF_8);
+	}
+	
 	/**
 	 * Gets the MAK id of the given Global MAK REST response
-	 * @param response
-	 * @return string formatted MAK id
+	 * @param response UTF-8 bytes of the response
+	 * @return string formatted MAK id, or an empty string if the response has none
 	 */
-	private static String getMAK(HttpResponse response) {
-		HttpEntity entity = response.getEntity();
-		String responseString = "";
+	private static String getMAK(byte[] response) {
 		String mak = "";
 		
-		//Convert Global MAK response into string format
-		try {
-			responseString = EntityUtils.toString(entity, "UTF-8");
-		} catch (org.apache.http.ParseException e) {
-			System.out.println("ERROR org.apache.http.ParseException in getMAK() : "
-					+ "Unable to convert Global MAK response into string format.");
-			e.printStackTrace();
-			System.exit(0);
-		} catch (IOException e) {
-			System.out.println("ERROR IOException in getMAK() : "
-					+ "Unable to convert Global MAK response into string format.");
-			e.printStackTrace();
-			System.exit(0);
-		}
-				
-		// Convert Global MAK response string into JSON Object format
-		JSONObject jsonResponseObject = null;
+		// Decode only the _id field of the response
 		try {
-			jsonResponseObject = (JSONObject) new JSONParser().parse(responseString);
+			String id = ResponseDecoder.decodeMakId(response);
+			if (id != null) {
+				mak = id;
+			} else {
+				DeadLetterStore.noteFailure("No _id in response", new String(response, StandardCharsets.UTF_8));
+			}
 		} catch (ParseException e) {
 			System.out.println("ERROR ParseException in getMAK() : "
 					+ "Unable to parse response from Global MAK.");
 			e.printStackTrace();
+			DeadLetterStore.noteFailure(e.toString(), new String(response, StandardCharsets.UTF_8));
 		}
 		
-		// Get MAK ID
-		mak = jsonResponseObject.get("_id").toString();
-		
 		return mak;
 	}
-
-	/**
-	 * Updates the SQL Table's mak_id column by finding the row with the given record ID and
-	 * updating that row's mak_id to the given MAK id
-	 * @param recordID
-	 * @param mak
-	 */
-	private static void updateSqlWithMAK(String recordID, String mak) {
-		//String connectionString = "jdbc:sqlserver:<server name>;" + "database=<database>;" + "user=<user>;" + "password=<password>;";
-		Statement statement = null;
-		Connection connection = null;
-
-		try {
-			connection = DriverManager.getConnection(connectionString);
-			String sqlQuery =  "update " + databaseTable
-					  + " set mak_id = \'" + mak + "\' where recID = \'" + recordID + "\'";
-			statement = connection.createStatement();
-			statement.execute(sqlQuery);
-		} catch (SQLException e) {
-			System.out.println("ERROR SQLException in updateSqlWithMAK : Unable to execute query to update singular MAK ID.");
-			e.printStackTrace();
-			System.exit(0);
-		}
-	}
 }
@@ -0,0 +1,208 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * MakWriter.java
+ *
+ * Program Description: Write-back of MAK ids to the SQL Table. Updates are collected and
+ * sent as one parameterized PreparedStatement batch per transaction, flushed whenever the
+ * batch is full or the flush interval has passed. Keeps count of rows written per second.
+ * Each update can also set further columns, such as the address hash of an incremental run.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MakWriter implements RecordSink {
+	private final ConnectionPool connectionPool;
+	private final String databaseTable;
+	private final List<String> assignments = new ArrayList<String>();
+	private final List<Object> assignmentParameters = new ArrayList<Object>();
+	private final int batchSize;
+	private final long flushIntervalMillis;
+	private final List<String[]> pending = new ArrayList<String[]>();
+
+	private long lastFlushMillis = System.currentTimeMillis();
+	private final long startMillis = System.currentTimeMillis();
+	private long rowsWritten = 0;
+	private long rowsFailed = 0;
+	private CommitListener commitListener;
+	private FailureListener failureListener;
+
+	/**
+	 * @param connectionPool pool the updates are sent through
+	 * @param databaseTable SQL Table whose mak_id column is updated
+	 * @param batchSize number of updates sent per batch
+	 * @param flushIntervalMillis longest time an update waits before its batch is sent
+	 */
+	public MakWriter(ConnectionPool connectionPool, String databaseTable, int batchSize, long flushIntervalMillis) {
+		this.connectionPool = connectionPool;
+		this.databaseTable = databaseTable;
+		this.batchSize = Math.max(1, batchSize);
+		this.flushIntervalMillis = flushIntervalMillis;
+	}
+
+	/**
+	 * Sets one more column in every update. Call before the first update is queued
+	 * @param assignment SQL assignment of a column of the SQL Table, with a ? for each parameter
+	 * @param parameters
+	 */
+	public synchronized void addAssignment(String assignment, Object... parameters) {
+		assignments.add(assignment);
+		for (Object parameter : parameters) {
+			assignmentParameters.add(parameter);
+		}
+	}
+
+	/**
+	 * Sets the listener told about every batch once it has been committed
+	 * @param commitListener
+	 */
+	public void setCommitListener(CommitListener commitListener) {
+		this.commitListener = commitListener;
+	}
+
+	/**
+	 * Sets the listener told about every update of a batch that could not be committed
+	 * @param failureListener
+	 */
+	public void setFailureListener(FailureListener failureListener) {
+		this.failureListener = failureListener;
+	}
+
+	/**
+	 * Queues the update of the row with the given record ID to the given MAK id, sending the
+	 * batch if it is full
+	 * @param recordID
+	 * @param mak
+	 */
+	@Override
+	public synchronized void add(String recordID, String mak) {
+		pending.add(new String[] { recordID, mak });
+
+		if (pending.size() >= batchSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * Sends the pending batch if the flush interval has passed since the last one
+	 */
+	@Override
+	public synchronized void flushIfDue() {
+		if (!pending.isEmpty() && System.currentTimeMillis() - lastFlushMillis >= flushIntervalMillis) {
+			flush();
+		}
+	}
+
+	/**
+	 * Sends every pending update to the SQL Table in a single transaction
+	 */
+	@Override
+	public synchronized void flush() {
+		lastFlushMillis = System.currentTimeMillis();
+
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		Connection connection = null;
+		long start = System.nanoTime();
+		try {
+			connection = connectionPool.borrow();
+			connection.setAutoCommit(false);
+
+			StringBuilder updateSql = new StringBuilder("UPDATE " + databaseTable + " SET mak_id = ?");
+			for (String assignment : assignments) {
+				updateSql.append(", ").append(assignment);
+			}
+			updateSql.append(" WHERE recID = ?");
+
+			try (PreparedStatement statement = connection.prepareStatement(updateSql.toString())) {
+				for (String[] update : pending) {
+					int parameter = 1;
+					statement.setString(parameter++, update[1]);
+					for (Object value : assignmentParameters) {
+						statement.setObject(parameter++, value);
+					}
+					statement.setString(parameter, update[0]);
+					statement.addBatch();
+				}
+				statement.executeBatch();
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			}
+
+			rowsWritten += pending.size();
+			Metrics.stage(Metrics.SQL_WRITE).recordSince(start);
+			Metrics.count("rows_written", pending.size());
+
+			if (commitListener != null) {
+				List<String> recordIDs = new ArrayList<String>(pending.size());
+				for (String[] update : pending) {
+					recordIDs.add(update[0]);
+				}
+				commitListener.committed(recordIDs);
+			}
+		} catch (SQLException e) {
+			System.out.println("ERROR SQLException in MakWriter.flush() : "
+					+ "Unable to update " + pending.size() + " MAK IDs.");
+			e.printStackTrace();
+			rowsFailed += pending.size();
+			Metrics.count("rows_write_failed", pending.size());
+
+			if (failureListener != null) {
+				for (String[] update : pending) {
+					failureListener.failed(update[0], update[1], e);
+				}
+			}
+		} finally {
+			connectionPool.release(connection);
+			pending.clear();
+		}
+	}
+
+	@Override
+	public synchronized long getRowsFailed() {
+		return rowsFailed;
+	}
+
+	/**
+	 * @return average number of rows written per second since this writer was created
+	 */
+	public synchronized double getRowsPerSecond() {
+		long elapsedMillis = Math.max(1, System.currentTimeMillis() - startMillis);
+		return rowsWritten * 1000.0 / elapsedMillis;
+	}
+
+	/**
+	 * Sends any pending updates and prints the write-back totals
+	 */
+	@Override
+	public synchronized void close() {
+		flush();
+		System.out.println(String.format("MAK IDs written: %d, failed: %d, %.1f rows/sec",
+				rowsWritten, rowsFailed, getRowsPerSecond()));
+	}
+
+	/**
+	 * Told about the record IDs of each batch after it has been committed
+	 */
+	public interface CommitListener {
+		void committed(List<String> recordIDs);
+	}
+
+	/**
+	 * Told about each update of a batch that could not be committed
+	 */
+	public interface FailureListener {
+		void failed(String recordID, String mak, Exception error);
+	}
+}
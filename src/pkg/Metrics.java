@@ -0,0 +1,360 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * Metrics.java
+ *
+ * Program Description: Run-wide instrumentation. Holds a latency histogram per stage
+ * (SQL read, Global Address, JSON parsing, Global MAK, SQL write), event counters, gauges
+ * such as queue depths and retry totals, and a histogram of the Global Address result codes
+ * seen. The metrics are exposed over JMX as pkg:type=Metrics, rewritten periodically to a
+ * Prometheus text-format file and printed as a summary at the end of the run.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+
+public class Metrics {
+	// Stage names used for the latency histograms
+	public static final String SQL_READ = "sql_read";
+	public static final String GLOBAL_ADDRESS = "global_address";
+	public static final String JSON_PARSE = "json_parse";
+	public static final String GLOBAL_MAK = "global_mak";
+	public static final String SQL_WRITE = "sql_write";
+
+	private static final Map<String, LatencyHistogram> stages = new ConcurrentSkipListMap<String, LatencyHistogram>();
+	private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<String, LongAdder>();
+	private static final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<String, LongSupplier>();
+	private static final Map<String, LongAdder> resultCodes = new ConcurrentHashMap<String, LongAdder>();
+	private static final long startNanos = System.nanoTime();
+
+	private static ScheduledExecutorService reporter;
+	private static File metricsFile;
+
+	private Metrics() {
+	}
+
+	/**
+	 * @param stage
+	 * @return latency histogram of the stage, created on first use
+	 */
+	public static LatencyHistogram stage(String stage) {
+		LatencyHistogram histogram = stages.get(stage);
+		if (histogram == null) {
+			stages.putIfAbsent(stage, new LatencyHistogram());
+			histogram = stages.get(stage);
+		}
+		return histogram;
+	}
+
+	/**
+	 * Adds one to the counter of the given event
+	 * @param event
+	 */
+	public static void count(String event) {
+		count(event, 1);
+	}
+
+	public static void count(String event, long amount) {
+		LongAdder counter = counters.get(event);
+		if (counter == null) {
+			counters.putIfAbsent(event, new LongAdder());
+			counter = counters.get(event);
+		}
+		counter.add(amount);
+	}
+
+	public static long getCount(String event) {
+		LongAdder counter = counters.get(event);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	/**
+	 * Registers a value read whenever the metrics are reported, such as a queue depth
+	 * @param name
+	 * @param gauge
+	 */
+	public static void gauge(String name, LongSupplier gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * Counts each result code of a Global Address result
+	 * @param codes comma split string containing list of result codes returned
+	 */
+	public static void countResultCodes(String codes) {
+		int start = 0;
+
+		while (start < codes.length()) {
+			int end = codes.indexOf(',', start);
+			if (end < 0) {
+				end = codes.length();
+			}
+			if (end > start) {
+				String code = codes.substring(start, end).trim();
+				LongAdder counter = resultCodes.get(code);
+				if (counter == null) {
+					resultCodes.putIfAbsent(code, new LongAdder());
+					counter = resultCodes.get(code);
+				}
+				counter.increment();
+			}
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * Clears every histogram, counter and result code count, so that each scenario of the
+	 * benchmark is measured on its own
+	 */
+	static void reset() {
+		stages.clear();
+		counters.clear();
+		resultCodes.clear();
+	}
+
+	/**
+	 * Registers the metrics with JMX and starts rewriting the Prometheus file and printing a
+	 * progress line at the given interval
+	 * @param file Prometheus text-format file, or null to skip it
+	 * @param intervalSeconds
+	 */
+	public static synchronized void start(File file, int intervalSeconds) {
+		metricsFile = file;
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(),
+					new ObjectName("pkg:type=Metrics"));
+		} catch (JMException e) {
+			System.out.println("ERROR JMException in Metrics.start() : Unable to register metrics with JMX.");
+			e.printStackTrace();
+		}
+
+		reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		reporter.scheduleAtFixedRate(Metrics::report, intervalSeconds, Math.max(1, intervalSeconds),
+				TimeUnit.SECONDS);
+	}
+
+	private static void report() {
+		System.out.println(String.format("%d rows read, %d finished, %.1f rows/sec", getCount("rows_read"),
+				getCount("rows_finished"), getRowsPerSecond()));
+		writePrometheusFile();
+	}
+
+	private static double getRowsPerSecond() {
+		double seconds = Math.max(1e-3, (System.nanoTime() - startNanos) / 1e9);
+		return getCount("rows_finished") / seconds;
+	}
+
+	/**
+	 * Writes every metric to the Prometheus file, replacing it atomically
+	 */
+	private static void writePrometheusFile() {
+		if (metricsFile == null) {
+			return;
+		}
+
+		File temporary = new File(metricsFile.getPath() + ".tmp");
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8)) {
+			writer.write(toPrometheusText());
+		} catch (IOException e) {
+			System.out.println("ERROR IOException in Metrics : Unable to write " + metricsFile);
+			e.printStackTrace();
+			return;
+		}
+
+		try {
+			Files.move(temporary.toPath(), metricsFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.out.println("ERROR IOException in Metrics : Unable to replace " + metricsFile);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return every metric in the Prometheus text exposition format
+	 */
+	static String toPrometheusText() {
+		StringBuilder text = new StringBuilder(4096);
+
+		text.append("# TYPE makid_stage_latency_seconds summary\n");
+		for (Map.Entry<String, LatencyHistogram> entry : stages.entrySet()) {
+			LatencyHistogram histogram = entry.getValue();
+			String stage = "stage=\"" + entry.getKey() + "\"";
+			for (double quantile : new double[] { 0.5, 0.99, 0.999 }) {
+				text.append("makid_stage_latency_seconds{").append(stage).append(",quantile=\"").append(quantile)
+						.append("\"} ").append(histogram.getQuantileNanos(quantile) / 1e9).append('\n');
+			}
+			text.append("makid_stage_latency_seconds_sum{").append(stage).append("} ")
+					.append(histogram.getSumNanos() / 1e9).append('\n');
+			text.append("makid_stage_latency_seconds_count{").append(stage).append("} ")
+					.append(histogram.getCount()).append('\n');
+		}
+
+		text.append("# TYPE makid_events_total counter\n");
+		for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+			text.append("makid_events_total{event=\"").append(entry.getKey()).append("\"} ")
+					.append(entry.getValue().sum()).append('\n');
+		}
+
+		text.append("# TYPE makid_gauge gauge\n");
+		for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+			text.append("makid_gauge{name=\"").append(entry.getKey()).append("\"} ")
+					.append(entry.getValue().getAsLong()).append('\n');
+		}
+
+		text.append("# TYPE makid_result_codes_total counter\n");
+		for (Map.Entry<String, Long> entry : getResultCodeCounts().entrySet()) {
+			text.append("makid_result_codes_total{code=\"").append(entry.getKey()).append("\"} ")
+					.append(entry.getValue()).append('\n');
+		}
+
+		text.append("# TYPE makid_rows_per_second gauge\n");
+		text.append("makid_rows_per_second ").append(getRowsPerSecond()).append('\n');
+		return text.toString();
+	}
+
+	private static Map<String, Long> getResultCodeCounts() {
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> entry : resultCodes.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().sum());
+		}
+		return counts;
+	}
+
+	/**
+	 * @return every metric as a flat map of name to value, as shown over JMX
+	 */
+	static Map<String, Object> snapshot() {
+		Map<String, Object> values = new TreeMap<String, Object>();
+
+		for (Map.Entry<String, LatencyHistogram> entry : stages.entrySet()) {
+			LatencyHistogram histogram = entry.getValue();
+			values.put(entry.getKey() + ".p50Millis", histogram.getQuantileNanos(0.5) / 1e6);
+			values.put(entry.getKey() + ".p99Millis", histogram.getQuantileNanos(0.99) / 1e6);
+			values.put(entry.getKey() + ".p999Millis", histogram.getQuantileNanos(0.999) / 1e6);
+			values.put(entry.getKey() + ".count", histogram.getCount());
+		}
+		for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+			values.put("events." + entry.getKey(), entry.getValue().sum());
+		}
+		for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+			values.put("gauges." + entry.getKey(), entry.getValue().getAsLong());
+		}
+		for (Map.Entry<String, Long> entry : getResultCodeCounts().entrySet()) {
+			values.put("resultCodes." + entry.getKey(), entry.getValue());
+		}
+		values.put("rowsPerSecond", getRowsPerSecond());
+		return values;
+	}
+
+	/**
+	 * Stops the periodic report, writes the Prometheus file a last time and prints the summary
+	 */
+	public static synchronized void printSummary() {
+		if (reporter != null) {
+			reporter.shutdownNow();
+		}
+		writePrometheusFile();
+
+		System.out.println("Run summary:");
+		for (Map.Entry<String, LatencyHistogram> entry : stages.entrySet()) {
+			System.out.println("  " + entry.getKey() + " : " + entry.getValue().summary());
+		}
+		for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+			System.out.println("  " + entry.getKey() + " : " + entry.getValue().sum());
+		}
+		for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+			System.out.println("  " + entry.getKey() + " : " + entry.getValue().getAsLong());
+		}
+		System.out.println("  result codes : " + getResultCodeCounts());
+		System.out.println(String.format("  %.1f rows/sec", getRowsPerSecond()));
+	}
+
+	/**
+	 * Read-only JMX view of the metrics; attribute names are the keys of snapshot()
+	 */
+	private static class MetricsMBean implements DynamicMBean {
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			Object value = snapshot().get(attribute);
+			if (value == null) {
+				throw new AttributeNotFoundException(attribute);
+			}
+			return value;
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			Map<String, Object> values = snapshot();
+			AttributeList list = new AttributeList();
+			for (String attribute : attributes) {
+				if (values.containsKey(attribute)) {
+					list.add(new Attribute(attribute, values.get(attribute)));
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) {
+			throw new UnsupportedOperationException("Metrics are read-only");
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) {
+			throw new UnsupportedOperationException(actionName);
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			Map<String, Object> values = snapshot();
+			MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+			int i = 0;
+			for (Map.Entry<String, Object> entry : values.entrySet()) {
+				attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+						entry.getKey(), true, false, false);
+			}
+			return new MBeanInfo(Metrics.class.getName(), "MAK id run metrics", attributes, null,
+					new MBeanOperationInfo[0], null);
+		}
+	}
+}
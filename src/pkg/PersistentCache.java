@@ -0,0 +1,333 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * PersistentCache.java
+ *
+ * Program Description: Local on-disk cache of Global Address and Global MAK results kept
+ * between runs. Verification results are keyed on the normalized input address and MAK ids
+ * on the normalized corrected address, so a rerun only calls the web services for new or
+ * changed addresses.
+ *
+ * The file is an append-only log of compact binary records that is read into memory at
+ * startup. Entries older than the time-to-live are dropped when loaded, the least recently
+ * used entries are evicted above the size cap, and the file is rewritten without dropped or
+ * overwritten records when it closes. New records are flushed to the file at least once a
+ * second, and a file that is not a cache file is never overwritten.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class PersistentCache {
+	private static final int MAGIC = 0x4D414B43; // "MAKC"
+	// Version 2 keys verification results on SubNationalArea too
+	private static final int VERSION = 2;
+	private static final int HEADER_LENGTH = 8;
+	private static final byte VERIFICATION = 'V';
+	private static final byte MAK = 'M';
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+	private final File file;
+	private final long ttlMillis;
+	private final Map<String, CachedEntry> entries;
+	private DataOutputStream output;
+	private long recordsInFile = 0;
+	private long lastFlushMillis = System.currentTimeMillis();
+
+	/**
+	 * Loads the cache file, creating it if it does not exist
+	 * @param file
+	 * @param ttlMillis how long an entry stays valid after it was stored
+	 * @param maxEntries maximum number of entries kept
+	 * @throws IOException if the file cannot be read or created
+	 */
+	public PersistentCache(File file, long ttlMillis, final int maxEntries) throws IOException {
+		this.file = file;
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<String, CachedEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedEntry> eldest) {
+				return size() > maxEntries;
+			}
+		};
+
+		long validLength = load();
+		openForAppend(validLength);
+	}
+
+	/**
+	 * Reads every record of the file into memory
+	 * @return length of the file up to the end of its last complete record
+	 * @throws IOException if the file exists but cannot be read
+	 */
+	private long load() throws IOException {
+		if (!file.exists() || file.length() == 0) {
+			return 0;
+		}
+
+		long validLength = HEADER_LENGTH;
+		long now = System.currentTimeMillis();
+
+		try (CountingInputStream counting = new CountingInputStream(
+				new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+				DataInputStream input = new DataInputStream(counting)) {
+			// Any other file is left alone rather than truncated
+			if (file.length() < HEADER_LENGTH || input.readInt() != MAGIC) {
+				throw new IOException(file + " is not a persistent cache file");
+			}
+			if (input.readInt() != VERSION) {
+				System.out.println("Persistent cache " + file + " was written with other address keys, "
+						+ "starting empty.");
+				return 0;
+			}
+
+			while (true) {
+				CachedEntry entry = CachedEntry.read(input);
+				if (entry == null) {
+					break;
+				}
+				validLength = counting.count;
+				recordsInFile++;
+
+				if (now - entry.storedMillis <= ttlMillis) {
+					entries.put(entry.mapKey(), entry);
+				}
+			}
+		} catch (EOFException e) {
+			// Last record was cut short by an interrupted run, it is dropped below
+		}
+
+		return validLength;
+	}
+
+	private void openForAppend(long validLength) throws IOException {
+		if (validLength == 0) {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			recordsInFile = 0;
+			return;
+		}
+
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.setLength(validLength);
+		}
+		output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), BUFFER_SIZE));
+	}
+
+	/**
+	 * @return number of entries currently held
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private synchronized CachedEntry get(byte type, String key) {
+		CachedEntry entry = entries.get((char) type + key);
+
+		if (entry != null && System.currentTimeMillis() - entry.storedMillis > ttlMillis) {
+			entries.remove((char) type + key);
+			return null;
+		}
+		return entry;
+	}
+
+	private synchronized void put(CachedEntry entry) {
+		entries.put(entry.mapKey(), entry);
+
+		try {
+			entry.write(output);
+			recordsInFile++;
+
+			// Written at least every second, so a crash loses little of what the run has learned
+			long now = System.currentTimeMillis();
+			if (now - lastFlushMillis >= FLUSH_INTERVAL_MILLIS) {
+				output.flush();
+				lastFlushMillis = now;
+			}
+		} catch (IOException e) {
+			System.out.println("ERROR IOException in PersistentCache.put() : Unable to write to " + file);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return store of Global Address results keyed on the normalized input address
+	 */
+	public CoalescingCache.BackingStore<GlobalAddressResult> verificationStore() {
+		return new CoalescingCache.BackingStore<GlobalAddressResult>() {
+			@Override
+			public GlobalAddressResult load(String key) {
+				CachedEntry entry = get(VERIFICATION, key);
+				return entry == null ? null : new GlobalAddressResult("", entry.values[0],
+						copyOfRange(entry.values, 1));
+			}
+
+			@Override
+			public void store(String key, GlobalAddressResult result) {
+				String[] values = new String[result.getCorrectedFieldCount() + 1];
+				values[0] = result.getResultCodes();
+				for (int i = 1; i < values.length; i++) {
+					values[i] = result.getCorrectedField(i - 1);
+				}
+				put(new CachedEntry(VERIFICATION, key, System.currentTimeMillis(), values));
+			}
+		};
+	}
+
+	/**
+	 * @return store of Global MAK ids keyed on the normalized corrected address
+	 */
+	public CoalescingCache.BackingStore<String> makStore() {
+		return new CoalescingCache.BackingStore<String>() {
+			@Override
+			public String load(String key) {
+				CachedEntry entry = get(MAK, key);
+				return entry == null ? null : entry.values[0];
+			}
+
+			@Override
+			public void store(String key, String mak) {
+				put(new CachedEntry(MAK, key, System.currentTimeMillis(), new String[] { mak }));
+			}
+		};
+	}
+
+	private static String[] copyOfRange(String[] values, int from) {
+		String[] copy = new String[values.length - from];
+		System.arraycopy(values, from, copy, 0, copy.length);
+		return copy;
+	}
+
+	/**
+	 * Flushes pending records and, if the file holds many expired, evicted or overwritten
+	 * records, rewrites it with only the live entries
+	 */
+	public synchronized void close() {
+		try {
+			output.close();
+
+			if (recordsInFile > entries.size() + entries.size() / 2) {
+				compact();
+			}
+		} catch (IOException e) {
+			System.out.println("ERROR IOException in PersistentCache.close() : Unable to write " + file);
+			e.printStackTrace();
+		}
+	}
+
+	private void compact() throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+
+		try (DataOutputStream compacted = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temporary), BUFFER_SIZE))) {
+			compacted.writeInt(MAGIC);
+			compacted.writeInt(VERSION);
+			for (CachedEntry entry : entries.values()) {
+				entry.write(compacted);
+			}
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		recordsInFile = entries.size();
+	}
+
+	/**
+	 * One cached record: its type, key, time stored and values
+	 */
+	private static class CachedEntry {
+		private final byte type;
+		private final String key;
+		private final long storedMillis;
+		private final String[] values;
+
+		private CachedEntry(byte type, String key, long storedMillis, String[] values) {
+			this.type = type;
+			this.key = key;
+			this.storedMillis = storedMillis;
+			this.values = values;
+		}
+
+		private String mapKey() {
+			return (char) type + key;
+		}
+
+		private void write(DataOutputStream output) throws IOException {
+			output.writeByte(type);
+			output.writeLong(storedMillis);
+			output.writeUTF(key);
+			output.writeByte(values.length);
+			for (String value : values) {
+				output.writeUTF(value == null ? "" : value);
+			}
+		}
+
+		/**
+		 * @return the next record, or null at the end of the file
+		 * @throws EOFException if the file ends inside a record
+		 */
+		private static CachedEntry read(DataInputStream input) throws IOException {
+			int type = input.read();
+			if (type < 0) {
+				return null;
+			}
+
+			long storedMillis = input.readLong();
+			String key = input.readUTF();
+			String[] values = new String[input.readUnsignedByte()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = input.readUTF();
+			}
+			return new CachedEntry((byte) type, key, storedMillis, values);
+		}
+	}
+
+	/**
+	 * Counts the bytes read so the end of the last complete record is known
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long count = 0;
+
+		private CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+	}
+}
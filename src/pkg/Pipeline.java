@@ -0,0 +1,457 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * Pipeline.java
+ *
+ * Program Description: Runs the same steps as the serial loop in Main.java as four
+ * concurrent stages connected by bounded queues:
+ * 	read -> verify (Global Address) -> MAK lookup (Global MAK) -> write-back (SQL)
+ * The verify and MAK stages each run a configurable number of worker threads so that
+ * the network waits of many records overlap instead of adding up. Rows travel from the read
+ * to the verify stage in columnar AddressBatches, where the most rows wait, and as single
+ * AddressRecords after verification.
+ *
+ * When the countries property lists country codes, the rows of each listed country travel
+ * through a lane of their own: verify and MAK queues, with the workers, call governors and
+ * acceptance codes of its CountryPartition.java. The rows of all other countries share the
+ * default lane. While a lane's verify queue is full and another lane has run out of rows, the
+ * read stage holds the full lane's batches back and goes on reading for the waiting one, until
+ * the rows held back reach BACKLOG_QUEUES queues' worth, so a throttled country does not
+ * starve the rest.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Pipeline {
+	// Markers placed on a queue once for every consumer when its producers are finished
+	private static final AddressBatch END_OF_BATCHES = new AddressBatch(0);
+	private static final AddressRecord END_OF_RECORDS = new AddressRecord("");
+	// Longest the write stage waits for a record before checking whether a batch is due
+	private static final long WRITE_POLL_MILLIS = 100;
+	// Rows the read stage may hold back for lanes with a full verify queue, in queue capacities
+	private static final int BACKLOG_QUEUES = 10;
+	// Time the read stage waits for room in a verify queue before trying the lanes again
+	private static final long BACKLOG_POLL_MILLIS = 5;
+
+	private final List<Lane> lanes = new ArrayList<Lane>();
+	private final Map<String, Lane> lanesByCountry = new HashMap<String, Lane>();
+	private final Lane defaultLane;
+	private final BlockingQueue<AddressRecord> writeQueue;
+	private final int batchRows;
+	private final int globalAddressBatchSize;
+	private final int maxBacklogRows;
+	private final AtomicInteger runningMakThreads;
+	private final RecordSource recordReader;
+	private final RecordSink makWriter;
+	private int backlogRows = 0;
+	private volatile boolean readFailed = false;
+
+	/**
+	 * @param queueCapacity maximum number of records waiting between two stages
+	 * @param batchRows number of rows read into each batch for the verify stage
+	 * @param verifyThreads number of Global Address worker threads
+	 * @param makThreads number of Global MAK worker threads
+	 * @param globalAddressBatchSize number of records sent per Global Address request, 1 to send
+	 * each record as its own GET request
+	 * @param recordReader source of the rows streamed by the read stage
+	 * @param makWriter sink of the MAK ids, such as the batched write-back, used by the write stage
+	 */
+	public Pipeline(int queueCapacity, int batchRows, int verifyThreads, int makThreads, int globalAddressBatchSize,
+			RecordSource recordReader, RecordSink makWriter) {
+		this.globalAddressBatchSize = Math.max(1, globalAddressBatchSize);
+		// A read batch holds at least one full Global Address request
+		this.batchRows = Math.max(Math.max(1, batchRows), this.globalAddressBatchSize);
+		this.writeQueue = new ArrayBlockingQueue<AddressRecord>(queueCapacity);
+		this.maxBacklogRows = BACKLOG_QUEUES * queueCapacity;
+		this.recordReader = recordReader;
+		this.makWriter = makWriter;
+
+		// Under JobRunner.java the pipeline of each table exposes its queues under its own names
+		JobRunner.Job job = JobRunner.currentJob();
+		String metricPrefix = job == null ? "" : job.getMetricPrefix();
+
+		this.defaultLane = new Lane(Main.defaultPartition, queueCapacity, verifyThreads, makThreads);
+		lanes.add(defaultLane);
+		for (Map.Entry<String, CountryPartition> country : Main.countryPartitions.entrySet()) {
+			Lane lane = new Lane(country.getValue(), queueCapacity, verifyThreads, makThreads);
+			lanes.add(lane);
+			lanesByCountry.put(country.getKey(), lane);
+			Metrics.gauge(metricPrefix + "country_" + country.getKey() + "_verify_queue_depth",
+					() -> lane.verifyQueue.size() * (long) this.batchRows);
+			Metrics.gauge(metricPrefix + "country_" + country.getKey() + "_mak_queue_depth",
+					() -> lane.makQueue.size());
+		}
+		int totalMakThreads = 0;
+		for (Lane lane : lanes) {
+			totalMakThreads += lane.makThreads;
+		}
+		this.runningMakThreads = new AtomicInteger(totalMakThreads);
+
+		Metrics.gauge(metricPrefix + "verify_queue_depth", () -> {
+			long depth = 0;
+			for (Lane lane : lanes) {
+				depth += lane.verifyQueue.size() * (long) this.batchRows;
+			}
+			return depth;
+		});
+		Metrics.gauge(metricPrefix + "mak_queue_depth", () -> {
+			long depth = 0;
+			for (Lane lane : lanes) {
+				depth += lane.makQueue.size();
+			}
+			return depth;
+		});
+		Metrics.gauge(metricPrefix + "write_queue_depth", () -> writeQueue.size());
+	}
+
+	/**
+	 * Starts every stage and blocks until the last record has been written back
+	 */
+	public void run() {
+		List<Thread> threads = new ArrayList<Thread>();
+
+		threads.add(new Thread(this::read, "read"));
+		for (Lane lane : lanes) {
+			String suffix = lane.partition.isDefault() ? "" : lane.partition.getName() + "-";
+			for (int i = 0; i < lane.verifyThreads; i++) {
+				threads.add(new Thread(() -> verify(lane), "verify-" + suffix + i));
+			}
+			for (int i = 0; i < lane.makThreads; i++) {
+				threads.add(new Thread(() -> lookUpMak(lane), "mak-" + suffix + i));
+			}
+		}
+		threads.add(new Thread(this::write, "write"));
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			System.out.println("ERROR InterruptedException in Pipeline.run() : "
+					+ "Interrupted while waiting for the stages to finish.");
+			for (Thread thread : threads) {
+				thread.interrupt();
+			}
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return true if reading stopped at an unexpected error rather than at the end of the rows
+	 */
+	public boolean hasReadFailed() {
+		return readFailed;
+	}
+
+	/**
+	 * Read stage: streams every row of the SQL Table into batches for the verify queue of its
+	 * country's lane, handing each batch over once it is full
+	 */
+	private void read() {
+		try {
+			AddressRecord record;
+
+			while ((record = recordReader.next()) != null) {
+				if (Main.startRow(record.getRecordID())) {
+					Lane lane = lanesByCountry.getOrDefault(record.getCountryCode(), defaultLane);
+					lane.partition.countRead();
+					lane.batch.add(record);
+					if (lane.batch.isFull()) {
+						hand(lane, lane.batch);
+						lane.batch = new AddressBatch(batchRows);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			System.out.println("ERROR RuntimeException in Pipeline.read() : "
+					+ "Reading stopped, the rows not yet read are left for the next run.");
+			e.printStackTrace();
+			readFailed = true;
+		} finally {
+			recordReader.close();
+			// The other stages only stop once told the rows have ended, however reading ended
+			if (!Thread.currentThread().isInterrupted()) {
+				endReading();
+			}
+		}
+	}
+
+	/**
+	 * Hands over the last partial batch of each lane, then the end markers of its verify workers
+	 */
+	private void endReading() {
+		try {
+			for (Lane lane : lanes) {
+				if (lane.batch.size() > 0) {
+					hand(lane, lane.batch);
+				}
+				for (int i = 0; i < lane.verifyThreads; i++) {
+					hand(lane, END_OF_BATCHES);
+				}
+			}
+			while (!drainBacklogs()) {
+				Thread.sleep(BACKLOG_POLL_MILLIS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Hands a batch to the verify queue of its lane. With several lanes, a batch that does not
+	 * fit is held back, and the read stage waits once no lane is waiting for rows or too many
+	 * rows are held back
+	 * @param lane
+	 * @param batch
+	 * @throws InterruptedException if interrupted while waiting for room in a verify queue
+	 */
+	private void hand(Lane lane, AddressBatch batch) throws InterruptedException {
+		if (lanes.size() == 1) {
+			lane.verifyQueue.put(batch);
+			return;
+		}
+
+		lane.backlog.add(batch);
+		backlogRows += batch.size();
+		while (!drainBacklogs() && (backlogRows > maxBacklogRows || !anyLaneWaiting())) {
+			Thread.sleep(BACKLOG_POLL_MILLIS);
+		}
+	}
+
+	/**
+	 * @return true if a lane that has been given rows has none left queued or held back, so its
+	 * workers are about to run out of work
+	 */
+	private boolean anyLaneWaiting() {
+		for (Lane lane : lanes) {
+			if (lane.partition.getRowsRead() > 0 && lane.backlog.isEmpty() && lane.verifyQueue.isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Moves the batches held back into their verify queues, in order, while there is room
+	 * @return true if no batch is held back any more
+	 */
+	private boolean drainBacklogs() {
+		boolean drained = true;
+
+		for (Lane lane : lanes) {
+			while (!lane.backlog.isEmpty() && lane.verifyQueue.offer(lane.backlog.peek())) {
+				backlogRows -= lane.backlog.poll().size();
+			}
+			drained &= lane.backlog.isEmpty();
+		}
+		return drained;
+	}
+
+	/**
+	 * Verify stage: skips records the pre-filter finds hopeless, sends records whose address is
+	 * not already cached to Global Address, one per GET request or up to globalAddressBatchSize
+	 * per POST request, and passes fully verified records, with their fields updated, on to the
+	 * MAK stage
+	 */
+	private void verify(Lane lane) {
+		CountryPartition.bind(lane.partition);
+		try {
+			AddressBatch batch;
+			List<AddressRecord> records = new ArrayList<AddressRecord>(globalAddressBatchSize);
+
+			while ((batch = lane.verifyQueue.take()) != END_OF_BATCHES) {
+				for (int row = 0; row < batch.size(); row++) {
+					if (Main.worthVerifying(batch.get(row))) {
+						records.add(batch.get(row));
+					}
+					if (!records.isEmpty() && (records.size() == globalAddressBatchSize || row == batch.size() - 1)) {
+						verifyBatch(lane, records);
+						records.clear();
+					}
+				}
+			}
+
+			// The last verify worker of the lane to finish tells its MAK workers there is no more input
+			if (lane.runningVerifyThreads.decrementAndGet() == 0) {
+				for (int i = 0; i < lane.makThreads; i++) {
+					lane.makQueue.put(END_OF_RECORDS);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Verifies a batch of records and queues the fully verified ones for the MAK stage
+	 * @param lane lane of the records
+	 * @param batch
+	 * @throws InterruptedException if interrupted while waiting for room in the MAK queue
+	 */
+	private void verifyBatch(Lane lane, List<AddressRecord> batch) throws InterruptedException {
+		DeadLetterStore.clearFailure();
+		List<CoalescingCache.Lookup<GlobalAddressResult>> lookups =
+				new ArrayList<CoalescingCache.Lookup<GlobalAddressResult>>(batch.size());
+		List<CoalescingCache.Lookup<GlobalAddressResult>> owned =
+				new ArrayList<CoalescingCache.Lookup<GlobalAddressResult>>(batch.size());
+		List<AddressRecord> toSend = new ArrayList<AddressRecord>(batch.size());
+
+		// Only addresses that are neither cached nor in flight on another worker are sent
+		for (AddressRecord record : batch) {
+			CoalescingCache.Lookup<GlobalAddressResult> lookup = Main.verificationCache.begin(
+					AddressKey.ofInput(record));
+			lookups.add(lookup);
+			if (lookup.isOwner()) {
+				owned.add(lookup);
+				toSend.add(record);
+			}
+		}
+
+		if (!toSend.isEmpty()) {
+			List<GlobalAddressResult> results = null;
+			try {
+				if (toSend.size() == 1) {
+					results = Collections.singletonList(Main.sendGlobalAddressGETRequest(
+							Main.buildGlobalAddressGETRequest(toSend.get(0))));
+				} else {
+					results = Main.sendGlobalAddressPOSTRequest(toSend);
+				}
+			} catch (RuntimeException e) {
+				// Every row of the request is dead-lettered with the error
+				e.printStackTrace();
+				DeadLetterStore.noteFailure(e.toString(), null);
+			} finally {
+				for (int i = 0; i < owned.size(); i++) {
+					Main.verificationCache.complete(owned.get(i), results == null ? null : results.get(i));
+				}
+			}
+		}
+
+		for (int i = 0; i < batch.size(); i++) {
+			AddressRecord record = batch.get(i);
+			try {
+				GlobalAddressResult result = lookups.get(i).get();
+				if (result == null) {
+					Main.failRow(record.getRecordID(), DeadLetterStore.VERIFY, "No result from Global Address");
+					continue;
+				}
+				Main.storeVerification(record.getRecordID(), result);
+				String resultCodes = Main.getResultCodes(result);
+				Metrics.countResultCodes(resultCodes);
+				boolean accepted = Main.addressFullyVerified(resultCodes);
+				Main.learnVerified(record, result, accepted);
+
+				if (accepted) {
+					Metrics.count("rows_accepted");
+					lane.partition.countAccepted();
+					lane.makQueue.put(Main.updateParameters(record, result));
+				} else {
+					Metrics.count("rows_rejected");
+					lane.partition.countRejected();
+					Main.finishRow(record.getRecordID());
+					Metrics.count("rows_finished");
+				}
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				Main.failRow(record.getRecordID(), DeadLetterStore.ROW, e.toString());
+			}
+		}
+	}
+
+	/**
+	 * MAK stage: sends each verified record to Global MAK and queues its MAK id for write-back
+	 */
+	private void lookUpMak(Lane lane) {
+		CountryPartition.bind(lane.partition);
+		try {
+			AddressRecord record;
+
+			while ((record = lane.makQueue.take()) != END_OF_RECORDS) {
+				try {
+					String mak = Main.getMakId(record);
+					if (mak.isEmpty()) {
+						Main.failRow(record.getRecordID(), DeadLetterStore.MAK, "No MAK id from Global MAK");
+						continue;
+					}
+					record.setMak(mak);
+					lane.partition.countMakId();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+					Main.failRow(record.getRecordID(), DeadLetterStore.ROW, e.toString());
+					continue;
+				}
+				writeQueue.put(record);
+			}
+
+			// The last MAK worker of every lane to finish tells the write stage there is no more input
+			if (runningMakThreads.decrementAndGet() == 0) {
+				writeQueue.put(END_OF_RECORDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Write-back stage: queues the mak_id update of every record with a MAK id, sending a
+	 * batch whenever it is full or has waited for the flush interval
+	 */
+	private void write() {
+		try {
+			AddressRecord record;
+
+			while ((record = writeQueue.poll(WRITE_POLL_MILLIS, TimeUnit.MILLISECONDS)) != END_OF_RECORDS) {
+				if (record != null) {
+					makWriter.add(record.getRecordID(), record.getMak());
+					Metrics.count("rows_finished");
+				}
+				makWriter.flushIfDue();
+			}
+			makWriter.flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Queues and workers of the rows of one CountryPartition
+	 */
+	private class Lane {
+		private final CountryPartition partition;
+		private final BlockingQueue<AddressBatch> verifyQueue;
+		private final BlockingQueue<AddressRecord> makQueue;
+		private final Deque<AddressBatch> backlog = new ArrayDeque<AddressBatch>();
+		private final int verifyThreads;
+		private final int makThreads;
+		private final AtomicInteger runningVerifyThreads;
+		private AddressBatch batch = new AddressBatch(batchRows);
+
+		private Lane(CountryPartition partition, int queueCapacity, int defaultVerifyThreads, int defaultMakThreads) {
+			this.partition = partition;
+			this.verifyQueue = new ArrayBlockingQueue<AddressBatch>(Math.max(1, queueCapacity / batchRows));
+			this.makQueue = new ArrayBlockingQueue<AddressRecord>(queueCapacity);
+			this.verifyThreads = Math.max(1, partition.getVerifyThreads(defaultVerifyThreads));
+			this.makThreads = Math.max(1, partition.getMakThreads(defaultMakThreads));
+			this.runningVerifyThreads = new AtomicInteger(this.verifyThreads);
+		}
+	}
+}
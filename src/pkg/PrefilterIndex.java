@@ -0,0 +1,297 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * PrefilterIndex.java
+ *
+ * Program Description: In-memory index of Icelandic addresses that Global Address has
+ * accepted before, used to skip rows that cannot reach AV24/AV25 without calling it. The
+ * index holds the accepted postal codes and localities and a trie of the accepted
+ * thoroughfares. Thoroughfares match on their stem as well, so inflected forms such as
+ * Laugavegi for Laugavegur are found. It is loaded from the verification side table and
+ * learns every address accepted during the run.
+ *
+ * A row is skipped when:
+ * 	no address line has a premises number, i.e. a number other than a postal code at the
+ * 	start of a line, so the address cannot be verified to the building level, or
+ * 	once the index holds minIndexed addresses, neither its postal code, its locality nor
+ * 	any thoroughfare in its address lines is in the index.
+ * A sample of auditPercent of the rows to skip is sent anyway. Audited rows that are accepted
+ * are false skips, and their share of the audited rows is reported as the false-skip rate.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class PrefilterIndex {
+	// Shortest stem a thoroughfare matches on, and how many trailing letters inflection may change
+	private static final int MIN_STEM = 4;
+	private static final int INFLECTED_LETTERS = 2;
+
+	/**
+	 * What to do with a row before verification
+	 */
+	public enum Decision {
+		SEND, SKIP, AUDIT
+	}
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Set<String> postalCodes = new HashSet<String>();
+	private final Set<String> localities = new HashSet<String>();
+	private final Set<String> thoroughfares = new HashSet<String>();
+	private final Node root = new Node();
+	// Record IDs of the audited rows still being verified
+	private final Set<String> auditing = ConcurrentHashMap.newKeySet();
+	private final int minIndexed;
+	private final int auditPercent;
+
+	private long indexed = 0;
+	private final LongAdder checked = new LongAdder();
+	private final LongAdder skipped = new LongAdder();
+	private final LongAdder audited = new LongAdder();
+	private final LongAdder falseSkips = new LongAdder();
+
+	/**
+	 * @param minIndexed accepted addresses the index needs before it skips unknown places
+	 * @param auditPercent percentage of the rows to skip that are sent anyway
+	 */
+	public PrefilterIndex(int minIndexed, int auditPercent) {
+		this.minIndexed = Math.max(0, minIndexed);
+		this.auditPercent = Math.max(0, Math.min(100, auditPercent));
+	}
+
+	/**
+	 * Adds the corrected fields of an accepted verification result to the index
+	 * @param result
+	 */
+	public void add(GlobalAddressResult result) {
+		String postalCode = normalize(result.getCorrectedField(AddressRecord.POSTAL_CODE));
+		String locality = normalize(result.getCorrectedField(AddressRecord.LOCALITY));
+		String thoroughfare = normalize(result.getCorrectedField(AddressRecord.THOROUGHFARE));
+
+		lock.writeLock().lock();
+		try {
+			indexed++;
+			if (!postalCode.isEmpty()) {
+				postalCodes.add(postalCode);
+			}
+			if (!locality.isEmpty()) {
+				localities.add(locality);
+			}
+			if (thoroughfare.length() >= MIN_STEM && thoroughfares.add(thoroughfare)) {
+				insert(thoroughfare);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void insert(String thoroughfare) {
+		int stem = Math.max(MIN_STEM, thoroughfare.length() - INFLECTED_LETTERS);
+		Node node = root;
+
+		for (int i = 0; i < thoroughfare.length(); i++) {
+			node = node.child(thoroughfare.charAt(i), true);
+			if (i + 1 == stem) {
+				node.match = true;
+			}
+		}
+		node.match = true;
+	}
+
+	/**
+	 * Decides whether a row is worth a Global Address call
+	 * @param record row as read from the SQL Table
+	 * @return SEND to verify it, SKIP to skip it, or AUDIT to verify a row that would be skipped
+	 */
+	public Decision check(AddressRecord record) {
+		checked.increment();
+		Metrics.count("prefilter_checked");
+
+		if (!hopeless(record)) {
+			return Decision.SEND;
+		}
+		if (auditPercent > 0 && ThreadLocalRandom.current().nextInt(100) < auditPercent) {
+			audited.increment();
+			auditing.add(record.getRecordID());
+			Metrics.count("prefilter_audited");
+			return Decision.AUDIT;
+		}
+		skipped.increment();
+		Metrics.count("prefilter_skipped");
+		return Decision.SKIP;
+	}
+
+	private boolean hopeless(AddressRecord record) {
+		boolean premisesNumber = false;
+		boolean knownThoroughfare = false;
+		String postalCode = normalize(record.getPostalCode());
+
+		lock.readLock().lock();
+		try {
+			for (int line = 1; line <= AddressRecord.ADDRESS_LINES; line++) {
+				String[] words = normalize(record.getAddressLine(line)).split(" ");
+
+				for (int word = 0; word < words.length; word++) {
+					if (isNumber(words[word])) {
+						if (word == 0 && words[word].length() == 3) {
+							// A line such as "101 Reykjavik" starts with its postal code
+							postalCode = postalCode.isEmpty() ? words[word] : postalCode;
+						} else {
+							premisesNumber = true;
+						}
+					} else if (!knownThoroughfare && matchesThoroughfare(words[word])) {
+						knownThoroughfare = true;
+					}
+				}
+			}
+
+			if (!premisesNumber) {
+				return true;
+			}
+			return indexed >= minIndexed && !knownThoroughfare && !postalCodes.contains(postalCode)
+					&& !localities.contains(normalize(record.getLocality()));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private boolean matchesThoroughfare(String word) {
+		Node node = root;
+
+		for (int i = 0; i < word.length() && node != null; i++) {
+			node = node.child(word.charAt(i), false);
+			if (node != null && node.match) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param word
+	 * @return true for a premises or postal number such as 22, 22a or 101
+	 */
+	private static boolean isNumber(String word) {
+		int digits = 0;
+		while (digits < word.length() && Character.isDigit(word.charAt(digits))) {
+			digits++;
+		}
+		return digits > 0 && digits <= 4 && word.length() - digits <= 1;
+	}
+
+	/**
+	 * Learns the address of an accepted row, and counts an audited row that was accepted as a
+	 * false skip
+	 * @param recordID
+	 * @param result verification result of the row, or null if no response was retrieved
+	 * @param accepted true if the row was accepted for a MAK id
+	 */
+	public void verified(String recordID, GlobalAddressResult result, boolean accepted) {
+		if (auditing.remove(recordID) && accepted) {
+			falseSkips.increment();
+			Metrics.count("prefilter_false_skips");
+		}
+		if (accepted && result != null) {
+			add(result);
+		}
+	}
+
+	/**
+	 * @return number of accepted addresses added
+	 */
+	public long size() {
+		lock.readLock().lock();
+		try {
+			return indexed;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return skip rate and false-skip rate of the run
+	 */
+	public String report() {
+		long rows = checked.sum();
+		long audits = audited.sum();
+
+		return String.format("Pre-filter: %d rows checked, %d skipped (%.1f%%), %d audited, %d false skips "
+				+ "(%.1f%% of audited), %d addresses, %d thoroughfares indexed", rows, skipped.sum(),
+				rows == 0 ? 0.0 : 100.0 * skipped.sum() / rows, audits, falseSkips.sum(),
+				audits == 0 ? 0.0 : 100.0 * falseSkips.sum() / audits, size(), thoroughfareCount());
+	}
+
+	private int thoroughfareCount() {
+		lock.readLock().lock();
+		try {
+			return thoroughfares.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param value
+	 * @return value in lower case with punctuation replaced by single spaces, empty for null
+	 */
+	private static String normalize(String value) {
+		if (value == null) {
+			return "";
+		}
+
+		StringBuilder normalized = new StringBuilder(value.length());
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (Character.isLetterOrDigit(c)) {
+				normalized.append(c);
+			} else if (normalized.length() > 0 && normalized.charAt(normalized.length() - 1) != ' ') {
+				normalized.append(' ');
+			}
+		}
+		return normalized.toString().trim().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Trie node with its children kept in parallel arrays sorted by letter
+	 */
+	private static class Node {
+		private char[] letters = new char[0];
+		private Node[] children = new Node[0];
+		private boolean match = false;
+
+		Node child(char letter, boolean create) {
+			int index = Arrays.binarySearch(letters, letter);
+
+			if (index >= 0) {
+				return children[index];
+			}
+			if (!create) {
+				return null;
+			}
+
+			int insert = -index - 1;
+			char[] newLetters = new char[letters.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(letters, 0, newLetters, 0, insert);
+			System.arraycopy(children, 0, newChildren, 0, insert);
+			System.arraycopy(letters, insert, newLetters, insert + 1, letters.length - insert);
+			System.arraycopy(children, insert, newChildren, insert + 1, children.length - insert);
+			newLetters[insert] = letter;
+			newChildren[insert] = new Node();
+			letters = newLetters;
+			children = newChildren;
+			return newChildren[insert];
+		}
+	}
+}
@@ -0,0 +1,297 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * ProgressJournal.java
+ *
+ * Program Description: Crash-safe record of how far a run has got, used by --resume to
+ * restart after the last durable write-back instead of at the first row.
+ *
+ * Rows are registered in the order they are read (recID order) and marked done once they
+ * need no more work: either they were not accepted for a MAK id, or their MAK id update
+ * has been committed. The watermark is the last recID before which every row is done. At
+ * every sync interval the journal appends a snapshot of the watermark and of the rows past
+ * it that are already done, then fsyncs the file. Resuming starts reading after the
+ * watermark of the last complete snapshot and skips the rows listed in it.
+ *
+ * Snapshot format, one entry per line:
+ * 	W <recID>	watermark, absent until the first row is done
+ * 	D <recID>	row past the watermark that is done
+ * 	S	end of snapshot
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class ProgressJournal {
+	// The journal is rewritten with only its last snapshot once it grows past this size
+	private static final long MAX_JOURNAL_BYTES = 16L << 20;
+
+	private final File file;
+	private final long syncMillis;
+	private final Object fileLock = new Object();
+	private final LinkedHashMap<String, Boolean> inFlight = new LinkedHashMap<String, Boolean>();
+	private final Set<String> doneBeforeResume;
+	private final long startNanos = System.nanoTime();
+
+	private String resumeAfter;
+	private String watermark;
+	private boolean changed = false;
+	private FileOutputStream output;
+	private Writer writer;
+	private long bytesWritten = 0;
+	private long journalNanos = 0;
+	private Thread syncThread;
+	private volatile boolean closed = false;
+
+	/**
+	 * Opens the journal, reading the last complete snapshot of the previous run when resuming
+	 * @param file
+	 * @param resume true to continue the run recorded in the file, false to start a new one
+	 * @param syncMillis interval between snapshots
+	 * @throws IOException if the journal cannot be read or written
+	 */
+	public ProgressJournal(File file, boolean resume, long syncMillis) throws IOException {
+		this.file = file;
+		this.syncMillis = Math.max(10, syncMillis);
+		this.doneBeforeResume = new HashSet<String>();
+
+		if (resume && file.exists()) {
+			readLastSnapshot();
+			watermark = resumeAfter;
+		}
+
+		// Replace the old journal with the resumed state so a second crash loses nothing
+		writeSnapshot(new ArrayList<String>(doneBeforeResume));
+	}
+
+	private void readLastSnapshot() throws IOException {
+		String snapshotWatermark = null;
+		List<String> snapshotDone = new ArrayList<String>();
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+				StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("W ")) {
+					snapshotWatermark = line.substring(2);
+				} else if (line.startsWith("D ")) {
+					snapshotDone.add(line.substring(2));
+				} else if (line.equals("S")) {
+					// Only a snapshot that was written to its end counts
+					resumeAfter = snapshotWatermark;
+					doneBeforeResume.clear();
+					doneBeforeResume.addAll(snapshotDone);
+					snapshotWatermark = null;
+					snapshotDone.clear();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return recID to resume reading after, or null to read from the first row
+	 */
+	public String getResumeAfter() {
+		return resumeAfter;
+	}
+
+	/**
+	 * Registers a row that has just been read
+	 * @param recordID
+	 * @return false if the previous run already finished this row and it must be skipped
+	 */
+	public synchronized boolean started(String recordID) {
+		inFlight.put(recordID, Boolean.FALSE);
+
+		if (doneBeforeResume.contains(recordID)) {
+			finished(recordID);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Marks a row as needing no more work and advances the watermark past every leading
+	 * finished row
+	 * @param recordID
+	 */
+	public synchronized void finished(String recordID) {
+		if (inFlight.containsKey(recordID)) {
+			inFlight.put(recordID, Boolean.TRUE);
+		}
+
+		Iterator<Map.Entry<String, Boolean>> iterator = inFlight.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, Boolean> entry = iterator.next();
+			if (!entry.getValue()) {
+				break;
+			}
+			watermark = entry.getKey();
+			iterator.remove();
+		}
+		changed = true;
+	}
+
+	/**
+	 * Marks every row of a committed write-back batch as finished
+	 * @param recordIDs
+	 */
+	public synchronized void written(List<String> recordIDs) {
+		for (String recordID : recordIDs) {
+			finished(recordID);
+		}
+	}
+
+	private synchronized int inFlightCount() {
+		return inFlight.size();
+	}
+
+	/**
+	 * Starts writing a snapshot every sync interval
+	 */
+	public void startSyncing() {
+		syncThread = new Thread(() -> {
+			while (!closed) {
+				try {
+					Thread.sleep(syncMillis);
+				} catch (InterruptedException e) {
+					return;
+				}
+				sync();
+			}
+		}, "journal-sync");
+		syncThread.setDaemon(true);
+		syncThread.start();
+	}
+
+	/**
+	 * Appends and fsyncs a snapshot if any row has finished since the last one
+	 */
+	public void sync() {
+		List<String> done = new ArrayList<String>();
+
+		synchronized (this) {
+			if (!changed) {
+				return;
+			}
+			changed = false;
+			for (Map.Entry<String, Boolean> entry : inFlight.entrySet()) {
+				if (entry.getValue()) {
+					done.add(entry.getKey());
+				}
+			}
+		}
+
+		try {
+			writeSnapshot(done);
+		} catch (IOException e) {
+			System.out.println("ERROR IOException in ProgressJournal.sync() : Unable to write " + file);
+			e.printStackTrace();
+		}
+	}
+
+	private void writeSnapshot(List<String> done) throws IOException {
+		long start = System.nanoTime();
+
+		synchronized (fileLock) {
+			String snapshotWatermark;
+			synchronized (this) {
+				snapshotWatermark = watermark;
+			}
+
+			StringBuilder snapshot = new StringBuilder(64 + done.size() * 16);
+			if (snapshotWatermark != null) {
+				snapshot.append("W ").append(snapshotWatermark).append('\n');
+			}
+			for (String recordID : done) {
+				snapshot.append("D ").append(recordID).append('\n');
+			}
+			snapshot.append("S\n");
+
+			if (writer == null || bytesWritten > MAX_JOURNAL_BYTES) {
+				rewrite(snapshot);
+			} else {
+				writer.write(snapshot.toString());
+				writer.flush();
+				output.getChannel().force(false);
+			}
+			bytesWritten += snapshot.length();
+			journalNanos += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Replaces the journal with a file holding only the given snapshot
+	 * @param snapshot
+	 * @throws IOException if the new file cannot be written
+	 */
+	private void rewrite(StringBuilder snapshot) throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+
+		try (FileOutputStream rewritten = new FileOutputStream(temporary)) {
+			rewritten.write(snapshot.toString().getBytes(StandardCharsets.UTF_8));
+			rewritten.getChannel().force(false);
+		}
+		if (writer != null) {
+			writer.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+		output = new FileOutputStream(file, true);
+		writer = new OutputStreamWriter(output, StandardCharsets.UTF_8);
+		bytesWritten = 0;
+	}
+
+	/**
+	 * Writes a final snapshot and prints the time spent journaling. A journal of a run that
+	 * finished every row is deleted, since there is nothing left to resume
+	 * @param completed true if the run read up to the end of the table
+	 */
+	public void close(boolean completed) {
+		closed = true;
+		if (syncThread != null) {
+			syncThread.interrupt();
+		}
+
+		synchronized (this) {
+			changed = true;
+		}
+		sync();
+
+		synchronized (fileLock) {
+			try {
+				writer.close();
+				if (completed && inFlightCount() == 0) {
+					Files.deleteIfExists(file.toPath());
+				}
+			} catch (IOException e) {
+				System.out.println("ERROR IOException in ProgressJournal.close() : Unable to close " + file);
+				e.printStackTrace();
+			}
+		}
+
+		long runNanos = Math.max(1, System.nanoTime() - startNanos);
+		System.out.println(String.format("Progress journal: %.1f ms spent journaling (%.2f%% of run time)",
+				journalNanos / 1e6, journalNanos * 100.0 / runNanos));
+	}
+}
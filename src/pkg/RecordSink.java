@@ -0,0 +1,41 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * RecordSink.java
+ *
+ * Program Description: Destination of the MAK ids found for each row. MakWriter writes them
+ * back to the SQL Table in batches and FileMakWriter to a result file; other sinks such as the
+ * in-memory one of the benchmark implement the same methods.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+public interface RecordSink {
+	/**
+	 * Queues the MAK id of the row with the given record ID
+	 * @param recordID
+	 * @param mak
+	 */
+	void add(String recordID, String mak);
+
+	/**
+	 * Sends the queued MAK ids if they have waited long enough
+	 */
+	void flushIfDue();
+
+	/**
+	 * Sends every queued MAK id
+	 */
+	void flush();
+
+	/**
+	 * @return number of MAK ids that could not be sent
+	 */
+	long getRowsFailed();
+
+	/**
+	 * Sends anything still queued and prints the totals
+	 */
+	void close();
+}
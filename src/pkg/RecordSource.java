@@ -0,0 +1,36 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * RecordSource.java
+ *
+ * Program Description: Source of the rows to assign a MAK id to, read in recID order. The
+ * SQL Table is read through SqlRecordReader and extract files through FileRecordReader; other
+ * sources such as the in-memory rows of the benchmark implement the same methods so that Main
+ * and Pipeline do not depend on where the rows come from.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+public interface RecordSource {
+	/**
+	 * Starts reading after the given record ID instead of at the beginning
+	 * @param recordID
+	 */
+	void startAfter(String recordID);
+
+	/**
+	 * @return record of the next row, or null when every row has been read
+	 */
+	AddressRecord next();
+
+	/**
+	 * @return true if reading stopped because of an error rather than at the end of the rows
+	 */
+	boolean hasFailed();
+
+	/**
+	 * Releases anything held open if reading stopped before the last row
+	 */
+	void close();
+}
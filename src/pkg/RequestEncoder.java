@@ -0,0 +1,260 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * RequestEncoder.java
+ *
+ * Program Description: Encodes the Global Address GET URLs and the Global Address and Global
+ * MAK POST bodies of a record straight into a byte buffer that each worker thread reuses, in
+ * place of concatenating strings, building URIs and filling JSONObjects for every row. Text is
+ * written as UTF-8: in query strings every byte other than letters, digits and - _ . ~ is
+ * percent-encoded, and in JSON bodies quotes, backslashes and control characters are escaped,
+ * so Icelandic letters and characters such as & or # in an address reach the services intact.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+public class RequestEncoder {
+	private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+	private static final ThreadLocal<RequestEncoder> ENCODERS = ThreadLocal.withInitial(RequestEncoder::new);
+
+	// Global Address GET query parameters, in the order they are sent, and their record fields
+	private static final String[] QUERY_NAMES = { "a1", "a2", "a3", "a4", "a5", "a6", "a7", "a8", "ddeploc",
+			"deploc", "loc", "subadmarea", "admarea", "postal", "subNationalArea", "ctry" };
+	private static final int[] QUERY_FIELDS = { 0, 1, 2, 3, 4, 5, 6, 7, AddressRecord.DOUBLE_DEPENDENT_LOCALITY,
+			AddressRecord.DEPENDENT_LOCALITY, AddressRecord.LOCALITY, AddressRecord.SUB_ADMINISTRATIVE_AREA,
+			AddressRecord.ADMINISTRATIVE_AREA, AddressRecord.POSTAL_CODE, AddressRecord.SUB_NATIONAL_AREA,
+			AddressRecord.COUNTRY };
+
+	// Global Address POST record members for the input fields, in record field order
+	private static final String[] INPUT_MEMBERS = { "AddressLine1", "AddressLine2", "AddressLine3", "AddressLine4",
+			"AddressLine5", "AddressLine6", "AddressLine7", "AddressLine8", "Locality", "AdministrativeArea",
+			"PostalCode", "Country", "DependentLocality", "DoubleDependentLocality", "SubAdministrativeArea",
+			"SubNationalArea" };
+	// Global MAK members for every verified field, in record field order
+	private static final String[] MAK_MEMBERS = Arrays.copyOf(INPUT_MEMBERS, AddressRecord.FIELD_COUNT);
+
+	static {
+		MAK_MEMBERS[AddressRecord.THOROUGHFARE] = "Thoroughfare";
+		MAK_MEMBERS[AddressRecord.PREMISES_NUMBER] = "PremisesNumber";
+		MAK_MEMBERS[AddressRecord.SUB_PREMISES_NUMBER] = "SubPremisesNumber";
+	}
+
+	private byte[] buffer = new byte[2048];
+	private int length = 0;
+
+	private RequestEncoder() {
+	}
+
+	/**
+	 * @return the encoder of the calling thread; what it encodes stays valid until the thread
+	 * encodes its next request
+	 */
+	public static RequestEncoder forCurrentThread() {
+		return ENCODERS.get();
+	}
+
+	/**
+	 * Encodes the Global Address GET URL of a record
+	 * @param address web service address, without a query string
+	 * @param custID customer ID
+	 * @param record
+	 * @return the URL
+	 */
+	public String encodeGlobalAddressGET(String address, String custID, AddressRecord record) {
+		length = 0;
+		writeAscii(address);
+		writeAscii("?id=");
+		writePercentEncoded(custID);
+		for (int i = 0; i < QUERY_NAMES.length; i++) {
+			write('&');
+			writeAscii(QUERY_NAMES[i]);
+			write('=');
+			writePercentEncoded(record.getField(QUERY_FIELDS[i]));
+		}
+		writeAscii("&org=");
+		writePercentEncoded(record.getOrganization());
+		writeAscii("&format=json");
+
+		// Every byte of a percent-encoded URL is ASCII, so this is a plain copy
+		return new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Encodes a multi-record Global Address POST body into the buffer. Each record's RecordID is
+	 * its position in the batch, starting at 1
+	 * @param custID customer ID
+	 * @param batch
+	 */
+	public void encodeGlobalAddressPOST(String custID, List<AddressRecord> batch) {
+		length = 0;
+		writeAscii("{\"TransmissionReference\":\"\",\"CustomerID\":");
+		writeJsonString(custID);
+		writeAscii(",\"Options\":\"\",\"Records\":[");
+
+		for (int i = 0; i < batch.size(); i++) {
+			AddressRecord record = batch.get(i);
+
+			writeAscii(i == 0 ? "{\"RecordID\":\"" : ",{\"RecordID\":\"");
+			writeAscii(Integer.toString(i + 1));
+			writeAscii("\",\"Organization\":");
+			writeJsonString(record.getOrganization());
+			for (int field = 0; field < AddressRecord.INPUT_FIELD_COUNT; field++) {
+				writeJsonMember(INPUT_MEMBERS[field], record.getField(field));
+			}
+			write('}');
+		}
+		writeAscii("]}");
+	}
+
+	/**
+	 * Encodes the Global MAK POST body of a verified record into the buffer. The country is sent
+	 * as the record's country code, both as iso2 and in place of the country name returned by
+	 * Global Address
+	 * @param record
+	 */
+	public void encodeGlobalMakPOST(AddressRecord record) {
+		length = 0;
+		writeAscii("{\"iso2\":");
+		writeJsonString(record.getCountryCode());
+		for (int field = 0; field < AddressRecord.FIELD_COUNT; field++) {
+			writeJsonMember(MAK_MEMBERS[field], field == AddressRecord.COUNTRY ? record.getCountryCode()
+					: record.getField(field));
+		}
+		write('}');
+	}
+
+	/**
+	 * @return buffer holding the last encoded body from index 0 to getLength()
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return copy of the last encoded body as text, for debugging
+	 */
+	@Override
+	public String toString() {
+		return new String(buffer, 0, length, StandardCharsets.UTF_8);
+	}
+
+	private void writeJsonMember(String name, String value) {
+		write(',');
+		write('"');
+		writeAscii(name);
+		write('"');
+		write(':');
+		writeJsonString(value);
+	}
+
+	private void writeJsonString(String value) {
+		write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			if (c == '"' || c == '\\') {
+				write('\\');
+				write(c);
+			} else if (c < 0x20) {
+				writeAscii("\\u00");
+				write(HEX[c >> 4]);
+				write(HEX[c & 0xF]);
+			} else if (c < 0x80) {
+				write(c);
+			} else {
+				i = writeUtf8(value, i, false);
+			}
+		}
+		write('"');
+	}
+
+	private void writePercentEncoded(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_'
+					|| c == '.' || c == '~') {
+				write(c);
+			} else if (c < 0x80) {
+				writePercent(c);
+			} else {
+				i = writeUtf8(value, i, true);
+			}
+		}
+	}
+
+	/**
+	 * Writes the UTF-8 bytes of the non-ASCII character at the given index
+	 * @param value
+	 * @param index
+	 * @param percentEncode true to percent-encode every byte
+	 * @return index of the last char used, which is the next one for a surrogate pair
+	 */
+	private int writeUtf8(String value, int index, boolean percentEncode) {
+		int codePoint = value.codePointAt(index);
+		int last = index + Character.charCount(codePoint) - 1;
+
+		if (Character.isSurrogate(value.charAt(index)) && last == index) {
+			// An unpaired surrogate cannot be encoded
+			codePoint = '?';
+		}
+
+		if (codePoint < 0x80) {
+			writeByte(codePoint, percentEncode);
+		} else if (codePoint < 0x800) {
+			writeByte(0xC0 | (codePoint >> 6), percentEncode);
+			writeByte(0x80 | (codePoint & 0x3F), percentEncode);
+		} else if (codePoint < 0x10000) {
+			writeByte(0xE0 | (codePoint >> 12), percentEncode);
+			writeByte(0x80 | ((codePoint >> 6) & 0x3F), percentEncode);
+			writeByte(0x80 | (codePoint & 0x3F), percentEncode);
+		} else {
+			writeByte(0xF0 | (codePoint >> 18), percentEncode);
+			writeByte(0x80 | ((codePoint >> 12) & 0x3F), percentEncode);
+			writeByte(0x80 | ((codePoint >> 6) & 0x3F), percentEncode);
+			writeByte(0x80 | (codePoint & 0x3F), percentEncode);
+		}
+		return last;
+	}
+
+	private void writeByte(int b, boolean percentEncode) {
+		if (percentEncode) {
+			writePercent(b);
+		} else {
+			write(b);
+		}
+	}
+
+	private void writePercent(int b) {
+		write('%');
+		write(HEX[(b >> 4) & 0xF]);
+		write(HEX[b & 0xF]);
+	}
+
+	private void writeAscii(String text) {
+		ensureCapacity(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			buffer[length++] = (byte) text.charAt(i);
+		}
+	}
+
+	private void write(int b) {
+		ensureCapacity(1);
+		buffer[length++] = (byte) b;
+	}
+
+	private void ensureCapacity(int extra) {
+		if (length + extra > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * RequestHedger.java
+ *
+ * Program Description: Hedging policy of one web service. When a request has not been
+ * answered after the observed p95 latency of the service, ServiceHttpClient.java sends the
+ * same request again. The first answer wins and the other request is aborted, so a request
+ * stuck on a slow connection or server no longer decides how long its row waits. This is safe
+ * because both the Global Address verification and the Global MAK lookup are idempotent.
+ *
+ * Hedging starts once MIN_SAMPLES first tries have been timed, and at most maxPercent of the
+ * calls are hedged, so a slow service is not sent many more requests. A first try that loses to
+ * its hedge is timed up to when it was aborted. That is already beyond the hedge delay, so the
+ * percentile the delay is taken from is still right.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class RequestHedger {
+	// Number of calls between two updates of the hedge delay from the histogram
+	private static final int DELAY_REFRESH_CALLS = 100;
+	// First tries timed before the hedge delay is trusted
+	private static final int MIN_SAMPLES = 100;
+
+	private final String name;
+	private final double quantile;
+	private final int maxPercent;
+	private final LatencyHistogram firstTryLatency = new LatencyHistogram();
+	private final LatencyHistogram callLatency = new LatencyHistogram();
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder hedged = new LongAdder();
+	private final LongAdder hedgeWins = new LongAdder();
+
+	private volatile long delayNanos = -1;
+
+	/**
+	 * @param name web service name used in the report
+	 * @param percentile latency percentile after which a request is hedged, such as 95
+	 * @param maxPercent highest percentage of calls that may be hedged
+	 */
+	public RequestHedger(String name, int percentile, int maxPercent) {
+		this.name = name;
+		this.quantile = Math.max(1, Math.min(99, percentile)) / 100.0;
+		this.maxPercent = Math.max(0, maxPercent);
+	}
+
+	/**
+	 * Counts a call that is about to be sent
+	 * @return nanoseconds to wait for the first try before hedging, or -1 not to hedge this call
+	 */
+	public long beginCall() {
+		calls.increment();
+		long callCount = calls.sum();
+
+		if (callCount % DELAY_REFRESH_CALLS == 0 && firstTryLatency.getCount() >= MIN_SAMPLES) {
+			delayNanos = firstTryLatency.getQuantileNanos(quantile);
+		}
+		return delayNanos;
+	}
+
+	/**
+	 * @return true if a hedge may be sent without going over maxPercent of the calls
+	 */
+	public boolean mayHedge() {
+		if (hedged.sum() * 100 >= calls.sum() * maxPercent) {
+			return false;
+		}
+		hedged.increment();
+		return true;
+	}
+
+	/**
+	 * Times a call once it has been answered
+	 * @param firstTryNanos time the first try ran, until answered or aborted
+	 * @param callNanos time until the call was answered
+	 * @param hedgeWon true if the hedge answered first
+	 */
+	public void endCall(long firstTryNanos, long callNanos, boolean hedgeWon) {
+		firstTryLatency.record(firstTryNanos);
+		callLatency.record(callNanos);
+		if (hedgeWon) {
+			hedgeWins.increment();
+		}
+	}
+
+	public long getHedged() {
+		return hedged.sum();
+	}
+
+	public long getHedgeWins() {
+		return hedgeWins.sum();
+	}
+
+	/**
+	 * @return hedge rate and the p99 latency of the first tries next to that of the hedged calls
+	 */
+	public String report() {
+		long callCount = calls.sum();
+
+		return String.format("%s hedging: %d calls, %d hedged (%.1f%%), %d won by the hedge, hedge delay %.1f ms, "
+				+ "p99 of first tries at least %.1f ms, p99 with hedging %.1f ms", name, callCount, hedged.sum(),
+				callCount == 0 ? 0.0 : 100.0 * hedged.sum() / callCount, hedgeWins.sum(),
+				Math.max(0, delayNanos) / 1e6, firstTryLatency.getQuantileNanos(0.99) / 1e6,
+				callLatency.getQuantileNanos(0.99) / 1e6);
+	}
+}
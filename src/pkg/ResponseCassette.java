@@ -0,0 +1,355 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * ResponseCassette.java
+ *
+ * Program Description: Records the raw Global Address and Global MAK responses of a run, and
+ * replays them in a later run without calling the web services, so a profiling run over a
+ * production-sized table can be repeated offline and compared build to build without using
+ * licence credits.
+ *
+ * Each request is keyed on its web service and the first 128 bits of the SHA-256 hash of its
+ * query string or POST body, so the same rows give the same keys whatever the service URL. The
+ * cassette is an append-only file of compact binary records, each holding the key, the time
+ * the service took to answer and the raw response. Only the index of key to file position is
+ * held in memory, built by reading the record headers when the cassette is opened, and a
+ * response is read from the file when it is replayed, so lookups are O(1) and the cassette may
+ * be much larger than the heap.
+ *
+ * Which rows go into a batched Global Address POST depends on the timing of the workers, so a
+ * batch recorded in one run is not sent again in the next. Main.java therefore sends one
+ * address per Global Address request while a cassette is in use, whatever
+ * globalAddress.batchSize is set to.
+ *
+ * Modes:
+ * 	record	every request is sent to its web service and each successful response whose key
+ * 		is not yet on the cassette is appended to it.
+ * 	replay	every request is answered from the cassette, optionally after the time the web
+ * 		service took when it was recorded. A request that was not recorded fails without
+ * 		being retried.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class ResponseCassette {
+	public static final String RECORD = "record";
+	public static final String REPLAY = "replay";
+	public static final byte GLOBAL_ADDRESS = 'A';
+	public static final byte GLOBAL_MAK = 'M';
+
+	private static final int MAGIC = 0x4D414B52; // "MAKR"
+	private static final int VERSION = 1;
+	private static final int HEADER_LENGTH = 8;
+	// Service, two key longs, latency and response length
+	private static final int RECORD_HEADER_LENGTH = 1 + 8 + 8 + 4 + 4;
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final File file;
+	private final boolean replay;
+	private final boolean replayTiming;
+	private final Map<Key, Recording> index = new HashMap<Key, Recording>();
+	private DataOutputStream output;
+	private FileChannel channel;
+	private long length;
+	private long hits = 0;
+	private long misses = 0;
+	private long recorded = 0;
+
+	/**
+	 * Opens the cassette, creating it in record mode if it does not exist
+	 * @param file
+	 * @param mode RECORD or REPLAY
+	 * @param replayTiming true to answer a replayed request only after its recorded latency
+	 * @throws IOException if the cassette cannot be read, or cannot be created in record mode
+	 */
+	public ResponseCassette(File file, String mode, boolean replayTiming) throws IOException {
+		this.file = file;
+		this.replay = REPLAY.equalsIgnoreCase(mode);
+		this.replayTiming = replayTiming;
+
+		if (replay && !file.exists()) {
+			throw new IOException(file + " does not exist");
+		}
+		length = load();
+
+		if (replay) {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		} else {
+			openForAppend();
+		}
+	}
+
+	/**
+	 * Reads the header of every record into the index
+	 * @return length of the file up to the end of its last complete record
+	 * @throws IOException if the file exists but cannot be read
+	 */
+	private long load() throws IOException {
+		if (!file.exists() || file.length() < HEADER_LENGTH) {
+			return 0;
+		}
+
+		long position = HEADER_LENGTH;
+		try (DataInputStream input = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				throw new IOException(file + " is not a response cassette");
+			}
+
+			while (true) {
+				int service = input.read();
+				if (service < 0) {
+					break;
+				}
+				Key key = new Key((byte) service, input.readLong(), input.readLong());
+				int latencyMicros = input.readInt();
+				int responseLength = input.readInt();
+				if (responseLength < 0 || position + RECORD_HEADER_LENGTH + responseLength > file.length()) {
+					break;
+				}
+				skipFully(input, responseLength);
+
+				index.putIfAbsent(key, new Recording(position + RECORD_HEADER_LENGTH, responseLength,
+						latencyMicros));
+				position += RECORD_HEADER_LENGTH + responseLength;
+			}
+		} catch (EOFException e) {
+			// Last record was cut short by an interrupted run, it is dropped below
+		}
+
+		return position;
+	}
+
+	private static void skipFully(DataInputStream input, int count) throws IOException {
+		int remaining = count;
+		while (remaining > 0) {
+			int skipped = input.skipBytes(remaining);
+			if (skipped <= 0) {
+				throw new EOFException();
+			}
+			remaining -= skipped;
+		}
+	}
+
+	private void openForAppend() throws IOException {
+		if (length == 0) {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			length = HEADER_LENGTH;
+			return;
+		}
+
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.setLength(length);
+		}
+		output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), BUFFER_SIZE));
+	}
+
+	/**
+	 * Answers a request from the cassette in replay mode, or sends it and records its response
+	 * in record mode
+	 * @param service GLOBAL_ADDRESS or GLOBAL_MAK
+	 * @param request UTF-8 bytes of the query string or POST body of the request
+	 * @param requestLength number of bytes of the request
+	 * @param call sends the request to the web service
+	 * @return raw response
+	 * @throws IOException if the request failed, or was not recorded in replay mode
+	 */
+	public byte[] exchange(byte service, byte[] request, int requestLength, CallGovernor.Call<byte[]> call)
+			throws IOException {
+		Key key = Key.of(service, request, requestLength);
+
+		if (replay) {
+			return replay(key);
+		}
+
+		long start = System.nanoTime();
+		byte[] response = call.execute();
+		record(key, response, System.nanoTime() - start);
+		return response;
+	}
+
+	private byte[] replay(Key key) throws IOException {
+		Recording recording;
+		synchronized (this) {
+			recording = index.get(key);
+			if (recording == null) {
+				misses++;
+				throw new MissingResponseException("No response recorded in " + file + " for this request");
+			}
+			hits++;
+		}
+
+		// Positional reads do not move the channel, so workers read their responses in parallel
+		long start = System.nanoTime();
+		ByteBuffer response = ByteBuffer.allocate(recording.length);
+		while (response.hasRemaining()) {
+			if (channel.read(response, recording.position + response.position()) < 0) {
+				throw new EOFException(file + " ends inside a recorded response");
+			}
+		}
+
+		if (replayTiming) {
+			long remainingNanos = TimeUnit.MICROSECONDS.toNanos(recording.latencyMicros)
+					- (System.nanoTime() - start);
+			try {
+				TimeUnit.NANOSECONDS.sleep(Math.max(0, remainingNanos));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while replaying a response");
+			}
+		}
+		return response.array();
+	}
+
+	private synchronized void record(Key key, byte[] response, long latencyNanos) {
+		if (index.containsKey(key)) {
+			return;
+		}
+
+		int latencyMicros = (int) Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+		try {
+			output.writeByte(key.service);
+			output.writeLong(key.high);
+			output.writeLong(key.low);
+			output.writeInt(latencyMicros);
+			output.writeInt(response.length);
+			output.write(response);
+		} catch (IOException e) {
+			System.out.println("ERROR IOException in ResponseCassette.record() : Unable to write to " + file);
+			e.printStackTrace();
+			return;
+		}
+
+		index.put(key, new Recording(length + RECORD_HEADER_LENGTH, response.length, latencyMicros));
+		length += RECORD_HEADER_LENGTH + response.length;
+		recorded++;
+	}
+
+	/**
+	 * @return number of distinct requests on the cassette
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return one line summary of the responses replayed, missed or recorded
+	 */
+	public synchronized String report() {
+		if (replay) {
+			return String.format("Response cassette %s: %d responses, %d replayed, %d not recorded%s", file,
+					index.size(), hits, misses, replayTiming ? ", with recorded timing" : "");
+		}
+		return String.format("Response cassette %s: %d responses, %d recorded this run, %.1f MB", file,
+				index.size(), recorded, length / 1e6);
+	}
+
+	/**
+	 * Writes any pending records and closes the cassette
+	 */
+	public synchronized void close() {
+		try {
+			if (output != null) {
+				output.close();
+			}
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (IOException e) {
+			System.out.println("ERROR IOException in ResponseCassette.close() : Unable to close " + file);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Thrown in replay mode for a request that is not on the cassette. Sending it again cannot
+	 * help, so CallGovernor.java does not retry it
+	 */
+	public static class MissingResponseException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public MissingResponseException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Web service and 128-bit hash of a request
+	 */
+	private static final class Key {
+		private final byte service;
+		private final long high;
+		private final long low;
+
+		private Key(byte service, long high, long low) {
+			this.service = service;
+			this.high = high;
+			this.low = low;
+		}
+
+		private static Key of(byte service, byte[] request, int requestLength) {
+			MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				// Every Java platform is required to support SHA-256
+				throw new IllegalStateException(e);
+			}
+			digest.update(request, 0, requestLength);
+			ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+			return new Key(service, hash.getLong(), hash.getLong());
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return service == key.service && high == key.high && low == key.low;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (high ^ (high >>> 32)) * 31 + service;
+		}
+	}
+
+	/**
+	 * Where a recorded response is in the file and how long the web service took to send it
+	 */
+	private static final class Recording {
+		private final long position;
+		private final int length;
+		private final int latencyMicros;
+
+		private Recording(long position, int length, int latencyMicros) {
+			this.position = position;
+			this.length = length;
+			this.latencyMicros = latencyMicros;
+		}
+	}
+}
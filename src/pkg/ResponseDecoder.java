@@ -0,0 +1,358 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * ResponseDecoder.java
+ *
+ * Program Description: Streaming decoder for the Global Address and Global MAK responses. The
+ * UTF-8 response bytes are read once from start to end, and only the fields the program uses
+ * are kept: RecordID, Results and the corrected address fields of each Global Address record,
+ * and the _id of a Global MAK response. Every other value is skipped without being decoded,
+ * so no JSON objects, maps or strings are created for the roughly 30 unused fields of each
+ * record.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.simple.parser.ParseException;
+
+public class ResponseDecoder {
+	// Index 0 is RecordID, 1 is Results, and 2 onwards are the corrected fields in order
+	private static final byte[][] RECORD_FIELDS = new byte[GlobalAddressResult.CORRECTED_FIELD_NAMES.length + 2][];
+	private static final byte[] RECORDS = ascii("Records");
+	private static final byte[] MAK_ID = ascii("_id");
+
+	static {
+		RECORD_FIELDS[0] = ascii("RecordID");
+		RECORD_FIELDS[1] = ascii("Results");
+		for (int i = 0; i < GlobalAddressResult.CORRECTED_FIELD_NAMES.length; i++) {
+			RECORD_FIELDS[i + 2] = ascii(GlobalAddressResult.CORRECTED_FIELD_NAMES[i]);
+		}
+	}
+
+	private final byte[] json;
+	private int position;
+
+	private ResponseDecoder(byte[] json) {
+		this.json = json;
+	}
+
+	/**
+	 * Decodes every record of a Global Address response
+	 * @param response UTF-8 bytes of the response
+	 * @return results in the order the records appear in the response
+	 * @throws ParseException if the response is not valid JSON
+	 */
+	public static List<GlobalAddressResult> decodeGlobalAddress(byte[] response) throws ParseException {
+		ResponseDecoder decoder = new ResponseDecoder(response);
+		List<GlobalAddressResult> results = new ArrayList<GlobalAddressResult>();
+
+		decoder.expect('{');
+		if (!decoder.endOf('}')) {
+			do {
+				if (decoder.readKey(RECORDS)) {
+					decoder.readRecords(results);
+				} else {
+					decoder.skipValue();
+				}
+			} while (decoder.nextMember('}'));
+		}
+		return results;
+	}
+
+	/**
+	 * Decodes the MAK id of a Global MAK response
+	 * @param response UTF-8 bytes of the response
+	 * @return MAK id, or null if the response has no _id
+	 * @throws ParseException if the response is not valid JSON
+	 */
+	public static String decodeMakId(byte[] response) throws ParseException {
+		ResponseDecoder decoder = new ResponseDecoder(response);
+		String mak = null;
+
+		decoder.expect('{');
+		if (!decoder.endOf('}')) {
+			do {
+				if (decoder.readKey(MAK_ID)) {
+					mak = decoder.readValue();
+				} else {
+					decoder.skipValue();
+				}
+			} while (decoder.nextMember('}'));
+		}
+		return mak;
+	}
+
+	private void readRecords(List<GlobalAddressResult> results) throws ParseException {
+		if (peek() == 'n') {
+			skipValue();
+			return;
+		}
+
+		expect('[');
+		if (endOf(']')) {
+			return;
+		}
+		do {
+			results.add(readRecord());
+		} while (nextMember(']'));
+	}
+
+	private GlobalAddressResult readRecord() throws ParseException {
+		String[] values = new String[RECORD_FIELDS.length];
+
+		expect('{');
+		if (!endOf('}')) {
+			do {
+				int field = readKey();
+				if (field >= 0) {
+					values[field] = readValue();
+				} else {
+					skipValue();
+				}
+			} while (nextMember('}'));
+		}
+
+		String[] correctedFields = new String[RECORD_FIELDS.length - 2];
+		for (int i = 0; i < correctedFields.length; i++) {
+			correctedFields[i] = values[i + 2] == null ? "" : values[i + 2];
+		}
+		return new GlobalAddressResult(values[0] == null ? "" : values[0], values[1] == null ? "" : values[1],
+				correctedFields);
+	}
+
+	/**
+	 * Reads a member name and the colon after it
+	 * @param name
+	 * @return true if the member name is the given name
+	 */
+	private boolean readKey(byte[] name) throws ParseException {
+		peek();
+		int start = position + 1;
+		int end = skipString();
+		expect(':');
+		return matches(start, end, name);
+	}
+
+	/**
+	 * Reads a member name and the colon after it
+	 * @return index of the name in RECORD_FIELDS, or -1 if the field is not used
+	 */
+	private int readKey() throws ParseException {
+		peek();
+		int start = position + 1;
+		int end = skipString();
+		expect(':');
+
+		for (int i = 0; i < RECORD_FIELDS.length; i++) {
+			if (matches(start, end, RECORD_FIELDS[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean matches(int start, int end, byte[] name) {
+		if (end - start != name.length) {
+			return false;
+		}
+		for (int i = 0; i < name.length; i++) {
+			if (json[start + i] != name[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads a value as text: strings are unescaped, null becomes an empty string and numbers
+	 * and booleans are returned as written
+	 */
+	private String readValue() throws ParseException {
+		byte next = peek();
+
+		if (next == '"') {
+			return readString();
+		}
+		if (next == '{' || next == '[') {
+			throw error();
+		}
+
+		int start = position;
+		skipValue();
+		String literal = new String(json, start, position - start, StandardCharsets.US_ASCII).trim();
+		return literal.equals("null") ? "" : literal;
+	}
+
+	private String readString() throws ParseException {
+		peek();
+		int start = position + 1;
+		int end = skipString();
+
+		// Only strings with escapes need more than a single decode of their bytes
+		for (int i = start; i < end; i++) {
+			if (json[i] == '\\') {
+				return unescape(start, end);
+			}
+		}
+		return new String(json, start, end - start, StandardCharsets.UTF_8);
+	}
+
+	private String unescape(int start, int end) throws ParseException {
+		StringBuilder value = new StringBuilder(end - start);
+		int run = start;
+
+		for (int i = start; i < end; i++) {
+			if (json[i] != '\\') {
+				continue;
+			}
+			value.append(new String(json, run, i - run, StandardCharsets.UTF_8));
+
+			byte escaped = json[++i];
+			switch (escaped) {
+			case 'b':
+				value.append('\b');
+				break;
+			case 'f':
+				value.append('\f');
+				break;
+			case 'n':
+				value.append('\n');
+				break;
+			case 'r':
+				value.append('\r');
+				break;
+			case 't':
+				value.append('\t');
+				break;
+			case 'u':
+				if (i + 4 >= end) {
+					throw error();
+				}
+				try {
+					value.append((char) Integer.parseInt(new String(json, i + 1, 4, StandardCharsets.US_ASCII), 16));
+				} catch (NumberFormatException e) {
+					throw error();
+				}
+				i += 4;
+				break;
+			default:
+				value.append((char) escaped);
+			}
+			run = i + 1;
+		}
+		value.append(new String(json, run, end - run, StandardCharsets.UTF_8));
+		return value.toString();
+	}
+
+	/**
+	 * Moves past the string at the current position. The bytes of multi-byte UTF-8 characters
+	 * are all above 0x7F, so they can never be mistaken for a quote or a backslash
+	 * @return position of the closing quote
+	 */
+	private int skipString() throws ParseException {
+		expect('"');
+
+		while (position < json.length) {
+			byte next = json[position++];
+			if (next == '\\') {
+				position++;
+			} else if (next == '"') {
+				return position - 1;
+			}
+		}
+		throw error();
+	}
+
+	private void skipValue() throws ParseException {
+		byte next = peek();
+
+		if (next == '"') {
+			skipString();
+		} else if (next == '{' || next == '[') {
+			// Skip to the matching close, stepping over strings that may contain brackets
+			int depth = 0;
+			do {
+				next = peek();
+				if (next == '"') {
+					skipString();
+					continue;
+				}
+				if (next == '{' || next == '[') {
+					depth++;
+				} else if (next == '}' || next == ']') {
+					depth--;
+				}
+				position++;
+			} while (depth > 0);
+		} else {
+			while (position < json.length && json[position] != ',' && json[position] != '}'
+					&& json[position] != ']') {
+				position++;
+			}
+		}
+	}
+
+	/**
+	 * @param close closing bracket of the current object or array
+	 * @return true if another member follows, false if the object or array has ended
+	 */
+	private boolean nextMember(char close) throws ParseException {
+		byte next = peek();
+		position++;
+
+		if (next == ',') {
+			return true;
+		}
+		if (next == close) {
+			return false;
+		}
+		throw error();
+	}
+
+	/**
+	 * @param close
+	 * @return true, moving past it, if the next character closes an empty object or array
+	 */
+	private boolean endOf(char close) throws ParseException {
+		if (peek() == close) {
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(char expected) throws ParseException {
+		if (peek() != expected) {
+			throw error();
+		}
+		position++;
+	}
+
+	/**
+	 * @return next character that is not whitespace, without moving past it
+	 */
+	private byte peek() throws ParseException {
+		while (position < json.length) {
+			byte next = json[position];
+			if (next != ' ' && next != '\n' && next != '\r' && next != '\t') {
+				return next;
+			}
+			position++;
+		}
+		throw new ParseException(position, ParseException.ERROR_UNEXPECTED_EXCEPTION, "end of response");
+	}
+
+	private ParseException error() {
+		Object token = position < json.length ? Character.valueOf((char) json[position]) : null;
+		return new ParseException(position, ParseException.ERROR_UNEXPECTED_CHAR, token);
+	}
+
+	private static byte[] ascii(String name) {
+		return name.getBytes(StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * ResultCodes.java
+ *
+ * Program Description: Set of Global Address result codes, such as AV24,GS05,AC01, kept as a
+ * bitset. Each code family (AV, AC, AE, GS, GE) has one 64-bit word in which bit n stands for
+ * code number n, so a set stores in a few bytes and a policy check is a few AND operations.
+ * Codes of any other family are kept as text.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TreeSet;
+
+public class ResultCodes {
+	private static final String[] FAMILIES = { "AV", "AC", "AE", "GS", "GE" };
+
+	private final long[] words = new long[FAMILIES.length];
+	private final TreeSet<String> otherCodes = new TreeSet<String>();
+
+	private ResultCodes() {
+	}
+
+	/**
+	 * @param codes comma split string containing list of result codes
+	 * @return set of the codes
+	 */
+	public static ResultCodes parse(String codes) {
+		ResultCodes set = new ResultCodes();
+
+		for (String code : codes.split(",")) {
+			set.add(code.trim().toUpperCase(Locale.ROOT));
+		}
+		return set;
+	}
+
+	/**
+	 * @param bits bitset written by toBytes(), or null for none
+	 * @param otherCodes comma split string of the codes outside the bitset, or null for none
+	 * @return set of the codes
+	 */
+	public static ResultCodes fromBytes(byte[] bits, String otherCodes) {
+		ResultCodes set = otherCodes == null ? new ResultCodes() : parse(otherCodes);
+
+		if (bits != null) {
+			ByteBuffer buffer = ByteBuffer.wrap(bits);
+			for (int word = 0; word < set.words.length && buffer.remaining() >= 8; word++) {
+				set.words[word] = buffer.getLong();
+			}
+		}
+		return set;
+	}
+
+	private void add(String code) {
+		if (code.isEmpty()) {
+			return;
+		}
+
+		int family = code.length() == 4 ? Arrays.asList(FAMILIES).indexOf(code.substring(0, 2)) : -1;
+		if (family >= 0 && Character.isDigit(code.charAt(2)) && Character.isDigit(code.charAt(3))) {
+			int number = Integer.parseInt(code.substring(2));
+			if (number < 64) {
+				words[family] |= 1L << number;
+				return;
+			}
+		}
+		otherCodes.add(code);
+	}
+
+	/**
+	 * @param code such as AV24
+	 * @return true if the code is in the set
+	 */
+	public boolean contains(String code) {
+		return intersects(parse(code));
+	}
+
+	/**
+	 * @param codes
+	 * @return true if any code is in both sets
+	 */
+	public boolean intersects(ResultCodes codes) {
+		for (int word = 0; word < words.length; word++) {
+			if ((words[word] & codes.words[word]) != 0) {
+				return true;
+			}
+		}
+		for (String code : codes.otherCodes) {
+			if (otherCodes.contains(code)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the bitset, without the trailing empty words
+	 */
+	public byte[] toBytes() {
+		int used = words.length;
+		while (used > 0 && words[used - 1] == 0) {
+			used--;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(used * 8);
+		for (int word = 0; word < used; word++) {
+			buffer.putLong(words[word]);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * @return comma split string of the codes outside the bitset, or null if there are none
+	 */
+	public String getOtherCodes() {
+		return otherCodes.isEmpty() ? null : String.join(",", otherCodes);
+	}
+
+	/**
+	 * @return comma split string of every code, by family and number
+	 */
+	@Override
+	public String toString() {
+		StringBuilder codes = new StringBuilder();
+
+		for (int family = 0; family < FAMILIES.length; family++) {
+			for (int number = 0; number < 64; number++) {
+				if ((words[family] & (1L << number)) != 0) {
+					codes.append(codes.length() == 0 ? "" : ",").append(FAMILIES[family])
+							.append(number < 10 ? "0" : "").append(number);
+				}
+			}
+		}
+		for (String code : otherCodes) {
+			codes.append(codes.length() == 0 ? "" : ",").append(code);
+		}
+		return codes.toString();
+	}
+}
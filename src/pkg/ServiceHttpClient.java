@@ -0,0 +1,339 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * ServiceHttpClient.java
+ *
+ * Program Description: One long-lived HTTP client shared by the Global Address and Global MAK
+ * calls. Connections are kept alive and pooled per route and requests have connect and read
+ * timeouts. Each worker thread sends its own requests and waits for the answer; the client
+ * only runs requests on its own threads to hedge them.
+ *
+ * The read timeout only bounds each wait for data, so every request also has a deadline
+ * after which it is aborted, however slowly data is still arriving. Given a RequestHedger,
+ * a request not answered within its hedge delay is sent a second time from the hedge threads;
+ * the first answer is returned and the other request is aborted.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+public class ServiceHttpClient {
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final CloseableHttpClient httpClient;
+	private final ExecutorService hedgeExecutor;
+	private final ScheduledExecutorService timer;
+	private final long deadlineMillis;
+	private final long hedgeWaitMillis;
+
+	/**
+	 * @param maxConnectionsPerRoute connections kept open to each web service host
+	 * @param connectTimeoutMillis longest time to wait for a connection to be established
+	 * @param readTimeoutMillis longest time to wait for data once connected
+	 * @param deadlineMillis longest time a request may take from start to end, 0 for none
+	 */
+	public ServiceHttpClient(int maxConnectionsPerRoute, int connectTimeoutMillis, int readTimeoutMillis,
+			int deadlineMillis) {
+		int perRoute = Math.max(1, maxConnectionsPerRoute);
+		this.deadlineMillis = Math.max(0, deadlineMillis);
+		// Without a deadline a hedge is waited for as long as one request may wait for a connection and data
+		this.hedgeWaitMillis = this.deadlineMillis > 0 ? this.deadlineMillis
+				: (long) Math.max(0, connectTimeoutMillis) + Math.max(0, readTimeoutMillis);
+
+		connectionManager = new PoolingHttpClientConnectionManager(60, TimeUnit.SECONDS);
+		connectionManager.setDefaultMaxPerRoute(perRoute);
+		connectionManager.setMaxTotal(perRoute * 2);
+		connectionManager.setValidateAfterInactivity(2000);
+
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(connectTimeoutMillis)
+				.setConnectionRequestTimeout(connectTimeoutMillis)
+				.setSocketTimeout(readTimeoutMillis)
+				.build();
+
+		httpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+				.evictIdleConnections(30, TimeUnit.SECONDS)
+				.build();
+
+		hedgeExecutor = Executors.newFixedThreadPool(perRoute * 2, runnable -> {
+			Thread thread = new Thread(runnable, "http-hedge");
+			thread.setDaemon(true);
+			return thread;
+		});
+		timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "http-deadline");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Sends a GET request, hedged by the given policy, and returns the undecoded response body
+	 * @param url
+	 * @param hedger hedging policy of the web service, or null not to hedge
+	 * @return response body
+	 * @throws IOException if the request fails or the response code is not 200
+	 */
+	public byte[] getBytes(String url, RequestHedger hedger) throws IOException {
+		return execute(hedge -> new HttpGet(url), hedger);
+	}
+
+	/**
+	 * Sends a POST request with a UTF-8 JSON body held in a reusable buffer, hedged by the given
+	 * policy, and returns the undecoded response body. The buffer must not change until the
+	 * call returns; a hedge sends a copy, since it may still be running when the call returns
+	 * @param url
+	 * @param body
+	 * @param length bytes of the body, from index 0
+	 * @param hedger hedging policy of the web service, or null not to hedge
+	 * @return response body
+	 * @throws IOException if the request fails or the response code is not 200
+	 */
+	public byte[] postBytes(String url, byte[] body, int length, RequestHedger hedger) throws IOException {
+		return execute(hedge -> {
+			HttpPost post = new HttpPost(url);
+			post.setEntity(hedge ? new ByteArrayEntity(Arrays.copyOf(body, length), ContentType.APPLICATION_JSON)
+					: new ByteArrayEntity(body, 0, length, ContentType.APPLICATION_JSON));
+			return post;
+		}, hedger);
+	}
+
+	/**
+	 * Sends a request under the deadline, hedging it if the given policy says so
+	 * @param requests creates the request, and its hedge if one is sent
+	 * @param hedger hedging policy of the web service, or null not to hedge
+	 * @return body of the first response
+	 * @throws IOException of the first try if no try succeeded, or if the deadline passed
+	 */
+	private byte[] execute(RequestFactory requests, RequestHedger hedger) throws IOException {
+		if (deadlineMillis == 0 && hedger == null) {
+			return execute(requests.create(false));
+		}
+		// Every call of a hedged service is timed, so the hedge delay can be learned before the first hedge
+		long hedgeDelayNanos = hedger == null ? -1 : hedger.beginCall();
+
+		Attempt attempt = new Attempt(requests.create(false));
+		ScheduledFuture<?> deadline = deadlineMillis == 0 ? null
+				: timer.schedule(attempt::expire, deadlineMillis, TimeUnit.MILLISECONDS);
+		ScheduledFuture<?> hedgeTimer = hedgeDelayNanos < 0 ? null
+				: timer.schedule(() -> attempt.hedge(requests, hedger), hedgeDelayNanos, TimeUnit.NANOSECONDS);
+		long start = System.nanoTime();
+		boolean wasInterrupted = Thread.currentThread().isInterrupted();
+		try {
+			byte[] body = execute(attempt.first);
+			if (hedger != null) {
+				long nanos = System.nanoTime() - start;
+				hedger.endCall(nanos, nanos, false);
+			}
+			return body;
+		} catch (IOException e) {
+			long firstTryNanos = System.nanoTime() - start;
+			if (attempt.firstAborted && !wasInterrupted) {
+				// Aborting a request still waiting for a pooled connection interrupts its thread
+				Thread.interrupted();
+			}
+			byte[] body = attempt.awaitHedge();
+
+			if (body != null) {
+				hedger.endCall(firstTryNanos, System.nanoTime() - start, true);
+				return body;
+			}
+			if (attempt.expired) {
+				throw new DeadlineExceededException(deadlineMillis);
+			}
+			throw e;
+		} finally {
+			attempt.finish();
+			if (deadline != null) {
+				deadline.cancel(false);
+			}
+			if (hedgeTimer != null) {
+				hedgeTimer.cancel(false);
+			}
+		}
+	}
+
+	private byte[] execute(HttpRequestBase request) throws IOException {
+		try (CloseableHttpResponse response = httpClient.execute(request)) {
+			int statusCode = response.getStatusLine().getStatusCode();
+
+			if (statusCode != 200) {
+				// Consume the body so the connection can go back to the pool
+				EntityUtils.consume(response.getEntity());
+				throw new HttpStatusException(statusCode);
+			}
+
+			return EntityUtils.toByteArray(response.getEntity());
+		} finally {
+			request.releaseConnection();
+		}
+	}
+
+	/**
+	 * Closes every pooled connection and stops the hedge threads
+	 */
+	public void close() {
+		hedgeExecutor.shutdown();
+		timer.shutdownNow();
+		try {
+			httpClient.close();
+		} catch (IOException e) {
+			System.out.println("ERROR IOException in ServiceHttpClient.close() : Unable to close HTTP client.");
+			e.printStackTrace();
+		}
+		connectionManager.shutdown();
+	}
+
+	private interface RequestFactory {
+		/**
+		 * @param hedge true for the hedge of a request already sent
+		 * @return new request
+		 */
+		HttpRequestBase create(boolean hedge);
+	}
+
+	/**
+	 * One call: its first try, the hedge if one was sent, and whether the deadline passed
+	 */
+	private class Attempt {
+		private final HttpRequestBase first;
+		private HttpRequestBase hedge;
+		private CompletableFuture<byte[]> hedgeResponse;
+		private boolean finished = false;
+		private volatile boolean expired = false;
+		private volatile boolean firstAborted = false;
+
+		Attempt(HttpRequestBase first) {
+			this.first = first;
+		}
+
+		/**
+		 * Sends the hedge from a hedge thread unless the first try is over or the budget is spent
+		 * @param requests
+		 * @param hedger
+		 */
+		synchronized void hedge(RequestFactory requests, RequestHedger hedger) {
+			if (finished || expired || !hedger.mayHedge()) {
+				return;
+			}
+
+			final HttpRequestBase request = requests.create(true);
+			final CompletableFuture<byte[]> response = new CompletableFuture<byte[]>();
+			hedge = request;
+			hedgeResponse = response;
+			hedgeExecutor.execute(() -> {
+				try {
+					response.complete(execute(request));
+					// The first try is no longer needed once the hedge has answered
+					firstAborted = true;
+					first.abort();
+				} catch (IOException | RuntimeException e) {
+					Thread.interrupted();
+					response.completeExceptionally(e);
+				}
+			});
+		}
+
+		/**
+		 * Waits for the hedge after the first try failed, stopping any new hedge
+		 * @return body of the hedge's response, or null if there was no hedge or it failed too
+		 */
+		byte[] awaitHedge() {
+			CompletableFuture<byte[]> response;
+			synchronized (this) {
+				finished = true;
+				response = hedgeResponse;
+			}
+			if (response == null) {
+				return null;
+			}
+
+			try {
+				// The deadline aborts the hedge too; without one, finish() aborts a hedge that took too long
+				return response.get(hedgeWaitMillis, TimeUnit.MILLISECONDS);
+			} catch (ExecutionException | TimeoutException e) {
+				return null;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+
+		/**
+		 * Ends the call, aborting a hedge that is still running
+		 */
+		synchronized void finish() {
+			finished = true;
+			if (hedge != null && !hedgeResponse.isDone()) {
+				hedge.abort();
+			}
+		}
+
+		/**
+		 * Aborts every try once the deadline has passed
+		 */
+		synchronized void expire() {
+			expired = true;
+			firstAborted = true;
+			first.abort();
+			if (hedge != null) {
+				hedge.abort();
+			}
+		}
+	}
+
+	/**
+	 * Thrown when a request has not been answered by its deadline
+	 */
+	public static class DeadlineExceededException extends InterruptedIOException {
+		private static final long serialVersionUID = 1L;
+
+		public DeadlineExceededException(long deadlineMillis) {
+			super("No response within the deadline of " + deadlineMillis + " ms");
+		}
+	}
+
+	/**
+	 * Thrown when a web service answers with a response code other than 200 (Success)
+	 */
+	public static class HttpStatusException extends IOException {
+		private static final long serialVersionUID = 1L;
+		private final int statusCode;
+
+		public HttpStatusException(int statusCode) {
+			super("Returned response code is not 200 (Success) : " + statusCode);
+			this.statusCode = statusCode;
+		}
+
+		public int getStatusCode() {
+			return statusCode;
+		}
+	}
+}
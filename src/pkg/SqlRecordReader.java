@@ -0,0 +1,243 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * SqlRecordReader.java
+ *
+ * Program Description: Streams the rows of the SQL Table one at a time by paging through it
+ * in recID order (keyset pagination). Each page is a short query of at most pageSize rows
+ * starting after the last recID read, so no cursor is held open for the whole run and a
+ * dropped connection only costs a retry of the current page. Reading can also be limited to
+ * one recID range, such as a range leased by LeaseCoordinator.java, and to the rows matching
+ * extra conditions, such as the changed rows of an incremental run.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SqlRecordReader implements RecordSource {
+	private static final int PAGE_RETRIES = 3;
+
+	private final ConnectionPool connectionPool;
+	private final String selectSql;
+	private final String countSql;
+	private final String missingMakCondition;
+	private final List<String> conditions = new ArrayList<String>();
+	private final List<Object> conditionParameters = new ArrayList<Object>();
+	private final int pageSize;
+	private final int fetchSize;
+
+	private Connection connection;
+	private PreparedStatement statement;
+	private ResultSet resultSet;
+	private String lastRecordID;
+	private String throughRecordID;
+	private int rowsInPage = 0;
+	private boolean finished = false;
+	private boolean failed = false;
+
+	/**
+	 * @param connectionPool pool the page queries are sent through
+	 * @param databaseTable SQL Table to read
+	 * @param pageSize maximum number of rows selected per query
+	 * @param fetchSize number of rows the driver fetches per round trip
+	 * @param onlyMissingMak true to skip rows that already have a mak_id
+	 */
+	public SqlRecordReader(ConnectionPool connectionPool, String databaseTable, int pageSize, int fetchSize,
+			boolean onlyMissingMak) {
+		this.connectionPool = connectionPool;
+		this.pageSize = Math.max(1, pageSize);
+		this.fetchSize = Math.max(1, fetchSize);
+
+		String select = "SELECT DISTINCT TOP (" + this.pageSize + ") [recID], [Address1],[Address2],[Address3]"
+				+ ",[Address4],[Address5],[Address6],[Address7],[Address8],[Locality]"
+				+ ",[AdministrativeArea],[PostalCode],[CountryCode],[DependentLocality]"
+				+ ",[DoubleDependentLocality],[SubAdministrativeArea],[SubNationalArea]"
+				+ " FROM " + databaseTable;
+		this.selectSql = select;
+		this.countSql = "SELECT COUNT_BIG(*) FROM " + databaseTable;
+		this.missingMakCondition = onlyMissingMak ? "[mak_id] IS NULL" : null;
+	}
+
+	/**
+	 * Starts reading after the given record ID instead of at the beginning of the table
+	 * @param recordID
+	 */
+	@Override
+	public void startAfter(String recordID) {
+		this.lastRecordID = recordID;
+	}
+
+	/**
+	 * Reads only the rows that also match the given condition. Call before the first row is read
+	 * @param condition SQL condition on the columns of the SQL Table, with a ? for each parameter
+	 * @param parameters
+	 */
+	public void addCondition(String condition, Object... parameters) {
+		conditions.add("(" + condition + ")");
+		for (Object parameter : parameters) {
+			conditionParameters.add(parameter);
+		}
+	}
+
+	/**
+	 * Restarts reading at the given recID range, dropping the rest of the current one
+	 * @param afterRecordID rows after this record ID are read, or null to read from the start
+	 * of the table
+	 * @param throughRecordID last record ID read, or null to read to the end of the table
+	 */
+	public void readRange(String afterRecordID, String throughRecordID) {
+		if (resultSet != null) {
+			closePage();
+		}
+		this.lastRecordID = afterRecordID;
+		this.throughRecordID = throughRecordID;
+		this.finished = false;
+	}
+
+	/**
+	 * Returns the next row, querying the next page when the current one is used up
+	 * @return record of the row, or null when every row has been read
+	 */
+	@Override
+	public AddressRecord next() {
+		for (int attempt = 1; !finished; attempt++) {
+			try {
+				if (resultSet == null) {
+					openPage();
+				}
+
+				if (resultSet.next()) {
+					rowsInPage++;
+					Metrics.count("rows_read");
+					AddressRecord record = Main.getRecordFromResultSet(resultSet);
+					lastRecordID = record.getRecordID();
+					return record;
+				}
+
+				// A short page means the end of the table has been reached
+				finished = rowsInPage < pageSize;
+				closePage();
+				attempt = 0;
+			} catch (SQLException e) {
+				closePage();
+
+				if (attempt >= PAGE_RETRIES) {
+					System.out.println("ERROR SQLException in SqlRecordReader.next() : "
+							+ "Unable to read page after recID " + lastRecordID + ".");
+					e.printStackTrace();
+					finished = true;
+					failed = true;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Counts the rows left to read, after the current record ID and within the current range
+	 * and conditions
+	 * @return number of rows
+	 * @throws SQLException if the rows cannot be counted
+	 */
+	public long countRows() throws SQLException {
+		Connection countConnection = connectionPool.borrow();
+		try (PreparedStatement countStatement = prepare(countConnection, countSql, "");
+				ResultSet counted = countStatement.executeQuery()) {
+			return counted.next() ? counted.getLong(1) : 0;
+		} finally {
+			connectionPool.release(countConnection);
+		}
+	}
+
+	/**
+	 * @return true if reading stopped because a page could not be read
+	 */
+	@Override
+	public boolean hasFailed() {
+		return failed;
+	}
+
+	private void openPage() throws SQLException {
+		long start = System.nanoTime();
+		connection = connectionPool.borrow();
+
+		statement = prepare(connection, selectSql, " ORDER BY [recID]");
+		statement.setFetchSize(fetchSize);
+		resultSet = statement.executeQuery();
+		rowsInPage = 0;
+		Metrics.stage(Metrics.SQL_READ).recordSince(start);
+	}
+
+	/**
+	 * Prepares a query limited to the rows still to be read
+	 * @param connection
+	 * @param sql query without its WHERE clause
+	 * @param orderBy clause following the WHERE clause
+	 * @return statement with its parameters set
+	 * @throws SQLException if the statement cannot be prepared
+	 */
+	private PreparedStatement prepare(Connection connection, String sql, String orderBy) throws SQLException {
+		List<String> pageConditions = new ArrayList<String>();
+		if (lastRecordID != null) {
+			pageConditions.add("[recID] > ?");
+		}
+		if (throughRecordID != null) {
+			pageConditions.add("[recID] <= ?");
+		}
+		if (missingMakCondition != null) {
+			pageConditions.add(missingMakCondition);
+		}
+		pageConditions.addAll(conditions);
+		String where = pageConditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", pageConditions);
+
+		PreparedStatement prepared = connection.prepareStatement(sql + where + orderBy);
+		int parameter = 1;
+		if (lastRecordID != null) {
+			prepared.setString(parameter++, lastRecordID);
+		}
+		if (throughRecordID != null) {
+			prepared.setString(parameter++, throughRecordID);
+		}
+		for (Object value : conditionParameters) {
+			prepared.setObject(parameter++, value);
+		}
+		return prepared;
+	}
+
+	private void closePage() {
+		try {
+			if (resultSet != null) {
+				resultSet.close();
+			}
+			if (statement != null) {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} finally {
+			connectionPool.release(connection);
+			resultSet = null;
+			statement = null;
+			connection = null;
+		}
+	}
+
+	/**
+	 * Releases the current page if reading stopped before the end of the table
+	 */
+	@Override
+	public void close() {
+		if (resultSet != null) {
+			closePage();
+		}
+		finished = true;
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * StringDictionary.java
+ *
+ * Program Description: Dictionary of the values of a column with few distinct values, such as
+ * Locality or PostalCode. Each distinct value is kept once and given a small integer code, so
+ * rows can share one String instance per value or store just the code. Codes are never
+ * reassigned, so a code can be handed between threads with the row that holds it. Once the
+ * dictionary is full, new values are left unencoded.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class StringDictionary {
+	// Code of the empty string, which every dictionary starts with
+	public static final int EMPTY = 0;
+	// Code returned when a value does not fit in a full dictionary
+	public static final int NOT_ENCODED = -1;
+
+	private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<String, Integer>();
+	private final int maxEntries;
+	private volatile String[] values = new String[64];
+	private int size = 0;
+
+	/**
+	 * @param maxEntries most distinct values kept
+	 */
+	public StringDictionary(int maxEntries) {
+		this.maxEntries = Math.max(1, maxEntries);
+		encode("");
+	}
+
+	/**
+	 * @param value
+	 * @return code of the value, added to the dictionary if new, or NOT_ENCODED if the
+	 * dictionary is full
+	 */
+	public int encode(String value) {
+		Integer code = codes.get(value);
+
+		if (code != null) {
+			return code;
+		}
+		synchronized (this) {
+			code = codes.get(value);
+			if (code != null) {
+				return code;
+			}
+			if (size >= maxEntries) {
+				return NOT_ENCODED;
+			}
+			String[] current = values;
+			String[] next = size == current.length ? Arrays.copyOf(current, size * 2) : current;
+			next[size] = value;
+			// The volatile write publishes the value before its code so any holder of the code can decode it
+			values = next;
+			codes.put(value, size);
+			return size++;
+		}
+	}
+
+	/**
+	 * @param code
+	 * @return value of the code
+	 */
+	public String decode(int code) {
+		return values[code];
+	}
+
+	/**
+	 * @param value
+	 * @return the dictionary's instance of the value, or the value itself if it does not fit
+	 */
+	public String canonical(String value) {
+		int code = encode(value);
+		return code == NOT_ENCODED ? value : decode(code);
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+}
@@ -0,0 +1,265 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * StubServices.java
+ *
+ * Program Description: Local stand-ins for the Global Address and Global MAK web services,
+ * served by the JDK's built-in HTTP server so that the whole program can be run and measured
+ * without the live endpoints. Global Address answers GET and multi-record POST requests with
+ * Records payloads shaped like JSONResponse.json, echoing the request's address fields.
+ * Global MAK answers with an _id derived from the address. Every response is delayed by a
+ * log-normal latency, and a configurable share of calls fails with 503 or 429.
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class StubServices {
+	private static final String GLOBAL_ADDRESS_PATH = "/V3/WEB/GlobalAddress/doGlobalAddress";
+	private static final String MAK_PATH = "/mak";
+
+	// Every field of a Global Address response record, in the order of JSONResponse.json
+	static final String[] RECORD_FIELDS = { "RecordID", "Results", "FormattedAddress", "Organization",
+			"AddressLine1", "AddressLine2", "AddressLine3", "AddressLine4", "AddressLine5", "AddressLine6",
+			"AddressLine7", "AddressLine8", "SubPremises", "DoubleDependentLocality", "DependentLocality",
+			"Locality", "SubAdministrativeArea", "AdministrativeArea", "PostalCode", "AddressType", "AddressKey",
+			"SubNationalArea", "CountryName", "CountryISO3166_1_Alpha2", "CountryISO3166_1_Alpha3",
+			"CountryISO3166_1_Numeric", "CountrySubdivisionCode", "Thoroughfare", "ThoroughfarePreDirection",
+			"ThoroughfareLeadingType", "ThoroughfareName", "ThoroughfareTrailingType", "ThoroughfarePostDirection",
+			"DependentThoroughfare", "DependentThoroughfarePreDirection", "DependentThoroughfareLeadingType",
+			"DependentThoroughfareName", "DependentThoroughfareTrailingType", "DependentThoroughfarePostDirection",
+			"Building", "PremisesType", "PremisesNumber", "SubPremisesType", "SubPremisesNumber", "PostBox",
+			"Latitude", "Longitude" };
+
+	// GET query parameters and the response fields they are echoed into
+	private static final String[][] QUERY_FIELDS = { { "a1", "AddressLine1" }, { "a2", "AddressLine2" },
+			{ "a3", "AddressLine3" }, { "a4", "AddressLine4" }, { "a5", "AddressLine5" }, { "a6", "AddressLine6" },
+			{ "a7", "AddressLine7" }, { "a8", "AddressLine8" }, { "loc", "Locality" },
+			{ "admarea", "AdministrativeArea" }, { "postal", "PostalCode" }, { "deploc", "DependentLocality" },
+			{ "ddeploc", "DoubleDependentLocality" }, { "subadmarea", "SubAdministrativeArea" },
+			{ "subNationalArea", "SubNationalArea" }, { "org", "Organization" } };
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final double medianLatencyMillis;
+	private final double latencySigma;
+	private final double errorRate;
+	private final double verifiedShare;
+
+	/**
+	 * Starts both stub services on a free local port
+	 * @param medianLatencyMillis median delay of a response
+	 * @param latencySigma spread of the log-normal delay, 0 for a constant delay
+	 * @param errorRate share of calls answered with 503 or 429 instead of a result
+	 * @param verifiedShare share of addresses answered as verified to the building (AV24)
+	 * @throws IOException if the server cannot be started
+	 */
+	public StubServices(double medianLatencyMillis, double latencySigma, double errorRate, double verifiedShare)
+			throws IOException {
+		this.medianLatencyMillis = medianLatencyMillis;
+		this.latencySigma = latencySigma;
+		this.errorRate = errorRate;
+		this.verifiedShare = verifiedShare;
+
+		// Without TCP_NODELAY every response would wait on the client's delayed ACK
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		server.createContext(GLOBAL_ADDRESS_PATH, this::handleGlobalAddress);
+		server.createContext(MAK_PATH, this::handleMak);
+		executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "stub-service");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public String getGlobalAddressUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + GLOBAL_ADDRESS_PATH;
+	}
+
+	public String getMakUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + MAK_PATH;
+	}
+
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void handleGlobalAddress(HttpExchange exchange) throws IOException {
+		try {
+			if (!delayOrFail(exchange)) {
+				return;
+			}
+
+			JSONArray records = new JSONArray();
+			if ("POST".equals(exchange.getRequestMethod())) {
+				JSONObject request = (JSONObject) new JSONParser().parse(readBody(exchange));
+				for (Object record : (JSONArray) request.get("Records")) {
+					records.add(buildRecord((JSONObject) record));
+				}
+			} else {
+				records.add(buildRecord(parseQuery(exchange.getRequestURI().getRawQuery())));
+			}
+
+			JSONObject response = new JSONObject();
+			response.put("Version", "3.0.1.143");
+			response.put("TransmissionReference", "");
+			response.put("TransmissionResults", "");
+			response.put("TotalRecords", String.valueOf(records.size()));
+			response.put("Records", records);
+			respond(exchange, 200, response.toString());
+		} catch (ParseException | ClassCastException | NullPointerException e) {
+			respond(exchange, 400, "{\"TransmissionResults\":\"SE01\"}");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void handleMak(HttpExchange exchange) throws IOException {
+		try {
+			if (!delayOrFail(exchange)) {
+				return;
+			}
+
+			String body = readBody(exchange);
+			JSONObject response = new JSONObject();
+			response.put("_id", String.format("IS%08x", body.hashCode()));
+			respond(exchange, 200, response.toString());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Waits for a log-normal delay, then fails the call with the configured error rate
+	 * @param exchange
+	 * @return false if the call was answered with an error
+	 */
+	private boolean delayOrFail(HttpExchange exchange) throws IOException, InterruptedException {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long delayMillis = (long) (medianLatencyMillis * Math.exp(latencySigma * random.nextGaussian()));
+
+		if (delayMillis > 0) {
+			Thread.sleep(delayMillis);
+		}
+
+		if (random.nextDouble() < errorRate) {
+			// The request is read in full so the connection can be kept alive
+			readBody(exchange);
+			respond(exchange, random.nextBoolean() ? 503 : 429, "");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Builds a response record that echoes the request's address fields, verified to the
+	 * building level for verifiedShare of the addresses
+	 * @param request request record or GET query parameters keyed by response field name
+	 * @return response record with every field of a real Global Address record
+	 */
+	@SuppressWarnings("unchecked")
+	private JSONObject buildRecord(Map<?, ?> request) {
+		JSONObject record = new JSONObject();
+		for (String field : RECORD_FIELDS) {
+			Object value = request.get(field);
+			record.put(field, value == null ? "" : value.toString());
+		}
+
+		String addressLine1 = record.get("AddressLine1").toString();
+		// The same address always gets the same result
+		boolean verified = (addressLine1.hashCode() & 0xFFFF) < verifiedShare * 0x10000;
+		String[] words = addressLine1.split(" ");
+
+		record.put("RecordID", request.get("RecordID") == null ? "1" : request.get("RecordID").toString());
+		record.put("Results", verified ? "AV24,GS05" : "AV12,GE02");
+		record.put("FormattedAddress", addressLine1 + ";" + record.get("PostalCode") + " " + record.get("Locality")
+				+ ";ICELAND");
+		record.put("CountryName", "Iceland");
+		record.put("CountryISO3166_1_Alpha2", "IS");
+		record.put("CountryISO3166_1_Alpha3", "ISL");
+		record.put("CountryISO3166_1_Numeric", "352");
+		record.put("ThoroughfareName", words[0]);
+		record.put("Thoroughfare", words[0]);
+		record.put("PremisesNumber", verified && words.length > 1 ? words[words.length - 1] : "");
+		return record;
+	}
+
+	/**
+	 * @param rawQuery
+	 * @return GET query parameters keyed by the response field they are echoed into
+	 */
+	private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+		Map<String, String> parameters = new HashMap<String, String>();
+		Map<String, String> fields = new HashMap<String, String>();
+
+		if (rawQuery != null) {
+			for (String pair : rawQuery.split("&")) {
+				int equals = pair.indexOf('=');
+				if (equals > 0) {
+					parameters.put(pair.substring(0, equals), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+				}
+			}
+		}
+		for (String[] field : QUERY_FIELDS) {
+			fields.put(field[1], parameters.get(field[0]));
+		}
+		return fields;
+	}
+
+	private static String readBody(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+
+		try (InputStream input = exchange.getRequestBody()) {
+			int read;
+			while ((read = input.read(buffer)) > 0) {
+				body.write(buffer, 0, read);
+			}
+		}
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(statusCode, bytes.length == 0 ? -1 : bytes.length);
+		if (bytes.length > 0) {
+			try (OutputStream output = exchange.getResponseBody()) {
+				output.write(bytes);
+			}
+		}
+	}
+}
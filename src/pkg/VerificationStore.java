@@ -0,0 +1,231 @@
+/**
+ * Assign a MAK id to Verified Global Addresses Project
+ * VerificationStore.java
+ *
+ * Program Description: Side table keeping the full Global Address output of every verified
+ * row, accepted or not: its result codes as a ResultCodes bitset and its corrected address
+ * fields. A change of acceptance policy can then be applied to the stored results by the
+ * --reevaluate mode of Main.java instead of verifying every address again.
+ *
+ * Rows are collected and upserted as one PreparedStatement batch per transaction once
+ * batchSize rows are pending, and when the store is closed.
+ *
+ * Side table columns:
+ * 	recID	record ID of the row in the SQL Table
+ * 	result_codes	ResultCodes bitset
+ * 	other_codes	codes outside the bitset, NULL if none
+ * 	AddressLine1 ... SubPremisesNumber	corrected fields, named as in Global Address responses
+ * 	verified_at	when the row was last verified
+ *
+ * @author Alyssa House
+ */
+
+package pkg;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+public class VerificationStore {
+	private static final int FIELD_COUNT = GlobalAddressResult.CORRECTED_FIELD_NAMES.length;
+
+	private final ConnectionPool connectionPool;
+	private final String verificationTable;
+	private final String databaseTable;
+	private final int batchSize;
+	private final String upsertSql;
+	private final List<GlobalAddressResult> pending = new ArrayList<GlobalAddressResult>();
+
+	private long rowsStored = 0;
+	private long rowsFailed = 0;
+
+	/**
+	 * @param connectionPool pool the side table is read and written through
+	 * @param verificationTable side table, created if it does not exist
+	 * @param databaseTable SQL Table whose rows are stored
+	 * @param batchSize number of rows upserted per batch
+	 */
+	public VerificationStore(ConnectionPool connectionPool, String verificationTable, String databaseTable,
+			int batchSize) {
+		this.connectionPool = connectionPool;
+		this.verificationTable = verificationTable;
+		this.databaseTable = databaseTable;
+		this.batchSize = Math.max(1, batchSize);
+
+		StringBuilder columns = new StringBuilder("[recID], [result_codes], [other_codes]");
+		StringBuilder values = new StringBuilder("[source].[recID], ?, ?");
+		StringBuilder updates = new StringBuilder("[result_codes] = ?, [other_codes] = ?");
+		for (String field : GlobalAddressResult.CORRECTED_FIELD_NAMES) {
+			columns.append(", [").append(field).append("]");
+			values.append(", ?");
+			updates.append(", [").append(field).append("] = ?");
+		}
+		this.upsertSql = "MERGE " + verificationTable + " WITH (HOLDLOCK) AS [target]"
+				+ " USING (SELECT ? AS [recID]) AS [source] ON [target].[recID] = [source].[recID]"
+				+ " WHEN MATCHED THEN UPDATE SET " + updates + ", [verified_at] = SYSUTCDATETIME()"
+				+ " WHEN NOT MATCHED THEN INSERT (" + columns + ", [verified_at])"
+				+ " VALUES (" + values + ", SYSUTCDATETIME());";
+	}
+
+	/**
+	 * Creates the side table if it does not exist
+	 * @throws SQLException if the side table cannot be created
+	 */
+	public void prepare() throws SQLException {
+		StringBuilder create = new StringBuilder("IF OBJECT_ID(N'" + verificationTable.replace("'", "''")
+				+ "', N'U') IS NULL CREATE TABLE " + verificationTable + " ([recID] NVARCHAR(450) NOT NULL "
+				+ "PRIMARY KEY, [result_codes] VARBINARY(40) NOT NULL, [other_codes] NVARCHAR(400) NULL");
+		for (String field : GlobalAddressResult.CORRECTED_FIELD_NAMES) {
+			create.append(", [").append(field).append("] NVARCHAR(400) NULL");
+		}
+		create.append(", [verified_at] DATETIME2 NOT NULL)");
+
+		Connection connection = connectionPool.borrow();
+		try (Statement statement = connection.createStatement()) {
+			statement.execute(create.toString());
+		} finally {
+			connectionPool.release(connection);
+		}
+	}
+
+	/**
+	 * Queues the verification result of the row with the given record ID, sending the batch if
+	 * it is full
+	 * @param recordID
+	 * @param result
+	 */
+	public synchronized void add(String recordID, GlobalAddressResult result) {
+		String[] fields = new String[FIELD_COUNT];
+		for (int i = 0; i < FIELD_COUNT; i++) {
+			fields[i] = result.getCorrectedField(i);
+		}
+		pending.add(new GlobalAddressResult(recordID, result.getResultCodes(), fields));
+
+		if (pending.size() >= batchSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * Upserts every pending row in a single transaction
+	 */
+	public synchronized void flush() {
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		Connection connection = null;
+		try {
+			connection = connectionPool.borrow();
+			connection.setAutoCommit(false);
+
+			try (PreparedStatement statement = connection.prepareStatement(upsertSql)) {
+				for (GlobalAddressResult result : pending) {
+					ResultCodes codes = ResultCodes.parse(result.getResultCodes());
+					int parameter = 1;
+
+					statement.setString(parameter++, result.getRecordID());
+					// Matched rows are updated and new rows inserted with the same values
+					for (int copy = 0; copy < 2; copy++) {
+						statement.setBytes(parameter++, codes.toBytes());
+						statement.setString(parameter++, codes.getOtherCodes());
+						for (int i = 0; i < FIELD_COUNT; i++) {
+							statement.setString(parameter++, result.getCorrectedField(i));
+						}
+					}
+					statement.addBatch();
+				}
+				statement.executeBatch();
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+			rowsStored += pending.size();
+		} catch (SQLException e) {
+			System.out.println("ERROR SQLException in VerificationStore.flush() : "
+					+ "Unable to store " + pending.size() + " verification results.");
+			e.printStackTrace();
+			rowsFailed += pending.size();
+		} finally {
+			connectionPool.release(connection);
+			pending.clear();
+		}
+	}
+
+	/**
+	 * Reads every stored row in recID order, a page at a time, with whether its row in the
+	 * SQL Table has a MAK id
+	 * @param pageSize
+	 * @param handler told about each stored row
+	 * @throws SQLException if a page cannot be read
+	 */
+	public void forEachStored(int pageSize, StoredRowHandler handler) throws SQLException {
+		int rowsPerPage = Math.max(1, pageSize);
+		StringBuilder select = new StringBuilder("SELECT TOP (" + rowsPerPage + ") [stored].[recID], "
+				+ "[stored].[result_codes], [stored].[other_codes]");
+		for (String field : GlobalAddressResult.CORRECTED_FIELD_NAMES) {
+			select.append(", [stored].[").append(field).append("]");
+		}
+		select.append(", CASE WHEN [source].[mak_id] IS NULL OR [source].[mak_id] = '' THEN 0 ELSE 1 END")
+				.append(", [source].[CountryCode] FROM ")
+				.append(verificationTable).append(" AS [stored] JOIN ").append(databaseTable)
+				.append(" AS [source] ON [source].[recID] = [stored].[recID]");
+		String firstPageSql = select + " ORDER BY [stored].[recID]";
+		String nextPageSql = select + " WHERE [stored].[recID] > ? ORDER BY [stored].[recID]";
+
+		String lastRecordID = null;
+		int rowsInPage;
+		do {
+			rowsInPage = 0;
+			Connection connection = connectionPool.borrow();
+			try (PreparedStatement statement = connection.prepareStatement(
+					lastRecordID == null ? firstPageSql : nextPageSql)) {
+				if (lastRecordID != null) {
+					statement.setString(1, lastRecordID);
+				}
+				try (ResultSet resultSet = statement.executeQuery()) {
+					while (resultSet.next()) {
+						String[] fields = new String[FIELD_COUNT];
+						for (int i = 0; i < FIELD_COUNT; i++) {
+							fields[i] = resultSet.getString(4 + i);
+						}
+						lastRecordID = resultSet.getString(1);
+						ResultCodes codes = ResultCodes.fromBytes(resultSet.getBytes(2), resultSet.getString(3));
+						handler.handle(new GlobalAddressResult(lastRecordID, codes.toString(), fields),
+								resultSet.getString(5 + FIELD_COUNT), resultSet.getInt(4 + FIELD_COUNT) == 1);
+						rowsInPage++;
+					}
+				}
+			} finally {
+				connectionPool.release(connection);
+			}
+		} while (rowsInPage == rowsPerPage);
+	}
+
+	/**
+	 * Upserts the last pending rows and prints the totals
+	 */
+	public synchronized void close() {
+		flush();
+		System.out.println("Verification results stored: " + rowsStored + ", failed: " + rowsFailed);
+	}
+
+	/**
+	 * Told about each row read by forEachStored()
+	 */
+	public interface StoredRowHandler {
+		/**
+		 * @param result stored result, with the row's record ID
+		 * @param countryCode CountryCode of the row in the SQL Table, possibly null or empty
+		 * @param hasMak true if the row in the SQL Table has a MAK id
+		 */
+		void handle(GlobalAddressResult result, String countryCode, boolean hasMak);
+	}
+}
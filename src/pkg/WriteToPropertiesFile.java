@@ -3,8 +3,72 @@
  * WriteToPropertiesFile.java
  * 
  * Program description: writes config.properties file which contains the properties for
- * this project. Currently the only property is table, which defines the SQL Table to be
- * used as input and updated with a mak ID
+ * this project.
+ * 	table : SQL Table to be used as input and updated with a mak ID
+ * 	connection : JDBC connection string of the SQL Server database
+ * 	read.pageSize : maximum number of rows selected per query
+ * 	read.fetchSize : number of rows the driver fetches per round trip
+ * 	read.onlyMissingMak : true to only read rows whose mak_id is NULL
+ * 	write.poolSize : number of pooled SQL connections shared by reads and write-back, at least 2
+ * 	write.batchSize : number of mak_id updates sent per batch
+ * 	write.flushMillis : longest time an update waits before its batch is sent
+ * 	pipeline : true to run read, verify, MAK lookup and write-back as concurrent stages
+ * 	pipeline.queueCapacity : maximum number of records waiting between two stages
+ * 	pipeline.batchRows : number of rows read into each columnar batch for the verify stage
+ * 	pipeline.verifyThreads : number of Global Address worker threads
+ * 	pipeline.makThreads : number of Global MAK worker threads
+ * 	http.connectTimeoutMillis : longest wait for a web service connection
+ * 	http.readTimeoutMillis : longest wait for web service data once connected
+ * 	http.deadlineMillis : longest time a web service request may take from start to end
+ * 	cache.maxEntries : number of verification and MAK results kept in memory for identical addresses
+ * 	cache.file : file that keeps verification and MAK results between runs, blank to disable
+ * 	cache.ttlDays : days a result in cache.file stays valid
+ * 	cache.fileMaxEntries : number of results kept in cache.file
+ * 	journal.file : progress journal used by --resume, blank to disable
+ * 	journal.syncMillis : interval between fsynced progress snapshots
+ * 	globalAddress.url, globalMak.url : web service endpoints, e.g. the local stubs of StubServices.java
+ * 	globalAddress.ratePerSecond, globalMak.ratePerSecond : licensed requests per second, 0 for no limit
+ * 	globalAddress.latencyTargetMillis, globalMak.latencyTargetMillis : slower calls reduce concurrency
+ * 	globalAddress.maxAttempts, globalMak.maxAttempts : tries per call before giving up
+ * 	globalAddress.failureThreshold, globalMak.failureThreshold : failed calls in a row that pause calls
+ * 	globalAddress.pauseMillis, globalMak.pauseMillis : how long calls are paused before a trial call
+ * 	globalAddress.hedgePercentile, globalMak.hedgePercentile : latency percentile after which a request is sent again, 0 not to hedge
+ * 	globalAddress.hedgeMaxPercent, globalMak.hedgeMaxPercent : highest percentage of calls that may be hedged
+ * 	globalAddress.batchSize : records sent per Global Address request in pipeline mode (1 for GET, at most 100)
+ * 	metrics.file : Prometheus text file rewritten with the run's metrics, blank to disable
+ * 	metrics.intervalSeconds : interval between metrics file updates and progress lines
+ * 	lease.table : SQL lease table through which several workers share the SQL Table, blank to read it all
+ * 	lease.rangeRows : rows per leased recID range
+ * 	lease.durationSeconds, lease.heartbeatSeconds : how long a lease lasts and how often it is renewed
+ * 	worker.id : name of this worker in the lease table, blank for process ID and host name
+ * 	incremental.rowversionColumn : rowversion column of the table to read only rows changed since the last run, blank to read all
+ * 	incremental.hashColumn : BINARY(32) column storing the hash of each address written back, blank to go without
+ * 	incremental.watermarkTable : table holding the watermark of each incrementally read table
+ * 	acceptance.codes : result codes of which any one accepts an address for a MAK id
+ * 	verification.table : side table keeping every row's result codes and corrected fields for --reevaluate, blank to disable
+ * 	prefilter : true to skip rows that cannot be verified to the building level without calling Global Address
+ * 	prefilter.minIndexed : accepted addresses the pre-filter needs before it skips rows with an unknown place
+ * 	prefilter.auditPercent : percentage of the rows to skip that are verified anyway to measure false skips
+ * 	deadLetter.file : file recording the rows that could not be finished, for --replay-dead-letters
+ * 	deadLetter.replayThreads : number of verify and MAK workers used by --replay-dead-letters
+ * 	input.file : extract file to read the rows from instead of the SQL Table, empty to read the SQL Table
+ * 	input.format : delimited or jsonl
+ * 	input.delimiter : field delimiter of a delimited input file, such as \t or ,
+ * 	input.bufferKB : size of the input file read buffer in KB
+ * 	output.file : result file to write recID and mak_id lines to instead of updating the SQL Table
+ * 	output.delimiter : delimiter between recID and mak_id in the result file
+ * 	cassette.mode : record to save every web service response to the cassette, replay to answer from it offline, empty for neither; either sends one address per Global Address request
+ * 	cassette.file : file the web service responses are recorded to and replayed from
+ * 	cassette.replayTiming : true to answer a replayed request only after the time the web service took when recorded
+ * 	countries : CountryCode values whose rows get their own queues, workers, rate quotas and acceptance codes, such as IS,NO; empty for one queue
+ * 	country.<code>.verifyThreads, country.<code>.makThreads : worker threads of the country, by default pipeline.verifyThreads and pipeline.makThreads
+ * 	country.<code>.globalAddress.*, country.<code>.globalMak.* : call governor properties of the country, such as ratePerSecond, by default those of the web service
+ * 	country.<code>.acceptance.codes : acceptance codes of the country, by default acceptance.codes
+ * 	jobs : SQL Tables to run at once, sharing the web service quotas, such as dbo.AddressesA,dbo.AddressesB; empty to run the table property alone
+ * 	job.<table>.priority : weight of the table's share of the web service calls, 1 by default
+ * 	job.<table>.maxRows : most rows read from the table, 0 for all of them
+ * 	jobs.progressSeconds : seconds between two lines of each table's progress and time left
+ * 	debug.dumpResponses : true to write each Global Address response to JSONResponse.json
  */
 
 
@@ -27,6 +91,69 @@ public class WriteToPropertiesFile {
 
 			// set the properties value
 			prop.setProperty("table", "");	// set table
+			prop.setProperty("connection", "");	// jdbc:sqlserver://<server name>;database=<database>;user=<user>;password=<password>;
+			prop.setProperty("read.pageSize", "5000");
+			prop.setProperty("read.fetchSize", "1000");
+			prop.setProperty("read.onlyMissingMak", "false");
+			prop.setProperty("write.poolSize", "2");
+			prop.setProperty("write.batchSize", "500");
+			prop.setProperty("write.flushMillis", "1000");
+			prop.setProperty("pipeline", "false");
+			prop.setProperty("pipeline.queueCapacity", "1000");
+			prop.setProperty("pipeline.batchRows", "64");
+			prop.setProperty("pipeline.verifyThreads", "8");
+			prop.setProperty("pipeline.makThreads", "8");
+			prop.setProperty("http.connectTimeoutMillis", "5000");
+			prop.setProperty("http.readTimeoutMillis", "30000");
+			prop.setProperty("http.deadlineMillis", "60000");
+			prop.setProperty("cache.maxEntries", "100000");
+			prop.setProperty("cache.file", "address-cache.bin");
+			prop.setProperty("cache.ttlDays", "30");
+			prop.setProperty("cache.fileMaxEntries", "5000000");
+			prop.setProperty("journal.file", "progress.journal");
+			prop.setProperty("journal.syncMillis", "1000");
+			for (String service : new String[] { "globalAddress", "globalMak" }) {
+				prop.setProperty(service + ".ratePerSecond", "0");
+				prop.setProperty(service + ".latencyTargetMillis", "2000");
+				prop.setProperty(service + ".maxAttempts", "5");
+				prop.setProperty(service + ".failureThreshold", "10");
+				prop.setProperty(service + ".pauseMillis", "30000");
+				prop.setProperty(service + ".hedgePercentile", "0");
+				prop.setProperty(service + ".hedgeMaxPercent", "10");
+			}
+			prop.setProperty("globalAddress.url", "http://address.melissadata.net/V3/WEB/GlobalAddress/doGlobalAddress");
+			prop.setProperty("globalMak.url", "");
+			prop.setProperty("globalAddress.batchSize", "1");
+			prop.setProperty("metrics.file", "metrics.prom");
+			prop.setProperty("metrics.intervalSeconds", "10");
+			prop.setProperty("lease.table", "");
+			prop.setProperty("lease.rangeRows", "10000");
+			prop.setProperty("lease.durationSeconds", "120");
+			prop.setProperty("lease.heartbeatSeconds", "30");
+			prop.setProperty("worker.id", "");
+			prop.setProperty("incremental.rowversionColumn", "");
+			prop.setProperty("incremental.hashColumn", "");
+			prop.setProperty("incremental.watermarkTable", "mak_watermark");
+			prop.setProperty("acceptance.codes", "AV24,AV25");
+			prop.setProperty("verification.table", "");
+			prop.setProperty("prefilter", "false");
+			prop.setProperty("prefilter.minIndexed", "1000");
+			prop.setProperty("prefilter.auditPercent", "1");
+			prop.setProperty("deadLetter.file", "dead-letters.jsonl");
+			prop.setProperty("deadLetter.replayThreads", "2");
+			prop.setProperty("input.file", "");
+			prop.setProperty("input.format", "delimited");
+			prop.setProperty("input.delimiter", "\t");
+			prop.setProperty("input.bufferKB", "1024");
+			prop.setProperty("output.file", "");
+			prop.setProperty("output.delimiter", "\t");
+			prop.setProperty("cassette.mode", "");
+			prop.setProperty("cassette.file", "responses.cassette");
+			prop.setProperty("cassette.replayTiming", "false");
+			prop.setProperty("countries", "");
+			prop.setProperty("jobs", "");
+			prop.setProperty("jobs.progressSeconds", "30");
+			prop.setProperty("debug.dumpResponses", "false");
 
 			// save properties to project root folder
 			prop.store(output, null);